@@ -41,8 +41,8 @@ dependencies {
     // intellijPlatform {
     //     testFramework(IntelliJPlatformTestFrameworkType.JUnit5) // For JUnit5 based tests
     // }
-    // testImplementation("org.junit.jupiter:junit-jupiter-api:5.10.0")
-    // testRuntimeOnly("org.junit.jupiter:junit-jupiter-engine:5.10.0")
+    testImplementation("org.junit.jupiter:junit-jupiter-api:5.10.0")
+    testRuntimeOnly("org.junit.jupiter:junit-jupiter-engine:5.10.0")
 }
 
 // Configure Java compilation settings
@@ -52,7 +52,24 @@ java {
 
 }
 
+// Headless load harness for GeminiApiService; compiled against the plugin classes, not packaged with them
+sourceSets {
+    create("loadtest") {
+        compileClasspath += sourceSets.main.get().output + sourceSets.main.get().compileClasspath
+        runtimeClasspath += output + compileClasspath
+    }
+}
+
 tasks {
+    // ./gradlew loadTest -PloadTestArgs="--stub --concurrency 32 --requests 2000"
+    register<JavaExec>("loadTest") {
+        group = "verification"
+        description = "Replays a prompt workload against GeminiApiService outside the IDE and reports throughput, latency, errors and allocation."
+        classpath = sourceSets["loadtest"].runtimeClasspath
+        mainClass.set("eu.technest.geminichatplugin.loadtest.GeminiLoadHarness")
+        args = (project.findProperty("loadTestArgs") as String? ?: "--stub").split(" ").filter { it.isNotBlank() }
+    }
+
     // Configure JUnit 5 for the 'test' task (if you have tests)
     test {
         useJUnitPlatform()
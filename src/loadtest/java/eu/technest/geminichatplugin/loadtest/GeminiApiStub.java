@@ -0,0 +1,95 @@
+package eu.technest.geminichatplugin.loadtest;
+
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A local stand-in for the Gemini API: answers generateContent with one JSON body and streamGenerateContent
+ * with server-sent events, after a configurable delay, and fails a configurable share of requests with 500.
+ */
+final class GeminiApiStub implements AutoCloseable {
+    private final HttpServer server;
+    private final ExecutorService executor = Executors.newCachedThreadPool(); // One thread per open request
+    private final long latencyMillis;
+    private final int chunks;
+    private final double errorRate;
+
+    GeminiApiStub(long latencyMillis, int chunks, double errorRate) throws IOException {
+        this.latencyMillis = latencyMillis;
+        this.chunks = Math.max(1, chunks);
+        this.errorRate = errorRate;
+        server = HttpServer.create(new InetSocketAddress("127.0.0.1", 0), 1024);
+        server.createContext("/", this::handle);
+        server.setExecutor(executor);
+        server.start();
+    }
+
+    String getBaseUrl() {
+        return "http://127.0.0.1:" + server.getAddress().getPort() + "/";
+    }
+
+    @Override
+    public void close() {
+        server.stop(0);
+        executor.shutdownNow();
+    }
+
+    private void handle(HttpExchange exchange) throws IOException {
+        try {
+            exchange.getRequestBody().readAllBytes();
+            String path = exchange.getRequestURI().getPath();
+            if ("HEAD".equals(exchange.getRequestMethod())) {
+                exchange.sendResponseHeaders(200, -1);
+                return;
+            }
+            if (ThreadLocalRandom.current().nextDouble() < errorRate) {
+                sendJson(exchange, 500, "{\"error\":{\"code\":500,\"message\":\"Injected stub error\"}}");
+                return;
+            }
+            if (path.endsWith(":streamGenerateContent")) {
+                exchange.getResponseHeaders().set("Content-Type", "text/event-stream");
+                exchange.sendResponseHeaders(200, 0);
+                OutputStream body = exchange.getResponseBody();
+                for (int i = 0; i < chunks; i++) {
+                    sleep(latencyMillis / chunks);
+                    body.write(("data: " + candidate("chunk " + i + " of the stubbed answer. ") + "\r\n\r\n").getBytes(StandardCharsets.UTF_8));
+                    body.flush();
+                }
+            } else if (path.endsWith(":generateContent")) {
+                sleep(latencyMillis);
+                sendJson(exchange, 200, candidate("The stubbed answer."));
+            } else {
+                sendJson(exchange, 404, "{\"error\":{\"code\":404,\"message\":\"Not stubbed: " + path + "\"}}");
+            }
+        } finally {
+            exchange.close();
+        }
+    }
+
+    private static String candidate(String text) {
+        return "{\"candidates\":[{\"content\":{\"role\":\"model\",\"parts\":[{\"text\":\"" + text + "\"}]}}]}";
+    }
+
+    private static void sendJson(HttpExchange exchange, int status, String json) throws IOException {
+        byte[] bytes = json.getBytes(StandardCharsets.UTF_8);
+        exchange.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        exchange.sendResponseHeaders(status, bytes.length);
+        exchange.getResponseBody().write(bytes);
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
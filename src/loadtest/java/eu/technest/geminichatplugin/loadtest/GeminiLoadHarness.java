@@ -0,0 +1,274 @@
+package eu.technest.geminichatplugin.loadtest;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.intellij.openapi.diagnostic.JulLogger;
+import com.intellij.openapi.diagnostic.Logger;
+import eu.technest.geminichatplugin.service.GeminiApiService;
+import eu.technest.geminichatplugin.service.LatencyRecorder;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.logging.Level;
+
+import static eu.technest.geminichatplugin.settings.GeminiSettingsService.DEFAULT_MODEL_ID;
+
+/**
+ * Drives {@link GeminiApiService} outside the IDE with many concurrent chat sessions and reports throughput,
+ * latency percentiles, error rates and allocation per request. Each worker runs sessions of a few turns,
+ * carrying the history like a chat tab does. Run with {@code ./gradlew loadTest -PloadTestArgs="..."}:
+ * <pre>
+ *   --stub                      serve a local stub instead of a real endpoint (default if no --base-url)
+ *   --stub-latency-ms 800       stub answer time, spread over the SSE chunks
+ *   --stub-chunks 8             SSE events per streamed stub answer
+ *   --stub-error-rate 0.01      share of stub requests answered with 500
+ *   --base-url URL              endpoint serving the Gemini API paths
+ *   --api-key KEY  --model ID
+ *   --concurrency 16            parallel sessions
+ *   --requests 500              measured requests, after --warmup requests
+ *   --turns 3                   turns per session
+ *   --prompts FILE              one prompt per line, replayed round-robin
+ *   --blocking                  generateContent instead of streamGenerateContent
+ *   --hedging                   enable hedged requests
+ *   --verbose                   keep the service's INFO logging
+ * </pre>
+ */
+public final class GeminiLoadHarness {
+    private static final List<String> DEFAULT_PROMPTS = List.of(
+            "Explain the difference between a HashMap and a TreeMap in Java.",
+            "Write a unit test for a method that reverses a string.",
+            "What does the volatile keyword guarantee?",
+            "Summarize the SOLID principles in one sentence each.");
+
+    private final Map<String, String> options;
+    private final List<String> prompts;
+    private final AtomicInteger nextRequest = new AtomicInteger();
+    private final Map<String, Integer> errors = new TreeMap<>(); // Guarded by itself
+    private LatencyRecorder latency;
+    private LatencyRecorder firstToken;
+    private final AtomicInteger succeeded = new AtomicInteger();
+    private final AtomicInteger failed = new AtomicInteger();
+
+    private GeminiLoadHarness(Map<String, String> options, List<String> prompts) {
+        this.options = options;
+        this.prompts = prompts;
+    }
+
+    public static void main(String[] args) throws Exception {
+        Map<String, String> options = parseOptions(args);
+        configureLogging(options.containsKey("verbose"));
+        List<String> prompts = options.containsKey("prompts")
+                ? readPrompts(options.get("prompts"))
+                : DEFAULT_PROMPTS;
+
+        GeminiApiStub stub = null;
+        String baseUrl = options.get("base-url");
+        if (baseUrl == null || options.containsKey("stub")) {
+            stub = new GeminiApiStub(longOption(options, "stub-latency-ms", 800), (int) longOption(options, "stub-chunks", 8),
+                    Double.parseDouble(options.getOrDefault("stub-error-rate", "0")));
+            baseUrl = stub.getBaseUrl();
+        }
+        try {
+            new GeminiLoadHarness(options, prompts).run(baseUrl.endsWith("/") ? baseUrl : baseUrl + "/");
+        } finally {
+            if (stub != null) {
+                stub.close();
+            }
+        }
+        System.exit(0); // OkHttp keeps non-daemon threads alive for a while
+    }
+
+    private void run(String baseUrl) throws InterruptedException {
+        boolean hedging = options.containsKey("hedging");
+        GeminiApiService apiService = new GeminiApiService(new GeminiApiService.Routing() {
+            @Override
+            public String selectBaseUrl() {
+                return baseUrl;
+            }
+
+            @Override
+            public boolean isHedgingEnabled() {
+                return hedging;
+            }
+        });
+        int concurrency = (int) longOption(options, "concurrency", 16);
+        int requests = (int) longOption(options, "requests", 500);
+        int warmup = (int) longOption(options, "warmup", concurrency);
+        System.out.printf("Load test against %s: %d sessions, %d requests after %d warm-up, %s%n",
+                baseUrl, concurrency, requests, warmup, options.containsKey("blocking") ? "generateContent" : "streamGenerateContent");
+
+        // The same worker threads run both phases, so their allocation counters are still alive at the end
+        ExecutorService workers = Executors.newFixedThreadPool(concurrency);
+        try {
+            runPhase(workers, apiService, concurrency, warmup); // Connection pool, JIT and class loading settle here
+            long allocatedBefore = allocatedBytes();
+            long startedAt = System.nanoTime();
+            runPhase(workers, apiService, concurrency, requests);
+            long elapsedNanos = System.nanoTime() - startedAt;
+            long allocated = allocatedBytes() - allocatedBefore;
+            report(requests, elapsedNanos, allocatedBefore < 0 ? -1 : allocated);
+        } finally {
+            workers.shutdownNow();
+        }
+    }
+
+    private void runPhase(ExecutorService workers, GeminiApiService apiService, int concurrency, int requests) throws InterruptedException {
+        latency = new LatencyRecorder(Math.max(1, requests));
+        firstToken = new LatencyRecorder(Math.max(1, requests));
+        succeeded.set(0);
+        failed.set(0);
+        synchronized (errors) {
+            errors.clear();
+        }
+        AtomicInteger remaining = new AtomicInteger(requests);
+        List<Callable<Void>> sessions = new ArrayList<>();
+        for (int i = 0; i < concurrency; i++) {
+            sessions.add(() -> {
+                runSessions(apiService, remaining);
+                return null;
+            });
+        }
+        workers.invokeAll(sessions);
+    }
+
+    private void runSessions(GeminiApiService apiService, AtomicInteger remaining) {
+        String apiKey = options.getOrDefault("api-key", "load-test");
+        String model = options.getOrDefault("model", DEFAULT_MODEL_ID);
+        int turns = (int) longOption(options, "turns", 3);
+        boolean blocking = options.containsKey("blocking");
+        List<JsonObject> history = new ArrayList<>();
+        while (remaining.getAndDecrement() > 0) {
+            if (history.size() >= 2 * turns) {
+                history.clear(); // Next session
+            }
+            String prompt = prompts.get(Math.floorMod(nextRequest.getAndIncrement(), prompts.size()));
+            long startedAt = System.nanoTime();
+            long[] firstTokenAt = {0};
+            GeminiApiService.GeminiApiResponseCallback callback = new GeminiApiService.GeminiApiResponseCallback() {
+                @Override
+                public void onPartialResponse(String textDelta) {
+                    if (firstTokenAt[0] == 0) {
+                        firstTokenAt[0] = System.nanoTime();
+                    }
+                }
+
+                @Override
+                public void onSuccess(String geminiResponse, JsonObject modelContent) {
+                    long now = System.nanoTime();
+                    latency.recordMillis((now - startedAt) / 1_000_000);
+                    firstToken.recordMillis(((firstTokenAt[0] != 0 ? firstTokenAt[0] : now) - startedAt) / 1_000_000);
+                    succeeded.incrementAndGet();
+                    history.add(userContent(prompt));
+                    history.add(modelContent);
+                }
+
+                @Override
+                public void onFailure(String errorMessage, String detailedError) {
+                    failed.incrementAndGet();
+                    synchronized (errors) {
+                        errors.merge(errorMessage, 1, Integer::sum);
+                    }
+                }
+            };
+            if (blocking) {
+                apiService.generateContent(apiKey, model, prompt, history, callback);
+            } else {
+                apiService.streamGenerateContent(apiKey, model, prompt, history, callback);
+            }
+        }
+    }
+
+    private void report(int requests, long elapsedNanos, long allocatedBytes) {
+        double seconds = elapsedNanos / 1e9;
+        System.out.printf("Requests:    %d in %.1f s, %d ok, %d failed (%.2f%% errors)%n",
+                requests, seconds, succeeded.get(), failed.get(), 100.0 * failed.get() / Math.max(1, requests));
+        System.out.printf("Throughput:  %.1f requests/s%n", requests / seconds);
+        System.out.printf("Latency:     p50 %d ms, p90 %d ms, p95 %d ms, p99 %d ms, max %d ms%n",
+                latency.getPercentile(50), latency.getPercentile(90), latency.getPercentile(95),
+                latency.getPercentile(99), latency.getPercentile(100));
+        System.out.printf("First token: p50 %d ms, p95 %d ms%n", firstToken.getPercentile(50), firstToken.getPercentile(95));
+        if (allocatedBytes >= 0) {
+            System.out.printf("Allocation:  ~%,d KB per request (all live threads)%n", allocatedBytes / Math.max(1, requests) / 1024);
+        }
+        synchronized (errors) {
+            errors.forEach((message, count) -> System.out.printf("Error:       %dx %s%n", count, message));
+        }
+    }
+
+    /**
+     * Bytes allocated so far by all live threads, or -1 if the JVM does not measure it. Threads that ended
+     * in between are not counted, so worker threads are measured while still alive.
+     */
+    private static long allocatedBytes() {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean)) {
+            return -1;
+        }
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!threads.isThreadAllocatedMemorySupported() || !threads.isThreadAllocatedMemoryEnabled()) {
+            return -1;
+        }
+        long total = 0;
+        for (long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds())) {
+            total += Math.max(0, allocated);
+        }
+        return total;
+    }
+
+    private static JsonObject userContent(String prompt) {
+        JsonObject part = new JsonObject();
+        part.addProperty("text", prompt);
+        JsonArray parts = new JsonArray();
+        parts.add(part);
+        JsonObject content = new JsonObject();
+        content.addProperty("role", "user");
+        content.add("parts", parts);
+        return content;
+    }
+
+    // The platform logger needs no application once it writes to java.util.logging
+    private static void configureLogging(boolean verbose) {
+        Logger.setFactory(category -> new JulLogger(java.util.logging.Logger.getLogger(category)));
+        java.util.logging.Logger.getLogger("").setLevel(verbose ? Level.INFO : Level.WARNING);
+    }
+
+    private static Map<String, String> parseOptions(String[] args) {
+        Map<String, String> options = new TreeMap<>();
+        for (int i = 0; i < args.length; i++) {
+            if (!args[i].startsWith("--")) {
+                throw new IllegalArgumentException("Unexpected argument " + args[i]);
+            }
+            String name = args[i].substring(2);
+            boolean hasValue = i + 1 < args.length && !args[i + 1].startsWith("--");
+            options.put(name, hasValue ? args[++i] : "true");
+        }
+        return options;
+    }
+
+    private static long longOption(Map<String, String> options, String name, long defaultValue) {
+        return options.containsKey(name) ? Long.parseLong(options.get(name)) : defaultValue;
+    }
+
+    private static List<String> readPrompts(String file) throws IOException {
+        List<String> prompts = new ArrayList<>();
+        for (String line : Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8)) {
+            if (!line.isBlank()) {
+                prompts.add(line.trim());
+            }
+        }
+        if (prompts.isEmpty()) {
+            throw new IllegalArgumentException("No prompts in " + file);
+        }
+        return prompts;
+    }
+}
@@ -0,0 +1,63 @@
+package eu.technest.geminichatplugin.completion;
+
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * LRU cache of suggestions keyed by the code context and the text typed on the current line.
+ * A lookup also hits when the user kept typing characters that match a cached suggestion,
+ * in which case the remaining part of that suggestion is returned.
+ */
+final class CompletionCache {
+    private static final int MAX_ENTRIES = 256;
+
+    private static final class Entry {
+        final String contextKey;
+        final String linePrefix;
+        final String suggestion;
+
+        Entry(String contextKey, String linePrefix, String suggestion) {
+            this.contextKey = contextKey;
+            this.linePrefix = linePrefix;
+            this.suggestion = suggestion;
+        }
+    }
+
+    private final Map<String, Entry> entries = new LinkedHashMap<String, Entry>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+            return size() > MAX_ENTRIES;
+        }
+    };
+
+    synchronized void put(String contextKey, String linePrefix, String suggestion) {
+        entries.put(contextKey + '\u0000' + linePrefix, new Entry(contextKey, linePrefix, suggestion));
+    }
+
+    @Nullable
+    synchronized String lookup(String contextKey, String linePrefix) {
+        Entry exact = entries.get(contextKey + '\u0000' + linePrefix);
+        if (exact != null) {
+            return exact.suggestion;
+        }
+        List<Entry> candidates = new ArrayList<>(entries.values());
+        for (Entry entry : candidates) {
+            if (!entry.contextKey.equals(contextKey) || !linePrefix.startsWith(entry.linePrefix)) {
+                continue;
+            }
+            String typed = linePrefix.substring(entry.linePrefix.length());
+            if (entry.suggestion.startsWith(typed) && entry.suggestion.length() > typed.length()) {
+                return entry.suggestion.substring(typed.length());
+            }
+        }
+        return null;
+    }
+
+    synchronized void clear() {
+        entries.clear();
+    }
+}
@@ -0,0 +1,31 @@
+package eu.technest.geminichatplugin.completion;
+
+import com.intellij.openapi.actionSystem.DataContext;
+import com.intellij.openapi.editor.Caret;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.actionSystem.EditorActionHandler;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+/**
+ * Tab accepts a shown ghost-text suggestion; otherwise the original Tab handler runs.
+ */
+public class GeminiAcceptCompletionHandler extends EditorActionHandler {
+    private final EditorActionHandler originalHandler;
+
+    public GeminiAcceptCompletionHandler(EditorActionHandler originalHandler) {
+        this.originalHandler = originalHandler;
+    }
+
+    @Override
+    protected boolean isEnabledForCaret(@NotNull Editor editor, @NotNull Caret caret, DataContext dataContext) {
+        return GeminiInlineCompletionManager.getInstance().hasSuggestion(editor) || originalHandler.isEnabled(editor, caret, dataContext);
+    }
+
+    @Override
+    protected void doExecute(@NotNull Editor editor, @Nullable Caret caret, DataContext dataContext) {
+        if (!GeminiInlineCompletionManager.getInstance().acceptSuggestion(editor)) {
+            originalHandler.execute(editor, caret, dataContext);
+        }
+    }
+}
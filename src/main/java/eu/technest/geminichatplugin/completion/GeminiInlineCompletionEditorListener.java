@@ -0,0 +1,21 @@
+package eu.technest.geminichatplugin.completion;
+
+import com.intellij.openapi.editor.event.EditorFactoryEvent;
+import com.intellij.openapi.editor.event.EditorFactoryListener;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Attaches inline completion listeners to every file editor.
+ */
+public class GeminiInlineCompletionEditorListener implements EditorFactoryListener {
+
+    @Override
+    public void editorCreated(@NotNull EditorFactoryEvent event) {
+        GeminiInlineCompletionManager.getInstance().attach(event.getEditor());
+    }
+
+    @Override
+    public void editorReleased(@NotNull EditorFactoryEvent event) {
+        GeminiInlineCompletionManager.getInstance().detach(event.getEditor());
+    }
+}
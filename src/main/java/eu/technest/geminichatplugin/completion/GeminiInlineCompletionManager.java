@@ -0,0 +1,325 @@
+package eu.technest.geminichatplugin.completion;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.command.WriteCommandAction;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.EditorKind;
+import com.intellij.openapi.editor.Inlay;
+import com.intellij.openapi.editor.event.CaretEvent;
+import com.intellij.openapi.editor.event.CaretListener;
+import com.intellij.openapi.editor.event.DocumentEvent;
+import com.intellij.openapi.editor.event.DocumentListener;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.Key;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.util.Alarm;
+import eu.technest.geminichatplugin.service.GeminiApiService;
+import eu.technest.geminichatplugin.service.LatencyRecorder;
+import eu.technest.geminichatplugin.settings.GeminiSettingsService;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Inline ghost-text completions. Keystrokes are debounced, a new request cancels the superseded one,
+ * and suggestions are cached so that typing along a shown or cached suggestion never needs a new call.
+ * Keystroke-to-suggestion latency is recorded for every shown suggestion and logged periodically.
+ */
+@Service
+public final class GeminiInlineCompletionManager implements Disposable {
+    private static final Logger LOG = Logger.getInstance(GeminiInlineCompletionManager.class);
+    private static final Key<EditorState> EDITOR_STATE_KEY = Key.create("gemini.inline.completion.state");
+
+    private static final int DEBOUNCE_MS = 300;
+    private static final int MAX_PREFIX_CHARS = 3000;
+    private static final int MAX_SUFFIX_CHARS = 1000;
+    private static final int MAX_SUGGESTION_LINES = 8;
+    private static final int MAX_OUTPUT_TOKENS = 128;
+    private static final int LATENCY_LOG_INTERVAL = 50;
+    private static final String SYSTEM_INSTRUCTION = "You are a code completion engine. Continue the code exactly at <CURSOR>. "
+            + "Reply only with the code to insert at the cursor, without explanations, markdown fences or the code before the cursor.";
+
+    private final GeminiSettingsService settingsService = GeminiSettingsService.getInstance();
+    private final Alarm debounceAlarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD, this);
+    private final CompletionCache cache = new CompletionCache();
+    private final LatencyRecorder latencyRecorder = new LatencyRecorder(512);
+
+    private static final class EditorState {
+        final Disposable disposable = Disposer.newDisposable("Gemini inline completion");
+        final List<Inlay<?>> inlays = new ArrayList<>();
+        @Nullable String suggestion;
+        int suggestionOffset = -1;
+        @Nullable GeminiApiService.RequestHandle inFlight;
+        long keystrokeNanos;
+        boolean applying;
+    }
+
+    public static GeminiInlineCompletionManager getInstance() {
+        return ApplicationManager.getApplication().getService(GeminiInlineCompletionManager.class);
+    }
+
+    @Override
+    public void dispose() {
+        // Editor listeners are children of this service and are removed with it
+    }
+
+    public LatencyRecorder getLatencyRecorder() {
+        return latencyRecorder;
+    }
+
+    void attach(@NotNull Editor editor) {
+        if (editor.getProject() == null || editor.getEditorKind() != EditorKind.MAIN_EDITOR || editor.getUserData(EDITOR_STATE_KEY) != null) {
+            return;
+        }
+        EditorState state = new EditorState();
+        editor.putUserData(EDITOR_STATE_KEY, state);
+        Disposer.register(this, state.disposable);
+
+        editor.getDocument().addDocumentListener(new DocumentListener() {
+            @Override
+            public void documentChanged(@NotNull DocumentEvent event) {
+                onDocumentChanged(editor, state, event);
+            }
+        }, state.disposable);
+        editor.getCaretModel().addCaretListener(new CaretListener() {
+            @Override
+            public void caretPositionChanged(@NotNull CaretEvent event) {
+                if (state.suggestion != null && editor.getCaretModel().getOffset() != state.suggestionOffset) {
+                    hideSuggestion(state);
+                }
+            }
+        }, state.disposable);
+    }
+
+    void detach(@NotNull Editor editor) {
+        EditorState state = editor.getUserData(EDITOR_STATE_KEY);
+        if (state != null) {
+            cancelInFlight(state);
+            hideSuggestion(state);
+            Disposer.dispose(state.disposable);
+            editor.putUserData(EDITOR_STATE_KEY, null);
+        }
+    }
+
+    public boolean hasSuggestion(@NotNull Editor editor) {
+        EditorState state = editor.getUserData(EDITOR_STATE_KEY);
+        return state != null && state.suggestion != null && editor.getCaretModel().getOffset() == state.suggestionOffset;
+    }
+
+    /**
+     * Inserts the shown suggestion at the caret. Returns false if there was nothing to accept.
+     */
+    public boolean acceptSuggestion(@NotNull Editor editor) {
+        EditorState state = editor.getUserData(EDITOR_STATE_KEY);
+        if (state == null || !hasSuggestion(editor)) {
+            return false;
+        }
+        String suggestion = state.suggestion;
+        int offset = state.suggestionOffset;
+        hideSuggestion(state);
+        state.applying = true;
+        try {
+            WriteCommandAction.runWriteCommandAction(editor.getProject(), "Accept Gemini Completion", null,
+                    () -> editor.getDocument().insertString(offset, suggestion));
+            editor.getCaretModel().moveToOffset(offset + suggestion.length());
+        } finally {
+            state.applying = false;
+        }
+        return true;
+    }
+
+    /**
+     * Hides the shown suggestion. Returns false if there was none.
+     */
+    public boolean dismissSuggestion(@NotNull Editor editor) {
+        EditorState state = editor.getUserData(EDITOR_STATE_KEY);
+        if (state == null || state.suggestion == null) {
+            return false;
+        }
+        cancelInFlight(state);
+        hideSuggestion(state);
+        return true;
+    }
+
+    private void onDocumentChanged(Editor editor, EditorState state, DocumentEvent event) {
+        if (state.applying || !settingsService.isInlineCompletionEnabled() || !editor.getContentComponent().hasFocus()) {
+            return;
+        }
+        state.keystrokeNanos = System.nanoTime();
+        String typed = event.getNewFragment().toString();
+
+        // Typing along the shown suggestion: shorten it instead of asking again
+        String shown = state.suggestion;
+        if (shown != null && event.getOldLength() == 0 && event.getOffset() == state.suggestionOffset
+                && !typed.isEmpty() && shown.startsWith(typed) && shown.length() > typed.length()) {
+            showSuggestion(editor, state, event.getOffset() + typed.length(), shown.substring(typed.length()));
+            recordLatency(state);
+            return;
+        }
+
+        hideSuggestion(state);
+        cancelInFlight(state);
+        debounceAlarm.cancelAllRequests();
+        debounceAlarm.addRequest(() -> requestCompletion(editor, state), DEBOUNCE_MS);
+    }
+
+    private void requestCompletion(Editor editor, EditorState state) {
+        if (editor.isDisposed() || !editor.getContentComponent().hasFocus()) {
+            return;
+        }
+        String apiKey = settingsService.getGeminiApiKey();
+        if (apiKey == null || apiKey.trim().isEmpty()) {
+            return;
+        }
+
+        Document document = editor.getDocument();
+        CharSequence text = document.getImmutableCharSequence();
+        int offset = editor.getCaretModel().getOffset();
+        int lineStart = document.getLineStartOffset(document.getLineNumber(offset));
+        String linePrefix = text.subSequence(lineStart, offset).toString();
+        String before = text.subSequence(Math.max(0, lineStart - MAX_PREFIX_CHARS), lineStart).toString();
+        String after = text.subSequence(offset, Math.min(text.length(), offset + MAX_SUFFIX_CHARS)).toString();
+        VirtualFile file = FileDocumentManager.getInstance().getFile(document);
+        String contextKey = (file != null ? file.getUrl() : "") + ':' + before.hashCode() + ':' + after.hashCode();
+
+        String cached = cache.lookup(contextKey, linePrefix);
+        if (cached != null) {
+            showSuggestion(editor, state, offset, cached);
+            recordLatency(state);
+            return;
+        }
+
+        long modificationStamp = document.getModificationStamp();
+        String fileName = file != null ? file.getName() : "untitled";
+        JsonObject payload = buildPayload(fileName, before + linePrefix, after);
+        cancelInFlight(state);
+        state.inFlight = GeminiApiService.getInstance().generateContentAsync(apiKey, settingsService.getSelectedModelId(), payload,
+                new GeminiApiService.GeminiApiResponseCallback() {
+                    @Override
+                    public void onSuccess(String geminiResponse, JsonObject modelContent) {
+                        String suggestion = cleanSuggestion(geminiResponse, linePrefix);
+                        if (suggestion.isEmpty()) {
+                            return;
+                        }
+                        cache.put(contextKey, linePrefix, suggestion);
+                        ApplicationManager.getApplication().invokeLater(() -> {
+                            if (!editor.isDisposed() && document.getModificationStamp() == modificationStamp
+                                    && editor.getCaretModel().getOffset() == offset) {
+                                showSuggestion(editor, state, offset, suggestion);
+                                recordLatency(state);
+                            }
+                        });
+                    }
+
+                    @Override
+                    public void onFailure(String errorMessage, String detailedError) {
+                        LOG.debug("Inline completion failed: " + errorMessage);
+                    }
+                });
+    }
+
+    private static JsonObject buildPayload(String fileName, String prefix, String suffix) {
+        JsonObject systemPart = new JsonObject();
+        systemPart.addProperty("text", SYSTEM_INSTRUCTION);
+        JsonArray systemParts = new JsonArray();
+        systemParts.add(systemPart);
+        JsonObject systemInstruction = new JsonObject();
+        systemInstruction.add("parts", systemParts);
+
+        JsonObject userPart = new JsonObject();
+        userPart.addProperty("text", "File: " + fileName + "\n" + prefix + "<CURSOR>" + suffix);
+        JsonArray userParts = new JsonArray();
+        userParts.add(userPart);
+        JsonObject userContent = new JsonObject();
+        userContent.addProperty("role", "user");
+        userContent.add("parts", userParts);
+        JsonArray contents = new JsonArray();
+        contents.add(userContent);
+
+        JsonObject generationConfig = new JsonObject();
+        generationConfig.addProperty("maxOutputTokens", MAX_OUTPUT_TOKENS);
+        generationConfig.addProperty("temperature", 0.2);
+        JsonArray stopSequences = new JsonArray();
+        stopSequences.add("\n\n\n");
+        generationConfig.add("stopSequences", stopSequences);
+
+        JsonObject payload = new JsonObject();
+        payload.add("systemInstruction", systemInstruction);
+        payload.add("contents", contents);
+        payload.add("generationConfig", generationConfig);
+        return payload;
+    }
+
+    private static String cleanSuggestion(String response, String linePrefix) {
+        String suggestion = response;
+        if (suggestion.startsWith("```")) {
+            int firstNewline = suggestion.indexOf('\n');
+            suggestion = firstNewline >= 0 ? suggestion.substring(firstNewline + 1) : "";
+            int closingFence = suggestion.lastIndexOf("```");
+            if (closingFence >= 0) {
+                suggestion = suggestion.substring(0, closingFence);
+            }
+        }
+        // Models sometimes repeat the current line before continuing it
+        String trimmedPrefix = linePrefix.trim();
+        if (!trimmedPrefix.isEmpty() && suggestion.trim().startsWith(trimmedPrefix)) {
+            suggestion = suggestion.trim().substring(trimmedPrefix.length());
+        }
+        List<String> lines = Arrays.asList(suggestion.split("\n", -1));
+        if (lines.size() > MAX_SUGGESTION_LINES) {
+            suggestion = String.join("\n", lines.subList(0, MAX_SUGGESTION_LINES));
+        }
+        return suggestion.replaceAll("\\s+$", "");
+    }
+
+    private void showSuggestion(Editor editor, EditorState state, int offset, String suggestion) {
+        hideSuggestion(state);
+        List<String> lines = Arrays.asList(suggestion.split("\n", -1));
+        if (!lines.get(0).isEmpty()) {
+            Inlay<?> inline = editor.getInlayModel().addInlineElement(offset, true,
+                    new GhostTextRenderer(editor, lines.subList(0, 1)));
+            if (inline != null) state.inlays.add(inline);
+        }
+        if (lines.size() > 1) {
+            Inlay<?> block = editor.getInlayModel().addBlockElement(offset, true, false, 0,
+                    new GhostTextRenderer(editor, lines.subList(1, lines.size())));
+            if (block != null) state.inlays.add(block);
+        }
+        state.suggestion = suggestion;
+        state.suggestionOffset = offset;
+    }
+
+    private static void hideSuggestion(EditorState state) {
+        for (Inlay<?> inlay : state.inlays) {
+            Disposer.dispose(inlay);
+        }
+        state.inlays.clear();
+        state.suggestion = null;
+        state.suggestionOffset = -1;
+    }
+
+    private static void cancelInFlight(EditorState state) {
+        GeminiApiService.RequestHandle inFlight = state.inFlight;
+        if (inFlight != null) {
+            inFlight.cancel();
+            state.inFlight = null;
+        }
+    }
+
+    private void recordLatency(EditorState state) {
+        latencyRecorder.recordMillis((System.nanoTime() - state.keystrokeNanos) / 1_000_000);
+        if (latencyRecorder.getTotalCount() % LATENCY_LOG_INTERVAL == 0) {
+            LOG.info("Inline completion keystroke-to-suggestion latency: " + latencyRecorder.describe());
+        }
+    }
+}
@@ -0,0 +1,58 @@
+package eu.technest.geminichatplugin.completion;
+
+import com.intellij.openapi.editor.Editor;
+import com.intellij.openapi.editor.EditorCustomElementRenderer;
+import com.intellij.openapi.editor.Inlay;
+import com.intellij.openapi.editor.colors.EditorFontType;
+import com.intellij.openapi.editor.markup.TextAttributes;
+import com.intellij.ui.JBColor;
+import org.jetbrains.annotations.NotNull;
+
+import java.awt.*;
+import java.util.List;
+
+/**
+ * Paints suggestion text in gray italics. Used both as an inline element (rest of the current line)
+ * and as a block element (following lines).
+ */
+final class GhostTextRenderer implements EditorCustomElementRenderer {
+    private static final String TAB_REPLACEMENT = "    ";
+
+    private final Editor editor;
+    private final List<String> lines;
+
+    GhostTextRenderer(Editor editor, List<String> lines) {
+        this.editor = editor;
+        this.lines = lines;
+    }
+
+    @Override
+    public int calcWidthInPixels(@NotNull Inlay inlay) {
+        FontMetrics fontMetrics = editor.getContentComponent().getFontMetrics(getFont());
+        int width = 1;
+        for (String line : lines) {
+            width = Math.max(width, fontMetrics.stringWidth(line.replace("\t", TAB_REPLACEMENT)));
+        }
+        return width;
+    }
+
+    @Override
+    public int calcHeightInPixels(@NotNull Inlay inlay) {
+        return editor.getLineHeight() * Math.max(1, lines.size());
+    }
+
+    @Override
+    public void paint(@NotNull Inlay inlay, @NotNull Graphics g, @NotNull Rectangle targetRegion, @NotNull TextAttributes textAttributes) {
+        g.setFont(getFont());
+        g.setColor(JBColor.GRAY);
+        int y = targetRegion.y + editor.getAscent();
+        for (String line : lines) {
+            g.drawString(line.replace("\t", TAB_REPLACEMENT), targetRegion.x, y);
+            y += editor.getLineHeight();
+        }
+    }
+
+    private Font getFont() {
+        return editor.getColorsScheme().getFont(EditorFontType.ITALIC);
+    }
+}
@@ -1,6 +1,13 @@
 package eu.technest.geminichatplugin.css;
 
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.Service;
+import com.intellij.openapi.editor.DefaultLanguageHighlighterColors;
+import com.intellij.openapi.editor.HighlighterColors;
+import com.intellij.openapi.editor.colors.EditorColorsManager;
+import com.intellij.openapi.editor.colors.EditorColorsScheme;
+import com.intellij.openapi.editor.colors.TextAttributesKey;
+import com.intellij.openapi.editor.markup.TextAttributes;
 import com.intellij.util.ui.JBFont;
 import com.intellij.util.ui.JBUI;
 import com.intellij.util.ui.UIUtil;
@@ -8,11 +15,79 @@ import com.intellij.util.ui.UIUtil;
 import javax.swing.*;
 import javax.swing.text.html.StyleSheet;
 import java.awt.*;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
+/**
+ * Style sheets of the chat views. One style sheet is built per theme and editor color scheme and shared by all
+ * panels; HTML documents link it instead of copying the rules. Messages and highlighted code use the CSS classes
+ * defined here rather than inline styles, so a new style sheet restyles them without rendering them again.
+ */
 @Service
-public class Css {
+public final class Css {
+    public static final String ENTRY_CLASS = "entry";
+    public static final String SENDER_CLASS_PREFIX = "sender-";
+    public static final String CODE_BLOCK_CLASS = "code-block";
+    private static final String HIGHLIGHT_CLASS_PREFIX = "hl-";
+    /** The editor colors code blocks are highlighted with; language specific keys fall back to one of these. */
+    public static final Set<TextAttributesKey> HIGHLIGHT_KEYS = Set.of(
+            DefaultLanguageHighlighterColors.KEYWORD, DefaultLanguageHighlighterColors.STRING,
+            DefaultLanguageHighlighterColors.VALID_STRING_ESCAPE, DefaultLanguageHighlighterColors.INVALID_STRING_ESCAPE,
+            DefaultLanguageHighlighterColors.NUMBER, DefaultLanguageHighlighterColors.LINE_COMMENT,
+            DefaultLanguageHighlighterColors.BLOCK_COMMENT, DefaultLanguageHighlighterColors.DOC_COMMENT,
+            DefaultLanguageHighlighterColors.DOC_COMMENT_TAG, DefaultLanguageHighlighterColors.DOC_COMMENT_MARKUP,
+            DefaultLanguageHighlighterColors.CONSTANT, DefaultLanguageHighlighterColors.GLOBAL_VARIABLE,
+            DefaultLanguageHighlighterColors.FUNCTION_DECLARATION, DefaultLanguageHighlighterColors.FUNCTION_CALL,
+            DefaultLanguageHighlighterColors.STATIC_FIELD, DefaultLanguageHighlighterColors.STATIC_METHOD,
+            DefaultLanguageHighlighterColors.INSTANCE_FIELD, DefaultLanguageHighlighterColors.INSTANCE_METHOD,
+            DefaultLanguageHighlighterColors.CLASS_NAME, DefaultLanguageHighlighterColors.CLASS_REFERENCE,
+            DefaultLanguageHighlighterColors.INTERFACE_NAME, DefaultLanguageHighlighterColors.METADATA,
+            DefaultLanguageHighlighterColors.MARKUP_TAG, DefaultLanguageHighlighterColors.MARKUP_ATTRIBUTE,
+            DefaultLanguageHighlighterColors.MARKUP_ENTITY, DefaultLanguageHighlighterColors.LABEL,
+            DefaultLanguageHighlighterColors.PREDEFINED_SYMBOL, DefaultLanguageHighlighterColors.OPERATION_SIGN,
+            DefaultLanguageHighlighterColors.BRACES, DefaultLanguageHighlighterColors.BRACKETS,
+            DefaultLanguageHighlighterColors.PARENTHESES, DefaultLanguageHighlighterColors.DOT,
+            DefaultLanguageHighlighterColors.COMMA, DefaultLanguageHighlighterColors.SEMICOLON,
+            DefaultLanguageHighlighterColors.LOCAL_VARIABLE, DefaultLanguageHighlighterColors.PARAMETER,
+            HighlighterColors.BAD_CHARACTER);
 
-    public void setChatPanelCss(StyleSheet styleSheet) {
+    private final Map<String, StyleSheet> chatStyleSheets = new ConcurrentHashMap<>();
+
+    public static Css getInstance() {
+        return ApplicationManager.getApplication().getService(Css.class);
+    }
+
+    /**
+     * The shared chat style sheet of the current theme. Built on first use per theme and never modified
+     * afterwards, so callers must not add rules to it.
+     */
+    public StyleSheet getChatStyleSheet() {
+        return chatStyleSheets.computeIfAbsent(themeKey(), key -> {
+            StyleSheet styleSheet = new StyleSheet();
+            setChatPanelCss(styleSheet);
+            return styleSheet;
+        });
+    }
+
+    /**
+     * The class of code tokens colored like {@code key}, one of {@link #HIGHLIGHT_KEYS}.
+     */
+    public static String highlightClass(TextAttributesKey key) {
+        return HIGHLIGHT_CLASS_PREFIX + key.getExternalName().toLowerCase(Locale.ROOT).replace('_', '-');
+    }
+
+    // Everything the rules depend on, so switching back to a theme reuses its style sheet
+    private static String themeKey() {
+        Font font = UIUtil.getLabelFont();
+        return font.getFamily() + ':' + font.getSize() + ':' + JBUI.scale(10) + ':'
+                + EditorColorsManager.getInstance().getGlobalScheme().getName() + ':'
+                + toHex(UIUtil.getLabelForeground()) + toHex(UIUtil.getEditorPaneBackground())
+                + toHex(JBUI.CurrentTheme.Link.Foreground.ENABLED) + toHex(UIUtil.getBoundsColor());
+    }
+
+    private void setChatPanelCss(StyleSheet styleSheet) {
         Font defaultFont = UIUtil.getLabelFont();
         int defaultFontSize = defaultFont.getSize();
         int codeFontSize = defaultFontSize - 1;
@@ -20,7 +95,7 @@ public class Css {
         Font monospacedFont = JBFont.create(monoFontRaw);
         // --- CSS Styles ---
         styleSheet.addRule(String.format(
-                "body { font-family: '%s', sans-serif; font-size: %dpt; margin: %dpx; color: %s; background-color: %s; }",
+                "body { font-family: '%s', sans-serif; font-size: %dpt; margin: %dpx; color: %s; background-color: %s; word-wrap: break-word; }",
                 defaultFont.getFamily(), defaultFontSize, JBUI.scale(5),
                 toHex(UIUtil.getLabelForeground()), toHex(UIUtil.getEditorPaneBackground())
         ));
@@ -52,6 +127,39 @@ public class Css {
                 "hr { border: 0; height: %dpx; background-color: %s; margin-top: 1em; margin-bottom: 1em; }",
                 JBUI.scale(1), toHex(UIUtil.getBoundsColor())
         ));
+        // --- Chat entries ---
+        styleSheet.addRule(String.format(".%s { margin-bottom: %dpx; }", ENTRY_CLASS, JBUI.scale(10)));
+        styleSheet.addRule(String.format(".%suser { font-weight: bold; color: %s; }",
+                SENDER_CLASS_PREFIX, toHex(JBUI.CurrentTheme.Link.Foreground.ENABLED)));
+        styleSheet.addRule(String.format(".%sgemini { font-weight: bold; color: %s; }",
+                SENDER_CLASS_PREFIX, toHex(UIUtil.getLabelForeground())));
+        styleSheet.addRule(String.format(".%ssystem { font-weight: bold; color: %s; }",
+                SENDER_CLASS_PREFIX, toHex(JBUI.CurrentTheme.Label.disabledForeground())));
+        styleSheet.addRule(String.format(".%serror { font-weight: bold; color: %s; }",
+                SENDER_CLASS_PREFIX, toHex(JBUI.CurrentTheme.Label.disabledForeground())));
+        // --- Code blocks, colored like the editor ---
+        EditorColorsScheme scheme = EditorColorsManager.getInstance().getGlobalScheme();
+        styleSheet.addRule(String.format(".%s { background-color: %s; color: %s; }",
+                CODE_BLOCK_CLASS, toHex(scheme.getDefaultBackground()), toHex(scheme.getDefaultForeground())));
+        for (TextAttributesKey key : HIGHLIGHT_KEYS) {
+            TextAttributes attributes = scheme.getAttributes(key);
+            if (attributes == null) {
+                continue;
+            }
+            StringBuilder rule = new StringBuilder();
+            if (attributes.getForegroundColor() != null) {
+                rule.append(" color: ").append(toHex(attributes.getForegroundColor())).append(';');
+            }
+            if ((attributes.getFontType() & Font.BOLD) != 0) {
+                rule.append(" font-weight: bold;");
+            }
+            if ((attributes.getFontType() & Font.ITALIC) != 0) {
+                rule.append(" font-style: italic;");
+            }
+            if (rule.length() > 0) {
+                styleSheet.addRule("." + highlightClass(key) + " {" + rule + " }");
+            }
+        }
         // --- End CSS Styles ---
     }
 
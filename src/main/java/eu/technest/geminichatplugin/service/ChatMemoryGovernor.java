@@ -0,0 +1,131 @@
+package eu.technest.geminichatplugin.service;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.util.LowMemoryWatcher;
+import com.intellij.openapi.util.io.FileUtil;
+import com.intellij.util.Alarm;
+import eu.technest.geminichatplugin.settings.GeminiSettingsService;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Keeps the memory held by all chat tabs within the configured budget. Tabs report their approximate footprint;
+ * when the budget is exceeded, or the IDE signals low memory through {@link LowMemoryWatcher}, the largest tabs
+ * are asked to move their oldest rendered HTML and history to disk.
+ */
+@Service
+public final class ChatMemoryGovernor implements Disposable {
+    private static final Logger LOG = Logger.getInstance(ChatMemoryGovernor.class);
+    private static final long MB = 1024 * 1024;
+    private static final int CHECK_DELAY_MS = 1000;
+    private static final double TRIM_TARGET = 0.75; // Trim below the budget, so the next messages do not trigger again
+
+    /**
+     * Something that holds chat content and can move part of it to disk.
+     */
+    public interface Spillable {
+        /** Approximate heap bytes held, callable from any thread. */
+        long getFootprintBytes();
+
+        /** Called on the EDT. Moves old content to disk and returns the bytes freed, at most what is possible. */
+        long spill(long bytesToFree);
+    }
+
+    private final List<Spillable> spillables = new CopyOnWriteArrayList<>();
+    private final Alarm checkAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, this);
+    private final AtomicLong reclaimedBytes = new AtomicLong();
+
+    public ChatMemoryGovernor() {
+        FileUtil.delete(getSpillDirectory().toFile()); // Left over from a previous session
+        LowMemoryWatcher.register(() -> trim(0, "low memory"), this);
+    }
+
+    public static ChatMemoryGovernor getInstance() {
+        return ApplicationManager.getApplication().getService(ChatMemoryGovernor.class);
+    }
+
+    public static Path getSpillDirectory() {
+        return Paths.get(PathManager.getSystemPath(), "gemini-chat-spill");
+    }
+
+    @Override
+    public void dispose() {
+        FileUtil.delete(getSpillDirectory().toFile());
+    }
+
+    public void register(@NotNull Spillable spillable, @NotNull Disposable parentDisposable) {
+        spillables.add(spillable);
+        Disposer.register(parentDisposable, () -> spillables.remove(spillable));
+    }
+
+    /**
+     * Call after a tab's footprint grew; the budget is checked after a short delay, batching bursts of messages.
+     */
+    public void footprintChanged() {
+        if (checkAlarm.isDisposed()) {
+            return;
+        }
+        checkAlarm.cancelAllRequests();
+        checkAlarm.addRequest(this::enforceBudget, CHECK_DELAY_MS);
+    }
+
+    public long getFootprintBytes() {
+        long total = 0;
+        for (Spillable spillable : spillables) {
+            total += spillable.getFootprintBytes();
+        }
+        return total;
+    }
+
+    public long getReclaimedBytes() {
+        return reclaimedBytes.get();
+    }
+
+    public String describe() {
+        return String.format("Chat tabs hold ~%.1f MB in memory, %.1f MB moved to disk so far",
+                getFootprintBytes() / (double) MB, getReclaimedBytes() / (double) MB);
+    }
+
+    private void enforceBudget() {
+        long budget = GeminiSettingsService.getInstance().getChatMemoryBudgetMb() * MB;
+        if (getFootprintBytes() > budget) {
+            trim((long) (budget * TRIM_TARGET), "over the " + budget / MB + " MB budget");
+        }
+    }
+
+    private void trim(long targetBytes, String reason) {
+        // Tabs own their content on the EDT; any modality, low memory does not wait for dialogs to close
+        ApplicationManager.getApplication().invokeLater(() -> {
+            long before = getFootprintBytes();
+            long toFree = before - targetBytes;
+            if (toFree <= 0) {
+                return;
+            }
+            List<Spillable> largestFirst = new ArrayList<>(spillables);
+            largestFirst.sort(Comparator.comparingLong(Spillable::getFootprintBytes).reversed());
+            long freed = 0;
+            for (Spillable spillable : largestFirst) {
+                if (freed >= toFree) {
+                    break;
+                }
+                freed += spillable.spill(toFree - freed);
+            }
+            reclaimedBytes.addAndGet(freed);
+            LOG.info(String.format("Chat memory %s: moved %,d KB to disk, %,d KB still in memory",
+                    reason, freed / 1024, getFootprintBytes() / 1024));
+        }, ModalityState.any());
+    }
+}
@@ -0,0 +1,210 @@
+package eu.technest.geminichatplugin.service;
+
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.diff.Diff;
+import com.intellij.util.diff.FilesTooBigForDiffException;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.CharacterCodingException;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Remembers which version of each attached text file one conversation has sent, so attaching a file again while
+ * editing it sends a unified diff against that version instead of the whole file. A diff is only sent while the
+ * request still contains everything it builds on (the full upload and the last diff); otherwise, for binary or
+ * large files, and when the diff would be larger than the file, the caller uploads the full file again.
+ */
+public final class FileContextTracker {
+    private static final Logger LOG = Logger.getInstance(FileContextTracker.class);
+
+    private static final long MAX_DIFFED_FILE_BYTES = 1024 * 1024;
+    private static final int CONTEXT_LINES = 3;
+
+    private static final class SentFile {
+        final String baseFileUri; // The full version, uploaded through the Files API
+        final String text; // The version the model has now
+        final String lastPartText; // The diff part that brought it there, null if it is the full version
+
+        SentFile(String baseFileUri, String text, @Nullable String lastPartText) {
+            this.baseFileUri = baseFileUri;
+            this.text = text;
+            this.lastPartText = lastPartText;
+        }
+    }
+
+    private final Map<Path, SentFile> sentFiles = new ConcurrentHashMap<>();
+
+    /**
+     * A text part describing the changes of {@code file} since the version {@code contents} already holds, or null
+     * if the full file has to be sent. Blocking file IO, call from a background thread.
+     */
+    @Nullable
+    public JsonObject diffPart(@NotNull Path file, @NotNull List<JsonObject> contents) throws IOException {
+        SentFile sent = sentFiles.get(file);
+        if (sent == null || !containsFileUri(contents, sent.baseFileUri)
+                || (sent.lastPartText != null && !containsText(contents, sent.lastPartText))) {
+            return null; // Never sent, or trimmed, expired or cleared from the conversation
+        }
+        String text = readText(file);
+        if (text == null) {
+            return null;
+        }
+        String name = file.getFileName().toString();
+        if (text.equals(sent.text)) {
+            return textPart("[" + name + " is unchanged since it was last attached]");
+        }
+        String diff;
+        try {
+            diff = unifiedDiff(sent.text, text);
+        } catch (FilesTooBigForDiffException e) {
+            LOG.debug("Too many changes to diff " + file, e);
+            return null;
+        }
+        if (diff.length() >= text.length()) {
+            return null; // The full file is cheaper
+        }
+        String partText = "Changes to " + name + " since it was last attached (unified diff):\n```diff\n" + diff + "```";
+        sentFiles.put(file, new SentFile(sent.baseFileUri, text, partText));
+        return textPart(partText);
+    }
+
+    /**
+     * The file as UTF-8 text, or null if it is too large to keep around or not text and so is never diffed. Read it
+     * once before uploading the full file and upload these bytes, so {@link #fullSent} records what was sent.
+     * Blocking file IO, call from a background thread.
+     */
+    @Nullable
+    public String readDiffableText(@NotNull Path file) throws IOException {
+        return readText(file);
+    }
+
+    /**
+     * Records that the full {@code file} went out as {@code uploaded} with the given text (from
+     * {@link #readDiffableText}); later attachments of it can then be diffs.
+     */
+    public void fullSent(@NotNull Path file, @Nullable String text, @NotNull GeminiUploadedFile uploaded) {
+        if (text == null) {
+            sentFiles.remove(file);
+            return;
+        }
+        sentFiles.put(file, new SentFile(uploaded.uri, text, null));
+    }
+
+    public void clear() {
+        sentFiles.clear();
+    }
+
+    /**
+     * The file as UTF-8 text, or null if it is too large to keep around or not text.
+     */
+    @Nullable
+    private static String readText(Path file) throws IOException {
+        if (Files.size(file) > MAX_DIFFED_FILE_BYTES) {
+            return null;
+        }
+        try {
+            String text = StandardCharsets.UTF_8.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPORT)
+                    .onUnmappableCharacter(CodingErrorAction.REPORT)
+                    .decode(ByteBuffer.wrap(Files.readAllBytes(file)))
+                    .toString();
+            return text.indexOf('\0') >= 0 ? null : text;
+        } catch (CharacterCodingException e) {
+            return null; // Binary
+        }
+    }
+
+    static String unifiedDiff(String oldText, String newText) throws FilesTooBigForDiffException {
+        String[] oldLines = oldText.split("\n", -1);
+        String[] newLines = newText.split("\n", -1);
+        List<Diff.Change> changes = new ArrayList<>();
+        for (Diff.Change change = Diff.buildChanges(oldLines, newLines); change != null; change = change.link) {
+            changes.add(change);
+        }
+        StringBuilder diff = new StringBuilder();
+        int first = 0;
+        while (first < changes.size()) {
+            // One hunk for all changes whose context lines touch
+            int last = first;
+            while (last + 1 < changes.size()
+                    && changes.get(last + 1).line0 - (changes.get(last).line0 + changes.get(last).deleted) <= 2 * CONTEXT_LINES) {
+                last++;
+            }
+            Diff.Change firstChange = changes.get(first);
+            Diff.Change lastChange = changes.get(last);
+            int start0 = Math.max(0, firstChange.line0 - CONTEXT_LINES);
+            int end0 = Math.min(oldLines.length, lastChange.line0 + lastChange.deleted + CONTEXT_LINES);
+            int start1 = firstChange.line1 - (firstChange.line0 - start0);
+            int end1 = lastChange.line1 + lastChange.inserted + (end0 - lastChange.line0 - lastChange.deleted);
+            diff.append("@@ -").append(start0 + 1).append(',').append(end0 - start0)
+                    .append(" +").append(start1 + 1).append(',').append(end1 - start1).append(" @@\n");
+            int line0 = start0;
+            for (int i = first; i <= last; i++) {
+                Diff.Change change = changes.get(i);
+                for (; line0 < change.line0; line0++) {
+                    diff.append(' ').append(oldLines[line0]).append('\n');
+                }
+                for (int j = 0; j < change.deleted; j++) {
+                    diff.append('-').append(oldLines[change.line0 + j]).append('\n');
+                }
+                for (int j = 0; j < change.inserted; j++) {
+                    diff.append('+').append(newLines[change.line1 + j]).append('\n');
+                }
+                line0 = change.line0 + change.deleted;
+            }
+            for (; line0 < end0; line0++) {
+                diff.append(' ').append(oldLines[line0]).append('\n');
+            }
+            first = last + 1;
+        }
+        return diff.toString();
+    }
+
+    private static boolean containsFileUri(List<JsonObject> contents, String fileUri) {
+        for (JsonObject content : contents) {
+            if (!content.has("parts")) {
+                continue;
+            }
+            for (JsonElement part : content.getAsJsonArray("parts")) {
+                JsonObject fileData = part.getAsJsonObject().getAsJsonObject("fileData");
+                if (fileData != null && fileUri.equals(fileData.get("fileUri").getAsString())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static boolean containsText(List<JsonObject> contents, String text) {
+        for (JsonObject content : contents) {
+            if (!content.has("parts")) {
+                continue;
+            }
+            for (JsonElement part : content.getAsJsonArray("parts")) {
+                JsonElement partText = part.getAsJsonObject().get("text");
+                if (partText != null && text.equals(partText.getAsString())) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private static JsonObject textPart(String text) {
+        JsonObject part = new JsonObject();
+        part.addProperty("text", text);
+        return part;
+    }
+}
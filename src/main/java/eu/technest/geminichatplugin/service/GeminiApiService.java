@@ -4,16 +4,31 @@ import com.google.gson.Gson;
 import com.google.gson.JsonArray;
 import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.components.Service;
 import com.intellij.openapi.diagnostic.Logger; // IntelliJ Logger
 import okhttp3.*;
 import okhttp3.logging.HttpLoggingInterceptor; // OkHttp logging interceptor
+import okio.BufferedSink;
+import okio.BufferedSource;
+import okio.Okio;
+import eu.technest.geminichatplugin.settings.GeminiModelInfo;
+import eu.technest.geminichatplugin.settings.GeminiSettingsService;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 
 import java.io.IOException;
+import java.net.ConnectException;
+import java.net.NoRouteToHostException;
+import java.net.UnknownHostException;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
 import java.util.concurrent.TimeUnit;
 import java.util.stream.Collectors;
@@ -25,11 +40,100 @@ public final class GeminiApiService {
     private static final Logger LOG = Logger.getInstance(GeminiApiService.class); // Logger instance
 
     private final OkHttpClient httpClient;
+    private final OkHttpClient probeClient; // Short timeouts, only asks whether the API host answers at all
+    private final OkHttpClient uploadClient; // No body logging, which would buffer whole upload chunks
+    private final OkHttpClient hedgeClient; // Own connection pool, so a hedged request does not share a stalled connection
+    private final RequestLatencyTracker latencyTracker = new RequestLatencyTracker();
     private final Gson gson = new Gson();
-    private static final String GEMINI_MODELS_API_URL = "https://generativelanguage.googleapis.com/v1beta/models?key=%s";
-    private static final String GEMINI_GENERATE_CONTENT_URL_TEMPLATE = "https://generativelanguage.googleapis.com/v1beta/models/%s:generateContent?key=%s";
+    // Relative to the base URL chosen by the Routing
+    private static final String GEMINI_MODELS_API_URL = "v1beta/models?key=%s";
+    private static final String GEMINI_GENERATE_CONTENT_URL_TEMPLATE = "v1beta/models/%s:generateContent?key=%s";
+    private static final String GEMINI_STREAM_GENERATE_CONTENT_URL_TEMPLATE = "v1beta/models/%s:streamGenerateContent?alt=sse&key=%s";
+    private static final String NETWORK_ERROR_PREFIX = "Network Error: ";
+    private static final String CONNECT_ERROR_PREFIX = "Connection Error: "; // The request was never sent
+    private static final String GEMINI_COUNT_TOKENS_URL_TEMPLATE = "v1beta/models/%s:countTokens?key=%s";
+    private static final String GEMINI_UPLOAD_FILE_URL_TEMPLATE = "upload/v1beta/files?key=%s";
+    private static final long UPLOAD_CHUNK_BYTES = 8L * 1024 * 1024;
+    private static final int MAX_UPLOAD_CHUNK_RETRIES = 3;
+    private static final int MODELS_PAGE_SIZE = 1000;
+    private static final int MAX_MODEL_PAGES = 20; // Guard against a server that keeps returning page tokens
+
+    /**
+     * Where requests go and whether they may be hedged. The IDE routes through {@link GeminiEndpointSelector} and
+     * the settings; headless callers such as the load harness pass a fixed base URL.
+     */
+    public interface Routing {
+        /** Base URL of the next request, ending with a slash. */
+        String selectBaseUrl();
+
+        /** A generation request got an answer that was not a server error. */
+        default void requestSucceeded(String url) {
+        }
+
+        /** A generation request failed on the network or with a server error (5xx). */
+        default void requestFailed(String url) {
+        }
+
+        boolean isHedgingEnabled();
+
+        /** Receives the lifecycle events of generation requests, or null to publish none. */
+        @Nullable
+        default GeminiRequestListener getRequestListener() {
+            return null;
+        }
+
+        /** Starts recording a streamed call, or returns null when tracing is off. */
+        @Nullable
+        default GeminiTraceRecorder.Trace startTrace(String modelId, JsonObject payload) {
+            return null;
+        }
+    }
+
+    private static final class IdeRouting implements Routing {
+        @Override
+        public String selectBaseUrl() {
+            return GeminiEndpointSelector.getInstance().selectBaseUrl();
+        }
+
+        @Override
+        public void requestSucceeded(String url) {
+            GeminiEndpointSelector.getInstance().recordSuccess(url);
+        }
+
+        @Override
+        public void requestFailed(String url) {
+            GeminiEndpointSelector.getInstance().recordFailure(url);
+        }
+
+        @Override
+        public boolean isHedgingEnabled() {
+            return GeminiSettingsService.getInstance().isHedgeRequestsEnabled();
+        }
+
+        @Override
+        public GeminiRequestListener getRequestListener() {
+            return ApplicationManager.getApplication().getMessageBus().syncPublisher(GeminiRequestListener.TOPIC);
+        }
+
+        @Override
+        public GeminiTraceRecorder.Trace startTrace(String modelId, JsonObject payload) {
+            return GeminiSettingsService.getInstance().isTraceRecordingEnabled()
+                    ? GeminiTraceRecorder.getInstance().start(modelId, payload)
+                    : null;
+        }
+    }
+
+    private final Routing routing;
 
     public GeminiApiService() {
+        this(new IdeRouting());
+    }
+
+    /**
+     * For use outside the IDE: needs no application, services or settings, everything IDE-specific comes from {@code routing}.
+     */
+    public GeminiApiService(@NotNull Routing routing) {
+        this.routing = routing;
         // Setup HttpLoggingInterceptor
         HttpLoggingInterceptor loggingInterceptor = new HttpLoggingInterceptor(message -> LOG.debug(message)); // Route OkHttp logs to IntelliJ LOG.debug
         // Set logging level (BODY will log request and response bodies - useful for debugging,
@@ -39,16 +143,56 @@ public final class GeminiApiService {
 
         this.httpClient = new OkHttpClient.Builder()
                 .connectTimeout(30, TimeUnit.SECONDS)
-                .readTimeout(90, TimeUnit.SECONDS)
+                .readTimeout(RequestLatencyTracker.DEFAULT_READ_TIMEOUT_MS, TimeUnit.MILLISECONDS) // Adapted per request, see execute()
                 .writeTimeout(30, TimeUnit.SECONDS)
                 .addInterceptor(loggingInterceptor) // Add the logging interceptor
                 .build();
+        this.probeClient = httpClient.newBuilder()
+                .connectTimeout(5, TimeUnit.SECONDS)
+                .readTimeout(5, TimeUnit.SECONDS)
+                .build();
+        OkHttpClient.Builder uploadClientBuilder = httpClient.newBuilder().writeTimeout(120, TimeUnit.SECONDS);
+        uploadClientBuilder.interceptors().clear();
+        this.uploadClient = uploadClientBuilder.build();
+        this.hedgeClient = httpClient.newBuilder().connectionPool(new ConnectionPool()).build();
         LOG.info("GeminiApiService initialized with HTTP logging.");
     }
 
     public interface GeminiApiResponseCallback {
         void onSuccess(String geminiResponse, JsonObject modelContent);
         void onFailure(String errorMessage, String detailedError);
+
+        /**
+         * Called for every text fragment of a streamed response, before {@link #onSuccess} delivers the full text.
+         */
+        default void onPartialResponse(String textDelta) {
+        }
+
+        /**
+         * Token usage reported by the API, called before {@link #onSuccess} if the response carries it.
+         */
+        default void onUsage(int promptTokens, int outputTokens) {
+        }
+
+        /**
+         * The HTTP status of a request the API rejected, called before {@link #onFailure} reports it.
+         */
+        default void onHttpError(int statusCode) {
+        }
+
+        /**
+         * The network failure of a request that got no response, called before {@link #onFailure} reports it.
+         */
+        default void onNetworkError(IOException error) {
+        }
+    }
+
+    /**
+     * Handle of an in-flight asynchronous request, used to cancel requests that were superseded.
+     */
+    public interface RequestHandle {
+        void cancel();
+        boolean isCancelled();
     }
 
     public interface ListModelsCallback {
@@ -56,61 +200,164 @@ public final class GeminiApiService {
         void onFailure(String errorMessage);
     }
 
+    public interface ModelCatalogCallback {
+        void onSuccess(List<GeminiModelInfo> models);
+        void onFailure(String errorMessage);
+    }
+
+    /**
+     * True if a request failed before reaching the API (no network, DNS, connection refused), so sending it again
+     * cannot produce a duplicate. Timeouts and broken connections do not count: the API may have received those.
+     */
+    public static boolean isConnectivityError(String errorMessage) {
+        return errorMessage != null && errorMessage.startsWith(CONNECT_ERROR_PREFIX);
+    }
+
+    private static String networkErrorMessage(IOException e) {
+        for (Throwable cause = e; cause != null; cause = cause.getCause()) {
+            if (cause instanceof ConnectException || cause instanceof UnknownHostException || cause instanceof NoRouteToHostException) {
+                return CONNECT_ERROR_PREFIX + e.getMessage();
+            }
+        }
+        return NETWORK_ERROR_PREFIX + e.getMessage();
+    }
+
+    /**
+     * Lightweight connectivity probe: a HEAD request to the selected API endpoint, any HTTP answer counts as
+     * reachable. Blocking, call from a background thread.
+     */
+    public boolean isApiReachable() {
+        return probeLatency(routing.selectBaseUrl()) >= 0;
+    }
+
+    /**
+     * Round trip of a HEAD request to an API base URL. Blocking, call from a background thread.
+     * @return the latency in milliseconds, or -1 if the endpoint did not answer
+     */
+    public long probeLatency(String baseUrl) {
+        Request request = new Request.Builder().url(baseUrl).head().build();
+        long startedAt = System.nanoTime();
+        try (Response response = probeClient.newCall(request).execute()) {
+            return (System.nanoTime() - startedAt) / 1_000_000;
+        } catch (IOException e) {
+            LOG.debug("Gemini API endpoint " + baseUrl + " not reachable: " + e.getMessage());
+            return -1;
+        }
+    }
+
+    /**
+     * Opens a connection to the selected endpoint ahead of a request unless the pool has an idle one, so the
+     * request skips DNS, TCP and TLS setup. Blocking, call from a background thread.
+     */
+    public void warmUpConnection() {
+        if (httpClient.connectionPool().idleConnectionCount() > 0) {
+            return;
+        }
+        probeLatency(routing.selectBaseUrl()); // The probe client shares the connection pool
+    }
+
+    private String apiUrl(String pathTemplate, Object... args) {
+        return routing.selectBaseUrl() + String.format(pathTemplate, args);
+    }
+
+    private GeminiApiResponseCallback withRequestEvents(GeminiApiResponseCallback callback, String modelId) {
+        GeminiRequestListener listener = routing.getRequestListener();
+        String effectiveModelId = (modelId == null || modelId.trim().isEmpty()) ? DEFAULT_MODEL_ID : modelId;
+        return listener == null ? callback : new RequestEventCallback(callback, listener, effectiveModelId);
+    }
+
+    public RequestLatencyTracker getLatencyTracker() {
+        return latencyTracker;
+    }
+
+    public static GeminiApiService getInstance() {
+        return ApplicationManager.getApplication().getService(GeminiApiService.class);
+    }
+
     public void listModels(String apiKey, ListModelsCallback callback) {
+        listModelInfos(apiKey, new ModelCatalogCallback() {
+            @Override
+            public void onSuccess(List<GeminiModelInfo> models) {
+                List<String> modelIds = models.stream()
+                        .filter(model -> model.supports("generateContent"))
+                        .map(model -> model.id)
+                        .sorted()
+                        .collect(Collectors.toList());
+                LOG.info("Found " + modelIds.size() + " usable models: " + modelIds);
+                callback.onSuccess(modelIds);
+            }
+
+            @Override
+            public void onFailure(String errorMessage) {
+                callback.onFailure(errorMessage);
+            }
+        });
+    }
+
+    /**
+     * Fetches the full model catalog, following {@code nextPageToken} until all pages are read.
+     * Blocking call, must be invoked from a background thread.
+     */
+    public void listModelInfos(String apiKey, ModelCatalogCallback callback) {
         if (apiKey == null || apiKey.trim().isEmpty()) {
-            LOG.warn("listModels called without API key.");
+            LOG.warn("listModelInfos called without API key.");
             callback.onFailure("API Key is missing.");
             return;
         }
         LOG.info("Attempting to list models from Gemini API.");
 
-        Request request = new Request.Builder()
-                .url(String.format(GEMINI_MODELS_API_URL, apiKey))
-                .get()
-                .build();
+        List<GeminiModelInfo> models = new ArrayList<>();
+        String pageToken = null;
+        int page = 0;
+        try {
+            do {
+                HttpUrl.Builder urlBuilder = HttpUrl.get(apiUrl(GEMINI_MODELS_API_URL, apiKey)).newBuilder()
+                        .addQueryParameter("pageSize", String.valueOf(MODELS_PAGE_SIZE));
+                if (pageToken != null) {
+                    urlBuilder.addQueryParameter("pageToken", pageToken);
+                }
+                Request request = new Request.Builder()
+                        .url(urlBuilder.build())
+                        .get()
+                        .build();
 
-        // Asynchronous execution for network calls from UI context (like settings dialog)
-        // However, listModels is called from a Task.Backgroundable, so direct execution is fine here.
-        // If it were called directly from an EDT event handler without Task.Backgroundable,
-        // you'd use httpClient.newCall(request).enqueue(...)
-        try (Response response = httpClient.newCall(request).execute()) { // Blocking call (OK inside Task.Backgroundable)
-            String responseBody = response.body() != null ? response.body().string() : null;
+                try (Response response = httpClient.newCall(request).execute()) { // Blocking call (OK on a background thread)
+                    String responseBody = response.body() != null ? response.body().string() : null;
 
-            if (!response.isSuccessful() || responseBody == null) {
-                String errorMsg = "Error fetching models: " + response.code() + (responseBody != null ? " - " + responseBody : "");
-                LOG.warn(errorMsg);
-                callback.onFailure(errorMsg);
-                return;
-            }
+                    if (!response.isSuccessful() || responseBody == null) {
+                        String errorMsg = "Error fetching models: " + response.code() + (responseBody != null ? " - " + responseBody : "");
+                        LOG.warn(errorMsg);
+                        callback.onFailure(errorMsg);
+                        return;
+                    }
 
-            JsonObject jsonResponse = gson.fromJson(responseBody, JsonObject.class);
-            JsonArray modelsArray = jsonResponse.getAsJsonArray("models");
-            List<String> modelIds = new ArrayList<>();
-            if (modelsArray != null) {
-                for (JsonElement modelElement : modelsArray) {
-                    JsonObject modelObject = modelElement.getAsJsonObject();
-                    JsonArray methods = modelObject.getAsJsonArray("supportedGenerationMethods");
-                    boolean supportsGenerateContent = false;
-                    if (methods != null) {
-                        for (JsonElement method : methods) {
-                            if ("generateContent".equals(method.getAsString())) {
-                                supportsGenerateContent = true;
-                                break;
+                    JsonObject jsonResponse = gson.fromJson(responseBody, JsonObject.class);
+                    JsonArray modelsArray = jsonResponse.getAsJsonArray("models");
+                    if (modelsArray != null) {
+                        for (JsonElement modelElement : modelsArray) {
+                            GeminiModelInfo model = parseModelInfo(modelElement.getAsJsonObject());
+                            if (model != null) {
+                                models.add(model);
                             }
                         }
                     }
-                    String modelName = modelObject.get("name").getAsString();
-                    if (supportsGenerateContent && modelName.startsWith("models/")) {
-                        modelIds.add(modelName.substring("models/".length()));
+                    pageToken = jsonResponse.has("nextPageToken") ? jsonResponse.get("nextPageToken").getAsString() : null;
+                    if (pageToken != null && pageToken.isEmpty()) {
+                        pageToken = null;
                     }
                 }
+                page++;
+            } while (pageToken != null && page < MAX_MODEL_PAGES);
+
+            if (pageToken != null) {
+                LOG.warn("Stopped following model pages after " + MAX_MODEL_PAGES + " pages.");
             }
-            Collections.sort(modelIds);
-            LOG.info("Found " + modelIds.size() + " usable models: " + modelIds);
-            callback.onSuccess(modelIds);
+            models.sort(Comparator.comparing(model -> model.id));
+            LOG.info("Fetched " + models.size() + " models in " + page + " page(s).");
+            callback.onSuccess(models);
 
         } catch (IOException e) {
-            LOG.error("Network error while fetching models: ", e);
+            LOG.warn("Network error while fetching models: ", e);
             callback.onFailure("Network error while fetching models: " + e.getMessage());
         } catch (Exception e) {
             LOG.error("Error parsing models response: ", e);
@@ -118,9 +365,277 @@ public final class GeminiApiService {
         }
     }
 
+    private static GeminiModelInfo parseModelInfo(JsonObject modelObject) {
+        if (!modelObject.has("name")) {
+            return null;
+        }
+        String modelName = modelObject.get("name").getAsString();
+        if (!modelName.startsWith("models/")) {
+            return null;
+        }
+        GeminiModelInfo model = new GeminiModelInfo();
+        model.id = modelName.substring("models/".length());
+        model.displayName = modelObject.has("displayName") ? modelObject.get("displayName").getAsString() : model.id;
+        model.description = modelObject.has("description") ? modelObject.get("description").getAsString() : "";
+        model.inputTokenLimit = modelObject.has("inputTokenLimit") ? modelObject.get("inputTokenLimit").getAsInt() : 0;
+        model.outputTokenLimit = modelObject.has("outputTokenLimit") ? modelObject.get("outputTokenLimit").getAsInt() : 0;
+        model.thinking = modelObject.has("thinking") && modelObject.get("thinking").getAsBoolean();
+        JsonArray methods = modelObject.getAsJsonArray("supportedGenerationMethods");
+        if (methods != null) {
+            for (JsonElement method : methods) {
+                model.supportedGenerationMethods.add(method.getAsString());
+            }
+        }
+        return model;
+    }
+
     public void generateContent(String apiKey, String modelId, String userInput, List<JsonObject> conversationHistory, GeminiApiResponseCallback callback) {
         LOG.info("Generating content with model: " + modelId);
-        // ... (payload creation)
+        callback = withRequestEvents(callback, modelId);
+        String payloadJson = gson.toJson(buildContentsPayload(userInput, conversationHistory));
+        Request request = newGenerateContentRequest(apiKey, modelId, payloadJson);
+
+        // This method is called from a background thread in GeminiChatPanel, so direct execute is fine.
+        // Not hedged: batch jobs send through here under a requests-per-minute limit a hedge would bypass
+        try (Response response = execute(request, modelId, payloadJson.length(), false, false)) {
+            handleGenerateContentResponse(response, callback);
+        } catch (IOException e) {
+            // Expected while offline, batch jobs retry it: not an IDE error
+            LOG.warn("Network error during content generation: " + e.getMessage());
+            callback.onNetworkError(e);
+            callback.onFailure(networkErrorMessage(e), e.toString());
+        } catch (Exception e) {
+            LOG.error("Internal error during content generation: ", e);
+            callback.onFailure("Internal Processing Error: " + e.getMessage(), e.toString());
+        }
+    }
+
+    /**
+     * Like {@link #generateContent}, but uses streamGenerateContent (server-sent events) and reports every text
+     * fragment through {@link GeminiApiResponseCallback#onPartialResponse} as it arrives. Blocking, call from a
+     * background thread.
+     */
+    public void streamGenerateContent(String apiKey, String modelId, String userInput, List<JsonObject> conversationHistory, GeminiApiResponseCallback callback) {
+        streamGenerateContent(apiKey, modelId, buildContentsPayload(userInput, conversationHistory), callback);
+    }
+
+    /**
+     * Streams a prebuilt payload (contents, tools...). Besides the text, the model content passed to
+     * {@link GeminiApiResponseCallback#onSuccess} keeps every functionCall part, see {@link #getFunctionCalls}.
+     */
+    public void streamGenerateContent(String apiKey, String modelId, JsonObject payload, GeminiApiResponseCallback callback) {
+        streamGenerateContent(apiKey, modelId, payload, null, callback);
+    }
+
+    /**
+     * @param payloadJson {@code payload} already serialized (e.g. from a history prefix prepared while the user was
+     *                    typing), or null to serialize it here
+     */
+    public void streamGenerateContent(String apiKey, String modelId, JsonObject payload, @Nullable String payloadJson,
+                                      GeminiApiResponseCallback callback) {
+        LOG.info("Streaming content with model: " + modelId);
+        String effectiveModelId = (modelId == null || modelId.trim().isEmpty()) ? DEFAULT_MODEL_ID : modelId;
+        callback = withRequestEvents(callback, effectiveModelId);
+        String json = payloadJson != null ? payloadJson : gson.toJson(payload);
+        Request request = new Request.Builder()
+                .url(apiUrl(GEMINI_STREAM_GENERATE_CONTENT_URL_TEMPLATE, effectiveModelId, apiKey))
+                .post(RequestBody.create(json, MediaType.get("application/json; charset=utf-8")))
+                .build();
+
+        GeminiTraceRecorder.Trace trace = routing.startTrace(effectiveModelId, payload);
+        int status = -1;
+        String traceError = null;
+        long startedAt = System.nanoTime();
+        try (Response response = execute(request, modelId, json.length(), true, true)) {
+            status = response.code();
+            ResponseBody responseBody = response.body();
+            if (!response.isSuccessful() || responseBody == null) {
+                traceError = "HTTP " + status;
+                handleGenerateContentResponse(response, callback); // Reports the error body
+                return;
+            }
+            StreamParser parser = new StreamParser(callback);
+            BufferedSource source = responseBody.source();
+            // The adaptive timeout only covers the wait for the headers; thinking can pause the stream far longer
+            source.timeout().timeout(RequestLatencyTracker.DEFAULT_READ_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+            String line;
+            while ((line = source.readUtf8Line()) != null) {
+                if (trace != null) {
+                    trace.line(line);
+                }
+                if (!parser.accept(line)) {
+                    traceError = "Blocked";
+                    return;
+                }
+            }
+            // Measured first: the callback may send the next request (tool calls) before finish() returns
+            if (parser.firstTextAt != 0) {
+                latencyTracker.recordGeneration(effectiveModelId, json.length(), (parser.firstTextAt - startedAt) / 1_000_000,
+                        parser.outputTokens, (System.nanoTime() - parser.firstTextAt) / 1_000_000);
+            }
+            if (trace != null) {
+                trace.finish(status, null);
+                trace = null;
+            }
+            parser.finish();
+        } catch (IOException e) {
+            traceError = e.toString();
+            LOG.warn("Network error during streamed content generation: ", e);
+            callback.onNetworkError(e);
+            callback.onFailure(networkErrorMessage(e), e.toString());
+        } catch (Exception e) {
+            traceError = e.toString();
+            LOG.error("Internal error during streamed content generation: ", e);
+            callback.onFailure("Internal Processing Error: " + e.getMessage(), e.toString());
+        } finally {
+            if (trace != null) {
+                trace.finish(status, traceError);
+            }
+        }
+    }
+
+    /**
+     * Feeds a recorded trace through the same parsing as {@link #streamGenerateContent}, sleeping between lines to
+     * reproduce the recorded pacing divided by {@code speed}; a speed of 0 or less replays without pauses.
+     * Blocking, call from a background thread.
+     */
+    public void replayTrace(GeminiTraceRecorder.Trace trace, double speed, GeminiApiResponseCallback callback) {
+        StreamParser parser = new StreamParser(callback);
+        long startedAt = System.nanoTime();
+        try {
+            for (int i = 0; i < trace.getLines().size(); i++) {
+                if (speed > 0) {
+                    long dueNanos = (long) (trace.getLineOffsets().get(i) * 1_000_000 / speed);
+                    long waitMillis = (dueNanos - (System.nanoTime() - startedAt)) / 1_000_000;
+                    if (waitMillis > 0) {
+                        Thread.sleep(waitMillis);
+                    }
+                }
+                if (!parser.accept(trace.getLines().get(i))) {
+                    return;
+                }
+            }
+            if (trace.getLines().isEmpty() && trace.getError() != null) {
+                callback.onFailure("Recorded call failed: " + trace.getError(), null);
+                return;
+            }
+            parser.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            callback.onFailure("Replay interrupted", null);
+        } catch (Exception e) {
+            LOG.warn("Could not replay a recorded trace: ", e);
+            callback.onFailure("Internal Processing Error: " + e.getMessage(), e.toString());
+        }
+    }
+
+    /**
+     * Turns the lines of a streamGenerateContent response into callback calls: a partial response per text
+     * fragment and, at the end, the full text with all functionCall parts.
+     */
+    private final class StreamParser {
+        private final GeminiApiResponseCallback callback;
+        private final StringBuilder fullText = new StringBuilder();
+        private final List<JsonObject> functionCallParts = new ArrayList<>();
+        long firstTextAt = 0; // System.nanoTime() of the first text fragment
+        int promptTokens = -1; // From the usage metadata, which the last chunk carries
+        int outputTokens = 0;
+
+        StreamParser(GeminiApiResponseCallback callback) {
+            this.callback = callback;
+        }
+
+        /**
+         * @return false if the response ended here, the failure already reported
+         */
+        boolean accept(String line) {
+            if (!line.startsWith("data:")) {
+                return true; // Blank separator lines between events
+            }
+            JsonObject chunk = gson.fromJson(line.substring("data:".length()).trim(), JsonObject.class);
+            JsonArray candidates = chunk.getAsJsonArray("candidates");
+            if ((candidates == null || candidates.isEmpty()) && chunk.has("promptFeedback")) {
+                JsonObject feedback = chunk.getAsJsonObject("promptFeedback");
+                String blockReason = feedback.has("blockReason") ? feedback.get("blockReason").getAsString() : "Unknown reason";
+                LOG.warn("Request Blocked by API: " + blockReason);
+                callback.onFailure("Request Blocked by API: " + blockReason, chunk.toString());
+                return false;
+            }
+            if (chunk.has("usageMetadata")) {
+                JsonObject usage = chunk.getAsJsonObject("usageMetadata");
+                promptTokens = usage.has("promptTokenCount") ? usage.get("promptTokenCount").getAsInt() : promptTokens;
+                outputTokens = usage.has("candidatesTokenCount") ? usage.get("candidatesTokenCount").getAsInt() : outputTokens;
+            }
+            String delta = extractText(candidates);
+            if (!delta.isEmpty()) {
+                if (firstTextAt == 0) {
+                    firstTextAt = System.nanoTime();
+                }
+                fullText.append(delta);
+                callback.onPartialResponse(delta);
+            }
+            if (candidates != null && !candidates.isEmpty()) {
+                functionCallParts.addAll(getFunctionCalls(candidates.get(0).getAsJsonObject().getAsJsonObject("content")));
+            }
+            return true;
+        }
+
+        void finish() {
+            if (fullText.length() == 0 && functionCallParts.isEmpty()) {
+                callback.onFailure("API Error: No text part in response content.", null);
+                return;
+            }
+            JsonArray parts = new JsonArray();
+            if (fullText.length() > 0) {
+                JsonObject textPart = new JsonObject();
+                textPart.addProperty("text", fullText.toString());
+                parts.add(textPart);
+            }
+            functionCallParts.forEach(parts::add); // Whole parts, so e.g. thought signatures go back with the calls
+            JsonObject modelContent = new JsonObject();
+            modelContent.addProperty("role", "model");
+            modelContent.add("parts", parts);
+            if (promptTokens >= 0) {
+                callback.onUsage(promptTokens, outputTokens);
+            }
+            callback.onSuccess(fullText.toString(), modelContent);
+        }
+    }
+
+    /**
+     * The functionCall parts of a model content, in order; empty if the model answered with text only.
+     */
+    public static List<JsonObject> getFunctionCalls(JsonObject content) {
+        List<JsonObject> calls = new ArrayList<>();
+        if (content == null || !content.has("parts")) {
+            return calls;
+        }
+        for (JsonElement part : content.getAsJsonArray("parts")) {
+            if (part.getAsJsonObject().has("functionCall")) {
+                calls.add(part.getAsJsonObject());
+            }
+        }
+        return calls;
+    }
+
+    private static String extractText(JsonArray candidates) {
+        if (candidates == null || candidates.isEmpty()) {
+            return "";
+        }
+        JsonObject content = candidates.get(0).getAsJsonObject().getAsJsonObject("content");
+        if (content == null || !content.has("parts")) {
+            return "";
+        }
+        StringBuilder text = new StringBuilder();
+        for (JsonElement part : content.getAsJsonArray("parts")) {
+            if (part.getAsJsonObject().has("text")) {
+                text.append(part.getAsJsonObject().get("text").getAsString());
+            }
+        }
+        return text.toString();
+    }
+
+    private static JsonObject buildContentsPayload(String userInput, List<JsonObject> conversationHistory) {
         JsonArray contentsArray = new JsonArray();
         conversationHistory.forEach(contentsArray::add);
         JsonObject userMessagePart = new JsonObject();
@@ -133,74 +648,310 @@ public final class GeminiApiService {
         contentsArray.add(userContent);
         JsonObject payload = new JsonObject();
         payload.add("contents", contentsArray);
+        return payload;
+    }
 
-        RequestBody body = RequestBody.create(
-                gson.toJson(payload),
-                MediaType.get("application/json; charset=utf-8")
-        );
+    /**
+     * Sends a prebuilt generateContent payload (contents, systemInstruction, generationConfig...) without blocking.
+     * The callback runs on an OkHttp dispatcher thread and is not invoked once the returned handle is cancelled.
+     */
+    public RequestHandle generateContentAsync(String apiKey, String modelId, JsonObject payload, GeminiApiResponseCallback callback) {
+        Call call = httpClient.newCall(newGenerateContentRequest(apiKey, modelId, gson.toJson(payload)));
+        call.enqueue(new Callback() {
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                if (call.isCanceled()) {
+                    LOG.debug("Content generation request cancelled.");
+                    return;
+                }
+                LOG.warn("Network error during async content generation: " + e.getMessage());
+                callback.onNetworkError(e);
+                callback.onFailure(networkErrorMessage(e), e.toString());
+            }
+
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) {
+                try (response) {
+                    if (call.isCanceled()) {
+                        return;
+                    }
+                    handleGenerateContentResponse(response, callback);
+                } catch (IOException e) {
+                    if (!call.isCanceled()) {
+                        callback.onNetworkError(e);
+                        callback.onFailure(networkErrorMessage(e), e.toString());
+                    }
+                } catch (Exception e) {
+                    LOG.error("Internal error during async content generation: ", e);
+                    callback.onFailure("Internal Processing Error: " + e.getMessage(), e.toString());
+                }
+            }
+        });
+        return new RequestHandle() {
+            @Override
+            public void cancel() {
+                call.cancel();
+            }
 
+            @Override
+            public boolean isCancelled() {
+                return call.isCanceled();
+            }
+        };
+    }
+
+    /**
+     * Exact token count of {@code contents} for the given model. Blocking, call from a background thread.
+     * @return the total token count, or -1 if the count could not be obtained
+     */
+    public int countTokens(String apiKey, String modelId, JsonArray contents) {
+        JsonObject payload = new JsonObject();
+        payload.add("contents", contents);
+        RequestBody body = RequestBody.create(gson.toJson(payload), MediaType.get("application/json; charset=utf-8"));
         String effectiveModelId = (modelId == null || modelId.trim().isEmpty()) ? DEFAULT_MODEL_ID : modelId;
         Request request = new Request.Builder()
-                .url(String.format(GEMINI_GENERATE_CONTENT_URL_TEMPLATE, effectiveModelId, apiKey))
+                .url(apiUrl(GEMINI_COUNT_TOKENS_URL_TEMPLATE, effectiveModelId, apiKey))
                 .post(body)
                 .build();
-
-        // This method is called from a background thread in GeminiChatPanel, so direct execute is fine.
         try (Response response = httpClient.newCall(request).execute()) {
             String responseBody = response.body() != null ? response.body().string() : null;
-
             if (!response.isSuccessful() || responseBody == null) {
-                String errorMsg = "Error generating content: " + response.code();
-                String detailedError = responseBody;
-                LOG.warn(errorMsg + (detailedError != null ? " - Body: " + detailedError : " - No response body"));
-                try {
-                    if (responseBody != null) {
-                        JsonObject errorJson = gson.fromJson(responseBody, JsonObject.class);
-                        if (errorJson.has("error") && errorJson.getAsJsonObject("error").has("message")) {
-                            detailedError = errorJson.getAsJsonObject("error").get("message").getAsString();
-                        }
-                    }
-                } catch (Exception parseEx) { LOG.debug("Could not parse error response body as JSON.", parseEx); }
-                callback.onFailure(errorMsg, detailedError);
-                return;
+                LOG.warn("Error counting tokens: " + response.code());
+                return -1;
             }
-            LOG.debug("Successfully received content generation response.");
             JsonObject jsonResponse = gson.fromJson(responseBody, JsonObject.class);
-            JsonArray candidates = jsonResponse.getAsJsonArray("candidates");
+            return jsonResponse.has("totalTokens") ? jsonResponse.get("totalTokens").getAsInt() : -1;
+        } catch (Exception e) {
+            LOG.warn("Failed to count tokens: " + e.getMessage());
+            return -1;
+        }
+    }
 
-            if (candidates != null && !candidates.isEmpty()) {
-                JsonObject candidate = candidates.get(0).getAsJsonObject();
-                JsonObject content = candidate.getAsJsonObject("content");
-                if (content != null && content.has("parts")) {
-                    JsonArray parts = content.getAsJsonArray("parts");
-                    if (parts != null && !parts.isEmpty() && parts.get(0).getAsJsonObject().has("text")) {
-                        String geminiText = parts.get(0).getAsJsonObject().get("text").getAsString();
-                        callback.onSuccess(geminiText, content);
-                    } else {
-                        LOG.warn("API Error: No text part in response content. Body: " + responseBody);
-                        callback.onFailure("API Error: No text part in response content.", responseBody);
+    /**
+     * Uploads a file with the resumable upload protocol of the Files API. Chunks are streamed from disk, so the
+     * file is never held in memory; a chunk that fails on the network is retried from the offset the server confirms.
+     * Blocking, call from a background thread.
+     * @return the {@code file} resource of the finished upload (name, uri, mimeType, expirationTime, ...)
+     */
+    public JsonObject uploadFile(String apiKey, Path file, String mimeType, String displayName) throws IOException {
+        return upload(apiKey, Files.size(file), (offset, length) -> fileChunkBody(file, offset, length), mimeType, displayName);
+    }
+
+    /**
+     * Uploads {@code content}, a snapshot the caller already holds, like {@link #uploadFile}.
+     */
+    public JsonObject uploadBytes(String apiKey, byte[] content, String mimeType, String displayName) throws IOException {
+        return upload(apiKey, content.length, (offset, length) -> RequestBody.create(content, null, (int) offset, (int) length),
+                mimeType, displayName);
+    }
+
+    private interface ChunkSource {
+        RequestBody chunk(long offset, long length);
+    }
+
+    private JsonObject upload(String apiKey, long size, ChunkSource chunks, String mimeType, String displayName) throws IOException {
+        JsonObject fileMetadata = new JsonObject();
+        fileMetadata.addProperty("display_name", displayName);
+        JsonObject metadata = new JsonObject();
+        metadata.add("file", fileMetadata);
+        Request startRequest = new Request.Builder()
+                .url(apiUrl(GEMINI_UPLOAD_FILE_URL_TEMPLATE, apiKey))
+                .header("X-Goog-Upload-Protocol", "resumable")
+                .header("X-Goog-Upload-Command", "start")
+                .header("X-Goog-Upload-Header-Content-Length", Long.toString(size))
+                .header("X-Goog-Upload-Header-Content-Type", mimeType)
+                .post(RequestBody.create(gson.toJson(metadata), MediaType.get("application/json; charset=utf-8")))
+                .build();
+        String uploadUrl;
+        long chunkBytes = UPLOAD_CHUNK_BYTES;
+        try (Response response = uploadClient.newCall(startRequest).execute()) {
+            uploadUrl = response.header("X-Goog-Upload-URL");
+            if (!response.isSuccessful() || uploadUrl == null) {
+                throw new IOException("Starting the upload failed: " + response.code() + " " + (response.body() != null ? response.body().string() : ""));
+            }
+            String granularity = response.header("X-Goog-Upload-Chunk-Granularity");
+            if (granularity != null) {
+                long granularityBytes = Long.parseLong(granularity); // Every chunk but the last must be a multiple
+                chunkBytes = Math.max(granularityBytes, UPLOAD_CHUNK_BYTES / granularityBytes * granularityBytes);
+            }
+        }
+
+        long offset = 0;
+        int retries = 0;
+        while (true) {
+            long length = Math.min(chunkBytes, size - offset);
+            boolean lastChunk = offset + length >= size;
+            Request chunkRequest = new Request.Builder()
+                    .url(uploadUrl)
+                    .header("X-Goog-Upload-Command", lastChunk ? "upload, finalize" : "upload")
+                    .header("X-Goog-Upload-Offset", Long.toString(offset))
+                    .post(chunks.chunk(offset, length))
+                    .build();
+            String rejection = null;
+            try (Response response = uploadClient.newCall(chunkRequest).execute()) {
+                String responseBody = response.body() != null ? response.body().string() : "";
+                if (response.isSuccessful()) {
+                    if (lastChunk) {
+                        return gson.fromJson(responseBody, JsonObject.class).getAsJsonObject("file");
                     }
+                    offset += length;
+                    retries = 0;
+                    continue;
+                }
+                if (response.code() < 500) {
+                    rejection = "Upload rejected: " + response.code() + " " + responseBody;
                 } else {
-                    LOG.warn("API Error: No content or parts in candidate. Body: " + responseBody);
-                    callback.onFailure("API Error: No content or parts in candidate.", responseBody);
+                    LOG.debug("Upload chunk at " + offset + " failed with " + response.code());
                 }
-            } else if (jsonResponse.has("promptFeedback")) {
-                JsonObject feedback = jsonResponse.getAsJsonObject("promptFeedback");
-                String blockReason = feedback.has("blockReason") ? feedback.get("blockReason").getAsString() : "Unknown reason";
-                LOG.warn("Request Blocked by API: " + blockReason + ". Body: " + responseBody);
-                callback.onFailure("Request Blocked by API: " + blockReason, responseBody);
+            } catch (IOException e) {
+                LOG.debug("Upload chunk at " + offset + " failed: " + e.getMessage());
             }
-            else {
-                LOG.warn("API Error: No candidates in response. Body: " + responseBody);
-                callback.onFailure("API Error: No candidates in response.", responseBody);
+            if (rejection != null) {
+                throw new IOException(rejection); // Client errors do not get better by retrying
             }
+            if (++retries > MAX_UPLOAD_CHUNK_RETRIES) {
+                throw new IOException("Upload of " + displayName + " failed after " + MAX_UPLOAD_CHUNK_RETRIES + " retries");
+            }
+            offset = queryUploadOffset(uploadUrl); // Resume from what the server actually stored
+        }
+    }
+
+    private long queryUploadOffset(String uploadUrl) throws IOException {
+        Request queryRequest = new Request.Builder()
+                .url(uploadUrl)
+                .header("X-Goog-Upload-Command", "query")
+                .post(RequestBody.create(new byte[0], null))
+                .build();
+        try (Response response = uploadClient.newCall(queryRequest).execute()) {
+            String received = response.header("X-Goog-Upload-Size-Received");
+            if (!response.isSuccessful() || received == null) {
+                throw new IOException("Could not resume the upload: " + response.code());
+            }
+            return Long.parseLong(received);
+        }
+    }
 
+    /**
+     * A request body that copies {@code length} bytes at {@code offset} from the file straight into the socket.
+     */
+    private static RequestBody fileChunkBody(Path file, long offset, long length) {
+        return new RequestBody() {
+            @Override
+            public MediaType contentType() {
+                return null;
+            }
+
+            @Override
+            public long contentLength() {
+                return length;
+            }
+
+            @Override
+            public void writeTo(@NotNull BufferedSink sink) throws IOException {
+                try (FileChannel channel = FileChannel.open(file)) {
+                    channel.position(offset);
+                    try (BufferedSource source = Okio.buffer(Okio.source(Channels.newInputStream(channel)))) {
+                        sink.write(source, length);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Executes a generation request with a read timeout derived from the latency observed for the model, prompt
+     * size and kind of request, and, if allowed and enabled, hedges it once the first byte takes longer than the
+     * observed p95. Callers reading a stream reset the timeout once the headers are in.
+     */
+    private Response execute(Request request, String modelId, int payloadChars, boolean streaming, boolean allowHedge) throws IOException {
+        String effectiveModelId = (modelId == null || modelId.trim().isEmpty()) ? DEFAULT_MODEL_ID : modelId;
+        String latencyKey = RequestLatencyTracker.key(effectiveModelId, payloadChars, streaming);
+        long readTimeoutMs = latencyTracker.getReadTimeoutMillis(latencyKey);
+        // newBuilder() shares the connection pool and dispatcher, only the timeout differs
+        OkHttpClient client = httpClient.newBuilder().readTimeout(readTimeoutMs, TimeUnit.MILLISECONDS).build();
+        boolean hedge = allowHedge && routing.isHedgingEnabled();
+        OkHttpClient hedgedClient = hedge ? hedgeClient.newBuilder().readTimeout(readTimeoutMs, TimeUnit.MILLISECONDS).build() : null;
+        String url = request.url().toString();
+        Response response;
+        try {
+            response = new HedgedCall(request, latencyTracker, latencyKey).execute(client, hedgedClient, latencyTracker.getHedgeDelayMillis(latencyKey));
         } catch (IOException e) {
-            LOG.error("Network error during content generation: ", e);
-            callback.onFailure("Network Error: " + e.getMessage(), e.toString());
-        } catch (Exception e) {
-            LOG.error("Internal error during content generation: ", e);
-            callback.onFailure("Internal Processing Error: " + e.getMessage(), e.toString());
+            routing.requestFailed(url);
+            throw e;
+        }
+        if (response.code() >= 500) {
+            routing.requestFailed(url);
+        } else {
+            routing.requestSucceeded(url);
+        }
+        return response;
+    }
+
+    private Request newGenerateContentRequest(String apiKey, String modelId, String payloadJson) {
+        RequestBody body = RequestBody.create(
+                payloadJson,
+                MediaType.get("application/json; charset=utf-8")
+        );
+
+        String effectiveModelId = (modelId == null || modelId.trim().isEmpty()) ? DEFAULT_MODEL_ID : modelId;
+        return new Request.Builder()
+                .url(apiUrl(GEMINI_GENERATE_CONTENT_URL_TEMPLATE, effectiveModelId, apiKey))
+                .post(body)
+                .build();
+    }
+
+    private void handleGenerateContentResponse(Response response, GeminiApiResponseCallback callback) throws IOException {
+        String responseBody = response.body() != null ? response.body().string() : null;
+
+        if (!response.isSuccessful() || responseBody == null) {
+            String errorMsg = "Error generating content: " + response.code();
+            String detailedError = responseBody;
+            LOG.warn(errorMsg + (detailedError != null ? " - Body: " + detailedError : " - No response body"));
+            try {
+                if (responseBody != null) {
+                    JsonObject errorJson = gson.fromJson(responseBody, JsonObject.class);
+                    if (errorJson.has("error") && errorJson.getAsJsonObject("error").has("message")) {
+                        detailedError = errorJson.getAsJsonObject("error").get("message").getAsString();
+                    }
+                }
+            } catch (Exception parseEx) { LOG.debug("Could not parse error response body as JSON.", parseEx); }
+            callback.onHttpError(response.code());
+            callback.onFailure(errorMsg, detailedError);
+            return;
+        }
+        LOG.debug("Successfully received content generation response.");
+        JsonObject jsonResponse = gson.fromJson(responseBody, JsonObject.class);
+        JsonArray candidates = jsonResponse.getAsJsonArray("candidates");
+
+        if (candidates != null && !candidates.isEmpty()) {
+            JsonObject candidate = candidates.get(0).getAsJsonObject();
+            JsonObject content = candidate.getAsJsonObject("content");
+            if (content != null && content.has("parts")) {
+                String geminiText = extractText(candidates); // All text parts, not only the first
+                if (!geminiText.isEmpty() || !getFunctionCalls(content).isEmpty()) {
+                    JsonObject usage = jsonResponse.getAsJsonObject("usageMetadata");
+                    if (usage != null && usage.has("promptTokenCount")) {
+                        callback.onUsage(usage.get("promptTokenCount").getAsInt(),
+                                usage.has("candidatesTokenCount") ? usage.get("candidatesTokenCount").getAsInt() : 0);
+                    }
+                    callback.onSuccess(geminiText, content);
+                } else {
+                    LOG.warn("API Error: No text part in response content. Body: " + responseBody);
+                    callback.onFailure("API Error: No text part in response content.", responseBody);
+                }
+            } else {
+                LOG.warn("API Error: No content or parts in candidate. Body: " + responseBody);
+                callback.onFailure("API Error: No content or parts in candidate.", responseBody);
+            }
+        } else if (jsonResponse.has("promptFeedback")) {
+            JsonObject feedback = jsonResponse.getAsJsonObject("promptFeedback");
+            String blockReason = feedback.has("blockReason") ? feedback.get("blockReason").getAsString() : "Unknown reason";
+            LOG.warn("Request Blocked by API: " + blockReason + ". Body: " + responseBody);
+            callback.onFailure("Request Blocked by API: " + blockReason, responseBody);
+        }
+        else {
+            LOG.warn("API Error: No candidates in response. Body: " + responseBody);
+            callback.onFailure("API Error: No candidates in response.", responseBody);
         }
     }
 }
\ No newline at end of file
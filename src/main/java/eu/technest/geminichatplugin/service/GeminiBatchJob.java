@@ -0,0 +1,143 @@
+package eu.technest.geminichatplugin.service;
+
+import com.intellij.util.xmlb.annotations.Transient;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+/**
+ * A prompt template run over a list of files. Public fields and no-arg constructors are required
+ * by the XML serializer, which persists jobs so they can resume after a restart.
+ */
+public class GeminiBatchJob {
+    private static final String TEXT_NOT_KEPT = "[The text of this result was not kept after the IDE was closed.]";
+
+    // PAUSED: stopped by an outage or a missing API key, the unanswered files stay pending until it is resumed
+    public enum Status { RUNNING, PAUSED, COMPLETED, CANCELLED }
+
+    public String id = "";
+    public String promptTemplate = "";
+    public String modelId = "";
+    public long createdAt = 0L;
+    public volatile Status status = Status.RUNNING; // Read by worker threads to stop on cancel
+    public List<String> fileUrls = new ArrayList<>();
+    public List<Result> results = new ArrayList<>();
+    public long activeMillis = 0L; // Time spent running, summed across IDE sessions
+    public String pauseReason = ""; // Why the job is PAUSED
+
+    @Transient
+    public long runStartedAt = 0L; // Start of the current run, not persisted
+
+    public GeminiBatchJob() {
+    }
+
+    public static class Result {
+        public String fileUrl = "";
+        public boolean success = false;
+        public String text = "";
+        public long latencyMillis = 0L;
+        public long completedAt = 0L;
+
+        public Result() {
+        }
+
+        Result withText(String text) {
+            Result copy = new Result();
+            copy.fileUrl = fileUrl;
+            copy.success = success;
+            copy.text = text;
+            copy.latencyMillis = latencyMillis;
+            copy.completedAt = completedAt;
+            return copy;
+        }
+    }
+
+    public synchronized List<String> getPendingFileUrls() {
+        Set<String> done = new HashSet<>();
+        for (Result result : results) {
+            done.add(result.fileUrl);
+        }
+        List<String> pending = new ArrayList<>();
+        for (String url : fileUrls) {
+            if (!done.contains(url)) {
+                pending.add(url);
+            }
+        }
+        return pending;
+    }
+
+    public synchronized void addResult(Result result) {
+        results.add(result);
+    }
+
+    public synchronized List<Result> getResultsSnapshot() {
+        return new ArrayList<>(results);
+    }
+
+    public synchronized int getCompletedCount() {
+        return results.size();
+    }
+
+    public synchronized int getFailedCount() {
+        int failed = 0;
+        for (Result result : results) {
+            if (!result.success) failed++;
+        }
+        return failed;
+    }
+
+    /**
+     * Completed files per minute over the time this job has actually been running.
+     */
+    public synchronized double getFilesPerMinute() {
+        long elapsed = activeMillis + (runStartedAt > 0 ? System.currentTimeMillis() - runStartedAt : 0);
+        if (elapsed <= 0 || results.isEmpty()) {
+            return 0;
+        }
+        return results.size() * 60_000.0 / elapsed;
+    }
+
+    public synchronized double getAverageLatencyMillis() {
+        if (results.isEmpty()) {
+            return 0;
+        }
+        long total = 0;
+        for (Result result : results) {
+            total += result.latencyMillis;
+        }
+        return (double) total / results.size();
+    }
+
+    /**
+     * A copy to persist that keeps at most {@code maxTextChars} of result text, newest results first. Older results
+     * keep their status and timing, their text is replaced by a note.
+     */
+    public synchronized GeminiBatchJob copy(int maxTextChars) {
+        GeminiBatchJob copy = new GeminiBatchJob();
+        copy.id = id;
+        copy.promptTemplate = promptTemplate;
+        copy.modelId = modelId;
+        copy.createdAt = createdAt;
+        copy.status = status;
+        copy.pauseReason = pauseReason;
+        copy.fileUrls = new ArrayList<>(fileUrls);
+        copy.results = new ArrayList<>(results);
+        int textChars = 0;
+        for (int i = copy.results.size() - 1; i >= 0; i--) {
+            Result result = copy.results.get(i);
+            textChars += result.text.length();
+            if (textChars > maxTextChars) {
+                copy.results.set(i, result.withText(TEXT_NOT_KEPT));
+            }
+        }
+        copy.activeMillis = activeMillis + (runStartedAt > 0 ? System.currentTimeMillis() - runStartedAt : 0);
+        return copy;
+    }
+
+    public String getSummary() {
+        return String.format("%d/%d files, %d failed, %.1f files/min, avg %.1f s",
+                getCompletedCount(), fileUrls.size(), getFailedCount(), getFilesPerMinute(), getAverageLatencyMillis() / 1000.0);
+    }
+}
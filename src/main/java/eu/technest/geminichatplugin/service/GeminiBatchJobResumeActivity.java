@@ -0,0 +1,16 @@
+package eu.technest.geminichatplugin.service;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.startup.StartupActivity;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Resumes batch jobs that were interrupted by closing the project or the IDE.
+ */
+public class GeminiBatchJobResumeActivity implements StartupActivity.DumbAware {
+
+    @Override
+    public void runActivity(@NotNull Project project) {
+        GeminiBatchJobService.getInstance(project).resumeUnfinishedJobs();
+    }
+}
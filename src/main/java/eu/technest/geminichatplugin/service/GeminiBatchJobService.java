@@ -0,0 +1,416 @@
+package eu.technest.geminichatplugin.service;
+
+import com.google.gson.JsonObject;
+import com.intellij.notification.NotificationGroupManager;
+import com.intellij.notification.NotificationType;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import com.intellij.openapi.components.StoragePathMacros;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectUtil;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import eu.technest.geminichatplugin.settings.GeminiSettingsService;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Runs a prompt template over many files with bounded parallelism and a requests-per-minute limit.
+ * Jobs and their results are persisted in the workspace file, so unfinished jobs resume after a restart
+ * (see {@link GeminiBatchJobResumeActivity}).
+ */
+@Service(Service.Level.PROJECT)
+@State(
+        name = "eu.technest.geminichatplugin.service.GeminiBatchJobService",
+        storages = @Storage(StoragePathMacros.WORKSPACE_FILE)
+)
+public final class GeminiBatchJobService implements PersistentStateComponent<GeminiBatchJobService.JobsState>, Disposable {
+    private static final Logger LOG = Logger.getInstance(GeminiBatchJobService.class);
+
+    public static final String FILE_NAME_PLACEHOLDER = "{{fileName}}";
+    public static final String FILE_PATH_PLACEHOLDER = "{{filePath}}";
+    public static final String CONTENT_PLACEHOLDER = "{{content}}";
+
+    private static final int MAX_FILES_PER_JOB = 500;
+    private static final long MAX_FILE_BYTES = 200 * 1024;
+    private static final int MAX_PERSISTED_JOBS = 20;
+    private static final int MAX_PERSISTED_RESULT_CHARS = 50_000;
+    // Workspace.xml is rewritten on every save: only recent jobs keep result text across restarts, and only so much
+    private static final int MAX_JOBS_WITH_PERSISTED_TEXT = 3;
+    private static final int MAX_PERSISTED_TEXT_CHARS_PER_JOB = 500_000;
+    private static final int MAX_TRANSIENT_RETRIES = 3; // Then the job is paused, the file stays pending
+    private static final long RETRY_BACKOFF_MS = 20_000;
+    private static final int HTTP_TOO_MANY_REQUESTS = 429;
+    private static final int HTTP_SERVER_ERROR = 500;
+
+    private final Project project;
+    private final GeminiSettingsService settingsService = GeminiSettingsService.getInstance();
+    private final List<GeminiBatchJob> jobs = new CopyOnWriteArrayList<>();
+    private final List<BatchJobListener> listeners = new CopyOnWriteArrayList<>();
+
+    public static class JobsState {
+        public List<GeminiBatchJob> jobs = new ArrayList<>();
+    }
+
+    public interface BatchJobListener {
+        /**
+         * Called on the EDT when a job was added, changed status or got a new result ({@code newResult} != null).
+         */
+        void jobChanged(@NotNull GeminiBatchJob job, @Nullable GeminiBatchJob.Result newResult);
+    }
+
+    public GeminiBatchJobService(Project project) {
+        this.project = project;
+    }
+
+    public static GeminiBatchJobService getInstance(@NotNull Project project) {
+        return project.getService(GeminiBatchJobService.class);
+    }
+
+    @Override
+    public JobsState getState() {
+        JobsState state = new JobsState();
+        int withText = 0;
+        for (GeminiBatchJob job : getJobs()) { // Most recent first
+            int maxTextChars = withText++ < MAX_JOBS_WITH_PERSISTED_TEXT ? MAX_PERSISTED_TEXT_CHARS_PER_JOB : 0;
+            state.jobs.add(0, job.copy(maxTextChars)); // Copies are serialized while workers keep appending results
+        }
+        return state;
+    }
+
+    @Override
+    public void loadState(@NotNull JobsState state) {
+        jobs.clear();
+        if (state.jobs != null) {
+            jobs.addAll(state.jobs);
+        }
+    }
+
+    @Override
+    public void dispose() {
+        // Running workers check project.isDisposed() and stop picking up files
+    }
+
+    public void addListener(@NotNull BatchJobListener listener, @NotNull Disposable parentDisposable) {
+        listeners.add(listener);
+        Disposer.register(parentDisposable, () -> listeners.remove(listener));
+    }
+
+    /**
+     * Jobs, most recent first.
+     */
+    public List<GeminiBatchJob> getJobs() {
+        List<GeminiBatchJob> result = new ArrayList<>(jobs);
+        Collections.reverse(result);
+        return result;
+    }
+
+    /**
+     * Expands the selected files and directories into the text files a job should process.
+     * Must be called inside a read action on a background thread; cancellable through {@code indicator}.
+     */
+    public List<VirtualFile> collectFiles(@NotNull VirtualFile[] roots, @NotNull ProgressIndicator indicator) {
+        ProjectFileIndex fileIndex = ProjectFileIndex.getInstance(project);
+        Set<VirtualFile> files = new LinkedHashSet<>();
+        for (VirtualFile root : roots) {
+            VfsUtilCore.iterateChildrenRecursively(root, file -> !fileIndex.isExcluded(file), file -> {
+                indicator.checkCanceled();
+                if (!file.isDirectory() && !file.getFileType().isBinary() && file.getLength() <= MAX_FILE_BYTES && files.add(file)) {
+                    indicator.setText2(file.getPresentableUrl());
+                }
+                return files.size() < MAX_FILES_PER_JOB;
+            });
+        }
+        return new ArrayList<>(files);
+    }
+
+    /**
+     * Creates and runs a job, or returns null without creating one if the API key is not set.
+     */
+    @Nullable
+    public GeminiBatchJob startJob(@NotNull String promptTemplate, @NotNull List<VirtualFile> files) {
+        if (!hasApiKey()) {
+            LOG.warn("Batch job not started: API key is missing.");
+            return null;
+        }
+        GeminiBatchJob job = new GeminiBatchJob();
+        job.id = UUID.randomUUID().toString();
+        job.promptTemplate = promptTemplate;
+        job.modelId = settingsService.getSelectedModelId();
+        job.createdAt = System.currentTimeMillis();
+        for (VirtualFile file : files) {
+            job.fileUrls.add(file.getUrl());
+        }
+        jobs.add(job);
+        while (jobs.size() > MAX_PERSISTED_JOBS) {
+            GeminiBatchJob oldest = jobs.get(0);
+            if (oldest.status == GeminiBatchJob.Status.RUNNING) break;
+            jobs.remove(0);
+        }
+        LOG.info("Starting batch job " + job.id + " over " + files.size() + " files with model " + job.modelId);
+        notifyListeners(job, null);
+        runJob(job);
+        return job;
+    }
+
+    public void cancelJob(@NotNull GeminiBatchJob job) {
+        if (job.status == GeminiBatchJob.Status.RUNNING || job.status == GeminiBatchJob.Status.PAUSED) {
+            job.status = GeminiBatchJob.Status.CANCELLED;
+            LOG.info("Batch job " + job.id + " cancelled.");
+            notifyListeners(job, null);
+        }
+    }
+
+    public void removeJob(@NotNull GeminiBatchJob job) {
+        cancelJob(job);
+        jobs.remove(job);
+        notifyListeners(job, null);
+    }
+
+    /**
+     * Runs a paused job again once its last run has stopped. Files that already have a result are skipped.
+     */
+    public void resumeJob(@NotNull GeminiBatchJob job) {
+        synchronized (job) {
+            if (job.status != GeminiBatchJob.Status.PAUSED || job.runStartedAt != 0) {
+                return;
+            }
+            job.status = GeminiBatchJob.Status.RUNNING;
+            job.pauseReason = "";
+        }
+        LOG.info("Resuming batch job " + job.id + ": " + job.getPendingFileUrls().size() + " files left.");
+        notifyListeners(job, null);
+        runJob(job);
+    }
+
+    /**
+     * Restarts jobs that were still running or paused when the IDE was closed. Files that already have a result are skipped.
+     */
+    public void resumeUnfinishedJobs() {
+        for (GeminiBatchJob job : jobs) {
+            if (job.status == GeminiBatchJob.Status.PAUSED) {
+                resumeJob(job);
+            } else if (job.status == GeminiBatchJob.Status.RUNNING && job.runStartedAt == 0) {
+                LOG.info("Resuming batch job " + job.id + ": " + job.getPendingFileUrls().size() + " files left.");
+                runJob(job);
+            }
+        }
+    }
+
+    private boolean hasApiKey() {
+        String apiKey = settingsService.getGeminiApiKey();
+        return apiKey != null && !apiKey.trim().isEmpty();
+    }
+
+    private void runJob(GeminiBatchJob job) {
+        String apiKey = settingsService.getGeminiApiKey();
+        if (!hasApiKey()) {
+            // Removed since the job started, e.g. before a resume: nothing can run until it is set again
+            pauseJob(job, "The Gemini API key is not set");
+            notifyListeners(job, null);
+            notifyPaused(job);
+            return;
+        }
+        List<String> pending = job.getPendingFileUrls();
+        if (pending.isEmpty()) {
+            job.status = GeminiBatchJob.Status.COMPLETED;
+            notifyListeners(job, null);
+            return;
+        }
+
+        synchronized (job) {
+            job.runStartedAt = System.currentTimeMillis();
+        }
+        RateLimiter rateLimiter = new RateLimiter(settingsService.getBatchRequestsPerMinute());
+        // Bounded executors share the application pool, so they do not need to be shut down
+        ExecutorService executor = AppExecutorUtil.createBoundedApplicationPoolExecutor(
+                "Gemini Batch Job", settingsService.getBatchConcurrency());
+        AtomicInteger remaining = new AtomicInteger(pending.size());
+        for (String fileUrl : pending) {
+            executor.execute(() -> {
+                try {
+                    if (job.status == GeminiBatchJob.Status.RUNNING && !project.isDisposed()) {
+                        processFile(job, fileUrl, apiKey, rateLimiter);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                } catch (Exception e) {
+                    LOG.warn("Batch job " + job.id + " failed on " + fileUrl, e);
+                } finally {
+                    if (remaining.decrementAndGet() == 0) {
+                        finishRun(job);
+                    }
+                }
+            });
+        }
+    }
+
+    private void processFile(GeminiBatchJob job, String fileUrl, String apiKey, RateLimiter rateLimiter) throws InterruptedException {
+        GeminiBatchJob.Result result = new GeminiBatchJob.Result();
+        result.fileUrl = fileUrl;
+
+        VirtualFile file = VirtualFileManager.getInstance().findFileByUrl(fileUrl);
+        if (file == null || !file.isValid()) {
+            result.text = "File no longer exists.";
+            recordResult(job, result);
+            return;
+        }
+
+        String prompt;
+        try {
+            String content = ReadAction.compute(() -> VfsUtilCore.loadText(file));
+            prompt = buildPrompt(job.promptTemplate, file, content);
+        } catch (IOException e) {
+            result.text = "Could not read file: " + e.getMessage();
+            recordResult(job, result);
+            return;
+        }
+
+        for (int attempt = 0; ; attempt++) {
+            rateLimiter.acquire();
+            if (job.status != GeminiBatchJob.Status.RUNNING) {
+                return; // Cancelled or paused while waiting for a slot
+            }
+            long start = System.currentTimeMillis();
+            int[] httpStatus = {0};
+            IOException[] networkError = new IOException[1];
+            GeminiApiService.getInstance().generateContent(apiKey, job.modelId, prompt, Collections.emptyList(),
+                    new GeminiApiService.GeminiApiResponseCallback() {
+                        @Override
+                        public void onSuccess(String geminiResponse, JsonObject modelContent) {
+                            result.success = true;
+                            result.text = geminiResponse;
+                        }
+
+                        @Override
+                        public void onHttpError(int statusCode) {
+                            httpStatus[0] = statusCode;
+                        }
+
+                        @Override
+                        public void onNetworkError(IOException error) {
+                            networkError[0] = error;
+                        }
+
+                        @Override
+                        public void onFailure(String errorMessage, String detailedError) {
+                            result.text = errorMessage + (detailedError != null ? "\n" + detailedError : "");
+                        }
+                    });
+            result.latencyMillis = System.currentTimeMillis() - start;
+
+            // Only answers and rejections of the request are results; outages and overload leave the file pending
+            boolean transientFailure = !result.success && (networkError[0] != null
+                    || httpStatus[0] == HTTP_TOO_MANY_REQUESTS || httpStatus[0] >= HTTP_SERVER_ERROR);
+            if (!transientFailure) {
+                break;
+            }
+            if (attempt >= MAX_TRANSIENT_RETRIES) {
+                pauseJob(job, result.text.split("\n", 2)[0]);
+                return;
+            }
+            LOG.info("Transient failure on " + file.getName() + " (" + result.text.split("\n", 2)[0]
+                    + "), backing off before retry " + (attempt + 1));
+            rateLimiter.backOff(RETRY_BACKOFF_MS * (attempt + 1));
+        }
+        recordResult(job, result);
+    }
+
+    /**
+     * Stops picking up files; the run in progress finishes what it already sent and {@link #finishRun} tells the user.
+     */
+    private void pauseJob(GeminiBatchJob job, String reason) {
+        synchronized (job) {
+            if (job.status != GeminiBatchJob.Status.RUNNING) {
+                return;
+            }
+            job.status = GeminiBatchJob.Status.PAUSED;
+            job.pauseReason = reason;
+        }
+        LOG.info("Batch job " + job.id + " paused: " + reason);
+    }
+
+    private String buildPrompt(String template, VirtualFile file, String content) {
+        VirtualFile projectDir = ProjectUtil.guessProjectDir(project);
+        String relativePath = projectDir != null ? VfsUtilCore.getRelativePath(file, projectDir) : null;
+        String filePath = relativePath != null ? relativePath : file.getPath();
+
+        String prompt = template
+                .replace(FILE_NAME_PLACEHOLDER, file.getName())
+                .replace(FILE_PATH_PLACEHOLDER, filePath);
+        if (prompt.contains(CONTENT_PLACEHOLDER)) {
+            return prompt.replace(CONTENT_PLACEHOLDER, content);
+        }
+        return prompt + "\n\nFile: " + filePath + "\n```\n" + content + "\n```";
+    }
+
+    private void recordResult(GeminiBatchJob job, GeminiBatchJob.Result result) {
+        result.completedAt = System.currentTimeMillis();
+        if (result.text.length() > MAX_PERSISTED_RESULT_CHARS) {
+            result.text = result.text.substring(0, MAX_PERSISTED_RESULT_CHARS) + "\n\n[truncated]";
+        }
+        job.addResult(result);
+        notifyListeners(job, result);
+    }
+
+    private void finishRun(GeminiBatchJob job) {
+        synchronized (job) {
+            job.activeMillis += System.currentTimeMillis() - job.runStartedAt;
+            job.runStartedAt = 0;
+            if (job.status == GeminiBatchJob.Status.RUNNING && job.getPendingFileUrls().isEmpty()) {
+                job.status = GeminiBatchJob.Status.COMPLETED;
+            }
+        }
+        String summary = job.getSummary();
+        LOG.info("Batch job " + job.id + " finished run (" + job.status + "): " + summary);
+        notifyListeners(job, null);
+        if (job.status == GeminiBatchJob.Status.COMPLETED && !project.isDisposed()) {
+            NotificationGroupManager.getInstance().getNotificationGroup("Gemini AI Chat")
+                    .createNotification("Gemini batch job completed", summary, NotificationType.INFORMATION)
+                    .notify(project);
+        } else if (job.status == GeminiBatchJob.Status.PAUSED) {
+            notifyPaused(job);
+        }
+    }
+
+    private void notifyPaused(GeminiBatchJob job) {
+        if (project.isDisposed()) {
+            return;
+        }
+        NotificationGroupManager.getInstance().getNotificationGroup("Gemini AI Chat")
+                .createNotification("Gemini batch job paused",
+                        job.pauseReason + ". " + job.getPendingFileUrls().size() + " files left; resume it in the Gemini Batch Results window.",
+                        NotificationType.WARNING)
+                .notify(project);
+    }
+
+    private void notifyListeners(GeminiBatchJob job, @Nullable GeminiBatchJob.Result newResult) {
+        ApplicationManager.getApplication().invokeLater(() -> {
+            for (BatchJobListener listener : listeners) {
+                listener.jobChanged(job, newResult);
+            }
+        }, project.getDisposed());
+    }
+}
@@ -0,0 +1,216 @@
+package eu.technest.geminichatplugin.service;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.Alarm;
+import eu.technest.geminichatplugin.settings.GeminiSettingsService;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Routes requests to the fastest healthy of the configured API base URLs (e.g. per-office proxies or gateways
+ * serving the Gemini API paths). With more than one endpoint, every endpoint is probed in the background and
+ * its latency smoothed. A circuit breaker ejects an endpoint after consecutive failures; once the ejection
+ * expires, one trial request or probe decides whether it is back or ejected again for twice as long.
+ */
+@Service
+public final class GeminiEndpointSelector implements Disposable {
+    private static final Logger LOG = Logger.getInstance(GeminiEndpointSelector.class);
+
+    public static final String DEFAULT_BASE_URL = "https://generativelanguage.googleapis.com/";
+    private static final long PROBE_INTERVAL_MS = 60_000;
+    private static final int FAILURE_THRESHOLD = 3;
+    private static final long INITIAL_EJECTION_MS = 30_000;
+    private static final long MAX_EJECTION_MS = 5 * 60_000;
+    private static final double LATENCY_SMOOTHING = 0.3; // Weight of the newest sample
+
+    private static final class Endpoint {
+        final String baseUrl;
+        long latencyMs = -1; // Smoothed probe latency, -1 until probed
+        int consecutiveFailures = 0;
+        long ejectedUntil = 0; // Circuit open until then
+        long ejectionMs = INITIAL_EJECTION_MS;
+
+        Endpoint(String baseUrl) {
+            this.baseUrl = baseUrl;
+        }
+
+        boolean isEjected(long now) {
+            return ejectedUntil > now;
+        }
+    }
+
+    private final Map<String, Endpoint> endpoints = new LinkedHashMap<>(); // Guarded by this, in configured order
+    private List<String> configuredUrls = List.of(); // Guarded by this
+    private final Alarm probeAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, this);
+    private boolean probing = false; // Guarded by this
+
+    public static GeminiEndpointSelector getInstance() {
+        return ApplicationManager.getApplication().getService(GeminiEndpointSelector.class);
+    }
+
+    @Override
+    public void dispose() {
+        // The probe alarm is a child of this service
+    }
+
+    /**
+     * The base URL (ending with a slash) the next request should use: the fastest endpoint whose circuit is
+     * closed, or, if all are ejected, the one that comes back first, so requests never fail for routing alone.
+     */
+    @NotNull
+    public synchronized String selectBaseUrl() {
+        refreshEndpoints();
+        long now = System.currentTimeMillis();
+        Endpoint best = null;
+        for (Endpoint endpoint : endpoints.values()) {
+            if (endpoint.isEjected(now)) {
+                continue;
+            }
+            // Unprobed endpoints keep their configured order behind the measured ones
+            if (best == null || (endpoint.latencyMs >= 0 && (best.latencyMs < 0 || endpoint.latencyMs < best.latencyMs))) {
+                best = endpoint;
+            }
+        }
+        if (best == null) {
+            for (Endpoint endpoint : endpoints.values()) {
+                if (best == null || endpoint.ejectedUntil < best.ejectedUntil) {
+                    best = endpoint;
+                }
+            }
+        }
+        return best.baseUrl;
+    }
+
+    /**
+     * A request to {@code url} (any URL under one of the endpoints) got an answer that was not a server error.
+     */
+    public synchronized void recordSuccess(@NotNull String url) {
+        Endpoint endpoint = findEndpoint(url);
+        if (endpoint != null) {
+            if (endpoint.consecutiveFailures >= FAILURE_THRESHOLD) {
+                LOG.info("API endpoint " + endpoint.baseUrl + " is healthy again");
+            }
+            endpoint.consecutiveFailures = 0;
+            endpoint.ejectionMs = INITIAL_EJECTION_MS;
+        }
+    }
+
+    /**
+     * A request to {@code url} failed on the network or with a server error (5xx).
+     */
+    public synchronized void recordFailure(@NotNull String url) {
+        Endpoint endpoint = findEndpoint(url);
+        if (endpoint == null) {
+            return;
+        }
+        endpoint.consecutiveFailures++;
+        long now = System.currentTimeMillis();
+        if (endpoint.consecutiveFailures >= FAILURE_THRESHOLD && !endpoint.isEjected(now)) {
+            endpoint.ejectedUntil = now + endpoint.ejectionMs;
+            LOG.warn("Ejecting API endpoint " + endpoint.baseUrl + " for " + endpoint.ejectionMs / 1000 + " s after "
+                    + endpoint.consecutiveFailures + " consecutive failures");
+            endpoint.ejectionMs = Math.min(endpoint.ejectionMs * 2, MAX_EJECTION_MS);
+        }
+    }
+
+    public synchronized String describe() {
+        refreshEndpoints();
+        long now = System.currentTimeMillis();
+        List<String> lines = new ArrayList<>();
+        for (Endpoint endpoint : endpoints.values()) {
+            String state = endpoint.isEjected(now) ? "ejected for " + (endpoint.ejectedUntil - now) / 1000 + " s"
+                    : endpoint.latencyMs >= 0 ? endpoint.latencyMs + " ms" : "not probed";
+            lines.add(endpoint.baseUrl + " (" + state + ")");
+        }
+        return String.join(", ", lines);
+    }
+
+    private Endpoint findEndpoint(String url) {
+        for (Endpoint endpoint : endpoints.values()) {
+            if (url.startsWith(endpoint.baseUrl)) {
+                return endpoint;
+            }
+        }
+        return null;
+    }
+
+    // Follows the settings; measurements of endpoints that stay configured are kept
+    private void refreshEndpoints() {
+        List<String> urls = new ArrayList<>();
+        for (String url : GeminiSettingsService.getInstance().getApiEndpoints()) {
+            String normalized = normalize(url);
+            if (!normalized.isEmpty() && !urls.contains(normalized)) {
+                urls.add(normalized);
+            }
+        }
+        if (urls.isEmpty()) {
+            urls.add(DEFAULT_BASE_URL);
+        }
+        if (urls.equals(configuredUrls)) {
+            return;
+        }
+        Map<String, Endpoint> previous = new LinkedHashMap<>(endpoints);
+        endpoints.clear();
+        for (String url : urls) {
+            endpoints.put(url, previous.getOrDefault(url, new Endpoint(url)));
+        }
+        configuredUrls = urls;
+        if (urls.size() > 1 && !probing) {
+            probing = true;
+            probeAlarm.addRequest(this::probeAll, 0);
+        }
+    }
+
+    private void probeAll() {
+        List<String> urls;
+        synchronized (this) {
+            if (configuredUrls.size() < 2) {
+                probing = false; // Nothing to choose from; restarts once more endpoints are configured
+                return;
+            }
+            urls = new ArrayList<>(configuredUrls);
+        }
+        GeminiApiService apiService = GeminiApiService.getInstance();
+        for (String url : urls) {
+            long latencyMs = apiService.probeLatency(url);
+            synchronized (this) {
+                Endpoint endpoint = endpoints.get(url);
+                if (endpoint == null) {
+                    continue; // Removed from the settings meanwhile
+                }
+                if (latencyMs < 0) {
+                    recordFailure(url);
+                    continue;
+                }
+                endpoint.latencyMs = endpoint.latencyMs < 0 ? latencyMs
+                        : Math.round(LATENCY_SMOOTHING * latencyMs + (1 - LATENCY_SMOOTHING) * endpoint.latencyMs);
+                if (endpoint.isEjected(System.currentTimeMillis())) {
+                    continue; // Reachable, but the ejection runs out first
+                }
+                if (endpoint.consecutiveFailures >= FAILURE_THRESHOLD) {
+                    endpoint.consecutiveFailures = FAILURE_THRESHOLD - 1; // Half-open: one more failure ejects it again
+                } else {
+                    recordSuccess(url);
+                }
+            }
+        }
+        if (!probeAlarm.isDisposed()) {
+            probeAlarm.addRequest(this::probeAll, PROBE_INTERVAL_MS);
+        }
+    }
+
+    static String normalize(String url) {
+        String trimmed = url.trim();
+        if (trimmed.isEmpty()) {
+            return "";
+        }
+        return trimmed.endsWith("/") ? trimmed : trimmed + "/";
+    }
+}
@@ -0,0 +1,296 @@
+package eu.technest.geminichatplugin.service;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.fileTypes.FileTypeManager;
+import okio.BufferedSource;
+import okio.ByteString;
+import okio.HashingSink;
+import okio.Okio;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Instant;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Attaches local files to chat turns through the Files API instead of inlining them as base64. Files are
+ * hashed and uploaded in resumable chunks streamed from disk, so neither step holds the file in memory (unless the
+ * caller passes a snapshot it already holds).
+ * Uploads are cached by content hash (and API key) until shortly before the API deletes them, so attaching
+ * the same screenshot or log again reuses the uploaded file; concurrent uploads of the same content are joined.
+ */
+@Service
+@State(
+        name = "eu.technest.geminichatplugin.service.GeminiFileUploadService",
+        storages = @Storage("GeminiChatPluginUploads.xml")
+)
+public final class GeminiFileUploadService implements PersistentStateComponent<GeminiFileUploadService.UploadsState> {
+    private static final Logger LOG = Logger.getInstance(GeminiFileUploadService.class);
+
+    private static final long DEFAULT_LIFETIME_MS = TimeUnit.HOURS.toMillis(48); // If the API does not report expirationTime
+    private static final long EXPIRY_MARGIN_MS = TimeUnit.MINUTES.toMillis(30); // Never hand out a file about to be deleted
+    // MIME types the API accepts as-is; other text files are sent as text/plain
+    private static final List<String> MEDIA_TYPE_PREFIXES = List.of("image/", "audio/", "video/", "application/pdf");
+
+    private final GeminiApiService apiService = GeminiApiService.getInstance();
+    private final Map<String, GeminiUploadedFile> files = new ConcurrentHashMap<>(); // By cache key
+    private final Map<String, CompletableFuture<GeminiUploadedFile>> inFlight = new ConcurrentHashMap<>();
+
+    public static class UploadsState {
+        public List<GeminiUploadedFile> files = new ArrayList<>();
+    }
+
+    public static GeminiFileUploadService getInstance() {
+        return ApplicationManager.getApplication().getService(GeminiFileUploadService.class);
+    }
+
+    @Override
+    public UploadsState getState() {
+        purgeExpired();
+        UploadsState state = new UploadsState();
+        state.files.addAll(files.values());
+        return state;
+    }
+
+    @Override
+    public void loadState(@NotNull UploadsState state) {
+        files.clear();
+        if (state.files != null) {
+            for (GeminiUploadedFile file : state.files) {
+                files.put(file.cacheKey, file);
+            }
+        }
+        purgeExpired();
+    }
+
+    /**
+     * Returns the uploaded file for {@code file}'s content, uploading it unless a live upload is cached.
+     * Blocking, call from a background thread.
+     */
+    @NotNull
+    public GeminiUploadedFile upload(@NotNull String apiKey, @NotNull Path file) throws IOException {
+        return upload(apiKey, file, null);
+    }
+
+    /**
+     * Like {@link #upload(String, Path)}, but uploads {@code content}, a snapshot of the file the caller has already
+     * read (null to read the file), so the upload is exactly the version the caller keeps.
+     */
+    @NotNull
+    public GeminiUploadedFile upload(@NotNull String apiKey, @NotNull Path file, @Nullable byte[] content) throws IOException {
+        String cacheKey = cacheKey(apiKey, content != null ? ByteString.of(content).sha256().hex() : sha256(file));
+        GeminiUploadedFile cached = findLive(cacheKey);
+        if (cached != null) {
+            LOG.info("Reusing uploaded " + cached.name + " for " + file.getFileName());
+            return cached;
+        }
+
+        CompletableFuture<GeminiUploadedFile> ownUpload = new CompletableFuture<>();
+        CompletableFuture<GeminiUploadedFile> runningUpload = inFlight.putIfAbsent(cacheKey, ownUpload);
+        if (runningUpload != null) {
+            return await(runningUpload); // Same content is being uploaded right now
+        }
+        try {
+            GeminiUploadedFile uploaded = findLive(cacheKey); // Finished between the first lookup and registering
+            if (uploaded == null) {
+                uploaded = doUpload(apiKey, file, content, cacheKey);
+                files.put(cacheKey, uploaded);
+            }
+            ownUpload.complete(uploaded);
+            return uploaded;
+        } catch (IOException | RuntimeException e) {
+            ownUpload.completeExceptionally(e);
+            throw e;
+        } finally {
+            inFlight.remove(cacheKey, ownUpload);
+        }
+    }
+
+    /**
+     * A {@code fileData} part referencing an uploaded file, to add to a content's parts.
+     */
+    public static JsonObject fileDataPart(@NotNull GeminiUploadedFile file) {
+        JsonObject fileData = new JsonObject();
+        fileData.addProperty("mimeType", file.mimeType);
+        fileData.addProperty("fileUri", file.uri);
+        JsonObject part = new JsonObject();
+        part.add("fileData", fileData);
+        return part;
+    }
+
+    /**
+     * Replaces {@code fileData} parts whose file expired (or is about to) with a short text note, so an old
+     * conversation can continue after the API deleted its attachments. Contents without such parts are reused.
+     */
+    public List<JsonObject> dropExpiredFileParts(@NotNull List<JsonObject> contents) {
+        List<JsonObject> result = new ArrayList<>(contents.size());
+        for (JsonObject content : contents) {
+            JsonArray parts = content.getAsJsonArray("parts");
+            if (parts == null || !hasExpiredFilePart(parts)) {
+                result.add(content);
+                continue;
+            }
+            JsonArray liveParts = new JsonArray();
+            for (JsonElement partElement : parts) {
+                JsonObject part = partElement.getAsJsonObject();
+                if (isExpiredFilePart(part)) {
+                    JsonObject note = new JsonObject();
+                    note.addProperty("text", "[An attached file is no longer available]");
+                    liveParts.add(note);
+                } else {
+                    liveParts.add(part);
+                }
+            }
+            JsonObject copy = content.deepCopy();
+            copy.add("parts", liveParts);
+            result.add(copy);
+        }
+        return result;
+    }
+
+    private boolean hasExpiredFilePart(JsonArray parts) {
+        for (JsonElement part : parts) {
+            if (isExpiredFilePart(part.getAsJsonObject())) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private boolean isExpiredFilePart(JsonObject part) {
+        if (!part.has("fileData")) {
+            return false;
+        }
+        String uri = part.getAsJsonObject("fileData").get("fileUri").getAsString();
+        long now = System.currentTimeMillis();
+        for (GeminiUploadedFile file : files.values()) {
+            if (file.uri.equals(uri)) {
+                return file.isExpired(now, EXPIRY_MARGIN_MS);
+            }
+        }
+        return true; // Uploads leave the cache only once they expired
+    }
+
+    @Nullable
+    private GeminiUploadedFile findLive(String cacheKey) {
+        GeminiUploadedFile file = files.get(cacheKey);
+        if (file != null && file.isExpired(System.currentTimeMillis(), EXPIRY_MARGIN_MS)) {
+            files.remove(cacheKey, file);
+            return null;
+        }
+        return file;
+    }
+
+    private void purgeExpired() {
+        long now = System.currentTimeMillis();
+        files.values().removeIf(file -> file.isExpired(now, 0));
+    }
+
+    private GeminiUploadedFile doUpload(String apiKey, Path file, @Nullable byte[] content, String cacheKey) throws IOException {
+        long startedAt = System.currentTimeMillis();
+        String mimeType = detectMimeType(file);
+        String displayName = file.getFileName().toString();
+        JsonObject uploaded = content != null
+                ? apiService.uploadBytes(apiKey, content, mimeType, displayName)
+                : apiService.uploadFile(apiKey, file, mimeType, displayName);
+
+        GeminiUploadedFile result = new GeminiUploadedFile();
+        result.cacheKey = cacheKey;
+        result.name = uploaded.get("name").getAsString();
+        result.uri = uploaded.get("uri").getAsString();
+        result.mimeType = uploaded.has("mimeType") ? uploaded.get("mimeType").getAsString() : mimeType;
+        result.displayName = displayName;
+        result.sizeBytes = content != null ? content.length : Files.size(file);
+        result.uploadedAt = System.currentTimeMillis();
+        result.expiresAt = parseExpiration(uploaded, result.uploadedAt);
+        LOG.info(String.format("Uploaded %s (%,d KB) as %s in %d ms", result.displayName, result.sizeBytes / 1024,
+                result.name, result.uploadedAt - startedAt));
+        return result;
+    }
+
+    private static long parseExpiration(JsonObject uploaded, long uploadedAt) {
+        if (uploaded.has("expirationTime")) {
+            try {
+                return Instant.parse(uploaded.get("expirationTime").getAsString()).toEpochMilli();
+            } catch (DateTimeParseException e) {
+                LOG.debug("Unexpected expirationTime " + uploaded.get("expirationTime"), e);
+            }
+        }
+        return uploadedAt + DEFAULT_LIFETIME_MS;
+    }
+
+    private static String detectMimeType(Path file) throws IOException {
+        String probed = Files.probeContentType(file);
+        if (probed != null) {
+            for (String prefix : MEDIA_TYPE_PREFIXES) {
+                if (probed.startsWith(prefix)) {
+                    return probed;
+                }
+            }
+        }
+        if (!FileTypeManager.getInstance().getFileTypeByFileName(file.getFileName().toString()).isBinary()) {
+            return "text/plain"; // Logs, sources and configs
+        }
+        return probed != null ? probed : "application/octet-stream";
+    }
+
+    /**
+     * Streams the file through a SHA-256 sink, one buffer at a time.
+     */
+    private static String sha256(Path file) throws IOException {
+        try (BufferedSource source = Okio.buffer(Okio.source(file)); HashingSink hashingSink = HashingSink.sha256(Okio.blackhole())) {
+            source.readAll(hashingSink);
+            return hashingSink.hash().hex();
+        }
+    }
+
+    // Uploaded files belong to the API key's project; a new key must not reuse them
+    private static String cacheKey(String apiKey, String contentSha256) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256").digest(apiKey.getBytes(StandardCharsets.UTF_8));
+            StringBuilder keyId = new StringBuilder();
+            for (int i = 0; i < 6; i++) {
+                keyId.append(String.format("%02x", digest[i]));
+            }
+            return contentSha256 + "@" + keyId;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not available", e);
+        }
+    }
+
+    private static GeminiUploadedFile await(CompletableFuture<GeminiUploadedFile> upload) throws IOException {
+        try {
+            return upload.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for an upload");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+}
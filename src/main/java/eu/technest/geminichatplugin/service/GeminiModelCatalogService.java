@@ -0,0 +1,178 @@
+package eu.technest.geminichatplugin.service;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.util.Disposer;
+import eu.technest.geminichatplugin.settings.GeminiModelInfo;
+import eu.technest.geminichatplugin.settings.GeminiSettingsService;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Serves the Gemini model catalog from the persisted cache in {@link GeminiSettingsService} and refreshes it
+ * with stale-while-revalidate semantics: callers always get the cached catalog immediately, and a stale catalog
+ * triggers a single background refresh whose result is pushed to the registered listeners.
+ */
+@Service
+public final class GeminiModelCatalogService {
+    private static final Logger LOG = Logger.getInstance(GeminiModelCatalogService.class);
+
+    public static final long CATALOG_TTL_MS = TimeUnit.HOURS.toMillis(6);
+    // Used when the catalog has not been fetched yet or does not know the model
+    public static final int DEFAULT_INPUT_TOKEN_LIMIT = 30_720;
+    public static final int DEFAULT_OUTPUT_TOKEN_LIMIT = 2_048;
+
+    private final GeminiSettingsService settingsService = GeminiSettingsService.getInstance();
+    private final List<CatalogListener> listeners = new CopyOnWriteArrayList<>();
+    private final AtomicBoolean backgroundRefreshRunning = new AtomicBoolean(false);
+    private final Object refreshLock = new Object();
+
+    public interface CatalogListener {
+        void catalogUpdated(List<GeminiModelInfo> models);
+    }
+
+    public static GeminiModelCatalogService getInstance() {
+        return ApplicationManager.getApplication().getService(GeminiModelCatalogService.class);
+    }
+
+    /**
+     * Registers a listener notified on the EDT (in any modality, so open dialogs get updates too)
+     * whenever the catalog changes. The listener is removed when {@code parentDisposable} is disposed.
+     */
+    public void addListener(@NotNull CatalogListener listener, @NotNull Disposable parentDisposable) {
+        listeners.add(listener);
+        Disposer.register(parentDisposable, () -> listeners.remove(listener));
+    }
+
+    public List<GeminiModelInfo> getModels() {
+        return settingsService.getModelCatalog();
+    }
+
+    /**
+     * Model ids usable for chat (supporting generateContent), sorted. Falls back to the legacy id cache.
+     */
+    public List<String> getChatModelIds() {
+        List<String> modelIds = new ArrayList<>();
+        for (GeminiModelInfo model : settingsService.getModelCatalog()) {
+            if (model.supports("generateContent")) {
+                modelIds.add(model.id);
+            }
+        }
+        if (modelIds.isEmpty()) {
+            return settingsService.getAvailableModelIds();
+        }
+        modelIds.sort(String::compareTo);
+        return modelIds;
+    }
+
+    @Nullable
+    public GeminiModelInfo getModel(@Nullable String modelId) {
+        if (modelId == null) {
+            return null;
+        }
+        for (GeminiModelInfo model : settingsService.getModelCatalog()) {
+            if (modelId.equals(model.id)) {
+                return model;
+            }
+        }
+        return null;
+    }
+
+    public int getInputTokenLimit(@Nullable String modelId) {
+        GeminiModelInfo model = getModel(modelId);
+        return model != null && model.inputTokenLimit > 0 ? model.inputTokenLimit : DEFAULT_INPUT_TOKEN_LIMIT;
+    }
+
+    public int getOutputTokenLimit(@Nullable String modelId) {
+        GeminiModelInfo model = getModel(modelId);
+        return model != null && model.outputTokenLimit > 0 ? model.outputTokenLimit : DEFAULT_OUTPUT_TOKEN_LIMIT;
+    }
+
+    public boolean isEmpty() {
+        return settingsService.getModelCatalog().isEmpty();
+    }
+
+    public boolean isStale() {
+        return isEmpty() || System.currentTimeMillis() - settingsService.getModelCatalogFetchedAt() > CATALOG_TTL_MS;
+    }
+
+    public boolean isRefreshing() {
+        return backgroundRefreshRunning.get();
+    }
+
+    /**
+     * Starts a background refresh if the cached catalog is older than {@link #CATALOG_TTL_MS}.
+     * Never blocks; concurrent calls are coalesced into a single request.
+     */
+    public void revalidateIfStale(@Nullable String apiKey) {
+        if (apiKey == null || apiKey.trim().isEmpty() || !isStale()) {
+            return;
+        }
+        if (!backgroundRefreshRunning.compareAndSet(false, true)) {
+            LOG.debug("Model catalog refresh already running.");
+            return;
+        }
+        LOG.info("Model catalog is stale, refreshing in background.");
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            try {
+                refreshNow(apiKey, null);
+            } finally {
+                backgroundRefreshRunning.set(false);
+            }
+        });
+    }
+
+    /**
+     * Fetches the catalog synchronously and stores it. Must be called from a background thread.
+     * If another refresh finished while this call was waiting, its fresh result is reused.
+     */
+    public void refreshNow(@NotNull String apiKey, @Nullable GeminiApiService.ModelCatalogCallback callback) {
+        long requestedAt = System.currentTimeMillis();
+        synchronized (refreshLock) {
+            if (settingsService.getModelCatalogFetchedAt() >= requestedAt && !isEmpty()) {
+                LOG.debug("Model catalog was refreshed concurrently, reusing result.");
+                if (callback != null) {
+                    callback.onSuccess(getModels());
+                }
+                return;
+            }
+            GeminiApiService.getInstance().listModelInfos(apiKey, new GeminiApiService.ModelCatalogCallback() {
+                @Override
+                public void onSuccess(List<GeminiModelInfo> models) {
+                    if (!models.isEmpty()) {
+                        settingsService.setModelCatalog(models, System.currentTimeMillis());
+                        notifyListeners(models);
+                    }
+                    if (callback != null) {
+                        callback.onSuccess(models);
+                    }
+                }
+
+                @Override
+                public void onFailure(String errorMessage) {
+                    LOG.info("Model catalog refresh failed, keeping cached catalog: " + errorMessage);
+                    if (callback != null) {
+                        callback.onFailure(errorMessage);
+                    }
+                }
+            });
+        }
+    }
+
+    private void notifyListeners(List<GeminiModelInfo> models) {
+        ApplicationManager.getApplication().invokeLater(() -> {
+            for (CatalogListener listener : listeners) {
+                listener.catalogUpdated(models);
+            }
+        }, ModalityState.any());
+    }
+}
@@ -0,0 +1,40 @@
+package eu.technest.geminichatplugin.service;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A chat prompt that could not be sent for lack of connectivity, with the history it was sent with.
+ * Public fields and a no-arg constructor are required by the XML serializer, which persists the outbox.
+ */
+public class GeminiOutboxEntry {
+    public String id = "";
+    public String targetId = ""; // The chat tab that sent the prompt
+    public String modelId = "";
+    public String userInput = "";
+    public String historyJson = "[]"; // Compact JSON array of the history contents
+    public long createdAt = 0L;
+
+    public GeminiOutboxEntry() {
+    }
+
+    // Not named like bean accessors, so the XML serializer does not treat the history as a property
+    public List<JsonObject> readHistory() {
+        List<JsonObject> history = new ArrayList<>();
+        for (JsonElement element : JsonParser.parseString(historyJson).getAsJsonArray()) {
+            history.add(element.getAsJsonObject());
+        }
+        return history;
+    }
+
+    public void storeHistory(List<JsonObject> history) {
+        JsonArray array = new JsonArray();
+        history.forEach(array::add);
+        historyJson = array.toString();
+    }
+}
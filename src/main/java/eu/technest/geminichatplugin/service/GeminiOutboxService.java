@@ -0,0 +1,254 @@
+package eu.technest.geminichatplugin.service;
+
+import com.google.gson.JsonObject;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import com.intellij.openapi.components.StoragePathMacros;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.Disposer;
+import com.intellij.util.Alarm;
+import eu.technest.geminichatplugin.settings.GeminiSettingsService;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Chat prompts that failed for lack of connectivity. They are persisted in the workspace file, a connectivity
+ * probe runs with exponential backoff, and once the API is reachable the prompts are replayed one by one in the
+ * order they were sent. Answers go to the chat tab that sent the prompt, or to the first open tab if that one
+ * is gone (e.g. after a restart).
+ */
+@Service(Service.Level.PROJECT)
+@State(
+        name = "eu.technest.geminichatplugin.service.GeminiOutboxService",
+        storages = @Storage(StoragePathMacros.WORKSPACE_FILE)
+)
+public final class GeminiOutboxService implements PersistentStateComponent<GeminiOutboxService.OutboxState>, Disposable {
+    private static final Logger LOG = Logger.getInstance(GeminiOutboxService.class);
+
+    private static final long INITIAL_PROBE_DELAY_MS = 2_000;
+    private static final long MAX_PROBE_DELAY_MS = 60_000;
+    private static final int MAX_QUEUED_PROMPTS = 50;
+
+    private final GeminiApiService apiService = GeminiApiService.getInstance();
+    private final GeminiSettingsService settingsService = GeminiSettingsService.getInstance();
+    private final List<GeminiOutboxEntry> entries = new CopyOnWriteArrayList<>();
+    private final Map<String, ReplayTarget> targets = new LinkedHashMap<>(); // Guarded by itself, in registration order
+    private final Alarm probeAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, this);
+    private final AtomicBoolean replaying = new AtomicBoolean();
+    private long probeDelayMs = INITIAL_PROBE_DELAY_MS; // Guarded by this
+
+    public static class OutboxState {
+        public List<GeminiOutboxEntry> entries = new ArrayList<>();
+    }
+
+    /**
+     * A chat tab that receives the answers of replayed prompts.
+     */
+    public interface ReplayTarget {
+        /** True while the tab has a request of its own in flight; replaying waits for it. */
+        boolean isBusy();
+
+        /** Called on a background thread right before a queued prompt is sent again; returns the callback for its answer. */
+        @NotNull GeminiApiService.GeminiApiResponseCallback replayStarting(@NotNull GeminiOutboxEntry entry);
+
+        /** The connection dropped again before the answer started; the prompt stays queued. */
+        void replayPostponed(@NotNull GeminiOutboxEntry entry);
+    }
+
+    public static GeminiOutboxService getInstance(@NotNull Project project) {
+        return project.getService(GeminiOutboxService.class);
+    }
+
+    @Override
+    public OutboxState getState() {
+        OutboxState state = new OutboxState();
+        state.entries.addAll(entries);
+        return state;
+    }
+
+    @Override
+    public void loadState(@NotNull OutboxState state) {
+        entries.clear();
+        if (state.entries != null) {
+            entries.addAll(state.entries);
+        }
+    }
+
+    @Override
+    public void dispose() {
+        // The probe alarm is a child of this service
+    }
+
+    /**
+     * Registers a chat tab under the id it passes to {@link #enqueue}. Prompts restored from a previous session
+     * start replaying once the first tab is registered.
+     */
+    public void registerTarget(@NotNull String targetId, @NotNull ReplayTarget target, @NotNull Disposable parentDisposable) {
+        synchronized (targets) {
+            targets.put(targetId, target);
+        }
+        Disposer.register(parentDisposable, () -> {
+            synchronized (targets) {
+                targets.remove(targetId);
+            }
+        });
+        if (!entries.isEmpty()) {
+            scheduleProbe(0);
+        }
+    }
+
+    public void enqueue(@NotNull String targetId, @NotNull String modelId, @NotNull String userInput, @NotNull List<JsonObject> history) {
+        GeminiOutboxEntry entry = new GeminiOutboxEntry();
+        entry.id = UUID.randomUUID().toString();
+        entry.targetId = targetId;
+        entry.modelId = modelId;
+        entry.userInput = userInput;
+        entry.storeHistory(history);
+        entry.createdAt = System.currentTimeMillis();
+        entries.add(entry);
+        while (entries.size() > MAX_QUEUED_PROMPTS) {
+            GeminiOutboxEntry dropped = entries.remove(0);
+            LOG.warn("Outbox full, dropping the prompt queued at " + dropped.createdAt);
+        }
+        LOG.info("Queued prompt for replay after connectivity returns, " + entries.size() + " in the outbox");
+        synchronized (this) {
+            probeDelayMs = INITIAL_PROBE_DELAY_MS;
+        }
+        scheduleProbe(INITIAL_PROBE_DELAY_MS);
+    }
+
+    public int getQueuedCount() {
+        return entries.size();
+    }
+
+    private void scheduleProbe(long delayMs) {
+        if (probeAlarm.isDisposed()) {
+            return;
+        }
+        probeAlarm.cancelAllRequests();
+        probeAlarm.addRequest(this::probe, delayMs);
+    }
+
+    private void scheduleProbeWithBackoff() {
+        long delay;
+        synchronized (this) {
+            delay = probeDelayMs;
+            probeDelayMs = Math.min(probeDelayMs * 2, MAX_PROBE_DELAY_MS);
+        }
+        scheduleProbe(delay);
+    }
+
+    private void probe() {
+        if (entries.isEmpty() || !replaying.compareAndSet(false, true)) {
+            return;
+        }
+        boolean retry;
+        try {
+            if (!apiService.isApiReachable()) {
+                LOG.debug("Gemini API still unreachable, " + entries.size() + " prompts queued");
+                retry = true;
+            } else {
+                synchronized (this) {
+                    probeDelayMs = INITIAL_PROBE_DELAY_MS;
+                }
+                retry = !replayQueued();
+            }
+        } finally {
+            replaying.set(false);
+        }
+        if (retry) {
+            scheduleProbeWithBackoff();
+        } else if (!entries.isEmpty() && hasAnyTarget()) {
+            scheduleProbe(INITIAL_PROBE_DELAY_MS); // Queued while replaying, or waiting for a busy tab
+        }
+    }
+
+    /**
+     * Replays queued prompts in order, one at a time so the answers keep the order of the prompts.
+     * @return false if sending is not possible right now (connectivity lost again, no API key) and the probe should back off
+     */
+    private boolean replayQueued() {
+        String apiKey = settingsService.getGeminiApiKey();
+        if (apiKey == null || apiKey.trim().isEmpty()) {
+            return false; // Nothing can be sent until a key is configured
+        }
+        for (GeminiOutboxEntry entry : entries) {
+            ReplayTarget target = findTarget(entry);
+            if (target == null || target.isBusy()) {
+                return true; // No tab to deliver to yet, or it is busy; keep the order and try later
+            }
+            AtomicBoolean postponed = new AtomicBoolean();
+            GeminiApiService.GeminiApiResponseCallback delegate = target.replayStarting(entry);
+            apiService.streamGenerateContent(apiKey, entry.modelId, entry.userInput, entry.readHistory(), new GeminiApiService.GeminiApiResponseCallback() {
+                private boolean answerStarted = false;
+
+                @Override
+                public void onPartialResponse(String textDelta) {
+                    answerStarted = true;
+                    delegate.onPartialResponse(textDelta);
+                }
+
+                @Override
+                public void onHttpError(int statusCode) {
+                    delegate.onHttpError(statusCode);
+                }
+
+                @Override
+                public void onNetworkError(IOException error) {
+                    delegate.onNetworkError(error);
+                }
+
+                @Override
+                public void onSuccess(String geminiResponse, JsonObject modelContent) {
+                    entries.remove(entry);
+                    delegate.onSuccess(geminiResponse, modelContent);
+                }
+
+                @Override
+                public void onFailure(String errorMessage, String detailedError) {
+                    if (!answerStarted && GeminiApiService.isConnectivityError(errorMessage)) {
+                        postponed.set(true);
+                        target.replayPostponed(entry);
+                        return;
+                    }
+                    entries.remove(entry); // Answered with an error, retrying would not help
+                    delegate.onFailure(errorMessage, detailedError);
+                }
+            });
+            if (postponed.get()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    @Nullable
+    private ReplayTarget findTarget(GeminiOutboxEntry entry) {
+        synchronized (targets) {
+            ReplayTarget target = targets.get(entry.targetId);
+            if (target == null && !targets.isEmpty()) {
+                target = targets.values().iterator().next();
+            }
+            return target;
+        }
+    }
+
+    private boolean hasAnyTarget() {
+        synchronized (targets) {
+            return !targets.isEmpty();
+        }
+    }
+}
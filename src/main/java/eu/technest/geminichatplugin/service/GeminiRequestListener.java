@@ -0,0 +1,34 @@
+package eu.technest.geminichatplugin.service;
+
+import com.intellij.util.messages.Topic;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Lifecycle of every generation request sent by {@link GeminiApiService}, published application-wide so views
+ * other than the sending chat tab (the status bar widget, usage statistics) can follow them. Events arrive on
+ * the request thread; {@code requestId} ties the events of one request together.
+ */
+public interface GeminiRequestListener {
+    @Topic.AppLevel
+    Topic<GeminiRequestListener> TOPIC = new Topic<>(GeminiRequestListener.class, Topic.BroadcastDirection.NONE);
+
+    default void requestStarted(long requestId, @NotNull String modelId) {
+    }
+
+    default void firstToken(long requestId, long millisSinceStart) {
+    }
+
+    /** A fragment of a streamed answer arrived; the token count is a local estimate. */
+    default void textReceived(long requestId, int estimatedTokens) {
+    }
+
+    /**
+     * @param promptTokens -1 if the API did not report usage
+     * @param outputTokens as reported by the API, or estimated from the answer if it did not report usage
+     */
+    default void requestCompleted(long requestId, int promptTokens, int outputTokens, long durationMillis) {
+    }
+
+    default void requestFailed(long requestId, @NotNull String errorMessage) {
+    }
+}
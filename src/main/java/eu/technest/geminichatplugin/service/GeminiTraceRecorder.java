@@ -0,0 +1,245 @@
+package eu.technest.geminichatplugin.service;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.google.gson.JsonPrimitive;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.PathManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+
+/**
+ * Opt-in recorder of streamed API calls: the request payload with all free text redacted, every response line
+ * with its offset from the start of the call, the HTTP status and the error, if any. Each call becomes one
+ * compact JSON line in a rolling log under the IDE log directory, so "it was slow" reports can be looked at
+ * and the recorded answers replayed through the parsing and rendering code ({@link GeminiApiService#replayTrace}).
+ * Response text is kept as received: replaying it is the point, and the log never leaves the machine.
+ */
+@Service
+public final class GeminiTraceRecorder {
+    private static final Logger LOG = Logger.getInstance(GeminiTraceRecorder.class);
+
+    private static final long MAX_FILE_BYTES = 2 * 1024 * 1024;
+    private static final int MAX_FILES = 5; // traces.jsonl plus traces.1.jsonl ... traces.4.jsonl
+    // String fields that carry no user content and help reading a trace
+    private static final Set<String> UNREDACTED_KEYS = Set.of("role", "mimeType", "name", "responseMimeType");
+
+    private final Path directory = Paths.get(PathManager.getLogPath(), "gemini-traces");
+    private final ExecutorService writer = AppExecutorUtil.createBoundedApplicationPoolExecutor("Gemini Trace Writer", 1);
+
+    public static GeminiTraceRecorder getInstance() {
+        return ApplicationManager.getApplication().getService(GeminiTraceRecorder.class);
+    }
+
+    /**
+     * Starts recording a call; the caller adds the response lines and finishes it.
+     */
+    public Trace start(@NotNull String modelId, @NotNull JsonObject payload) {
+        return new Trace(this, UUID.randomUUID().toString(), modelId, System.currentTimeMillis(), redact(payload, null).getAsJsonObject());
+    }
+
+    /**
+     * The most recent traces, newest first. Blocking file IO, call from a background thread.
+     */
+    public List<Trace> readRecent(int max) {
+        List<Trace> traces = new ArrayList<>();
+        for (int i = 0; i < MAX_FILES && traces.size() < max; i++) {
+            Path file = logFile(i);
+            if (!Files.exists(file)) {
+                continue;
+            }
+            List<Trace> fileTraces = new ArrayList<>();
+            try (BufferedReader reader = Files.newBufferedReader(file, StandardCharsets.UTF_8)) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    try {
+                        fileTraces.add(Trace.fromJson(JsonParser.parseString(line).getAsJsonObject()));
+                    } catch (RuntimeException e) {
+                        LOG.debug("Skipping a damaged trace line in " + file, e); // E.g. cut off by a crash
+                    }
+                }
+            } catch (IOException e) {
+                LOG.warn("Could not read traces from " + file, e);
+            }
+            Collections.reverse(fileTraces);
+            traces.addAll(fileTraces.subList(0, Math.min(fileTraces.size(), max - traces.size())));
+        }
+        return traces;
+    }
+
+    private void write(Trace trace) {
+        String line = trace.toJson().toString() + "\n";
+        writer.execute(() -> {
+            try {
+                Files.createDirectories(directory);
+                Path current = logFile(0);
+                if (Files.exists(current) && Files.size(current) + line.length() > MAX_FILE_BYTES) {
+                    rotate();
+                }
+                Files.writeString(current, line, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+            } catch (IOException e) {
+                LOG.warn("Could not write a Gemini trace", e);
+            }
+        });
+    }
+
+    private void rotate() throws IOException {
+        Files.deleteIfExists(logFile(MAX_FILES - 1));
+        for (int i = MAX_FILES - 2; i >= 0; i--) {
+            if (Files.exists(logFile(i))) {
+                Files.move(logFile(i), logFile(i + 1), StandardCopyOption.REPLACE_EXISTING);
+            }
+        }
+    }
+
+    private Path logFile(int index) {
+        return directory.resolve(index == 0 ? "traces.jsonl" : "traces." + index + ".jsonl");
+    }
+
+    /**
+     * Replaces every string in the payload with its length, except a few structural fields.
+     */
+    private static JsonElement redact(JsonElement element, @Nullable String key) {
+        if (element.isJsonObject()) {
+            JsonObject redacted = new JsonObject();
+            element.getAsJsonObject().entrySet().forEach(entry -> redacted.add(entry.getKey(), redact(entry.getValue(), entry.getKey())));
+            return redacted;
+        }
+        if (element.isJsonArray()) {
+            JsonArray redacted = new JsonArray();
+            element.getAsJsonArray().forEach(item -> redacted.add(redact(item, key)));
+            return redacted;
+        }
+        if (element.isJsonPrimitive() && element.getAsJsonPrimitive().isString() && !UNREDACTED_KEYS.contains(key)) {
+            return new JsonPrimitive("<" + element.getAsString().length() + " chars>");
+        }
+        return element;
+    }
+
+    /**
+     * One recorded call. Lines are added from the request thread only.
+     */
+    public static final class Trace {
+        private final GeminiTraceRecorder recorder; // Null for traces read back from disk
+        private final String id;
+        private final String modelId;
+        private final long startedAt;
+        private final long startedAtNanos = System.nanoTime();
+        private final JsonObject request;
+        private final List<Long> lineOffsets = new ArrayList<>();
+        private final List<String> lines = new ArrayList<>();
+        private int status = -1;
+        private String error;
+        private long durationMillis;
+
+        private Trace(@Nullable GeminiTraceRecorder recorder, String id, String modelId, long startedAt, JsonObject request) {
+            this.recorder = recorder;
+            this.id = id;
+            this.modelId = modelId;
+            this.startedAt = startedAt;
+            this.request = request;
+        }
+
+        public void line(@NotNull String line) {
+            if (line.isEmpty()) {
+                return; // SSE separators carry nothing to replay
+            }
+            lineOffsets.add((System.nanoTime() - startedAtNanos) / 1_000_000);
+            lines.add(line);
+        }
+
+        /**
+         * @param status the HTTP status, -1 if no response arrived
+         * @param error  what went wrong, null on success
+         */
+        public void finish(int status, @Nullable String error) {
+            this.status = status;
+            this.error = error;
+            this.durationMillis = (System.nanoTime() - startedAtNanos) / 1_000_000;
+            if (recorder != null) {
+                recorder.write(this);
+            }
+        }
+
+        public List<String> getLines() {
+            return lines;
+        }
+
+        public List<Long> getLineOffsets() {
+            return lineOffsets;
+        }
+
+        @Nullable
+        public String getError() {
+            return error;
+        }
+
+        public long getDurationMillis() {
+            return durationMillis;
+        }
+
+        public String describe() {
+            String time = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss").format(new Date(startedAt));
+            String first = lineOffsets.isEmpty() ? "no data" : "first data after " + lineOffsets.get(0) + " ms";
+            return String.format("%s  %s  %d chunks, %s, %d ms%s", time, modelId, lines.size(), first, durationMillis,
+                    error != null ? "  (failed: " + error + ")" : status >= 400 ? "  (HTTP " + status + ")" : "");
+        }
+
+        private JsonObject toJson() {
+            JsonObject json = new JsonObject();
+            json.addProperty("id", id);
+            json.addProperty("model", modelId);
+            json.addProperty("startedAt", startedAt);
+            json.addProperty("durationMs", durationMillis);
+            json.addProperty("status", status);
+            if (error != null) {
+                json.addProperty("error", error);
+            }
+            json.add("request", request);
+            JsonArray events = new JsonArray();
+            for (int i = 0; i < lines.size(); i++) {
+                JsonArray event = new JsonArray();
+                event.add(lineOffsets.get(i));
+                event.add(lines.get(i));
+                events.add(event);
+            }
+            json.add("events", events);
+            return json;
+        }
+
+        private static Trace fromJson(JsonObject json) {
+            Trace trace = new Trace(null, json.get("id").getAsString(), json.get("model").getAsString(),
+                    json.get("startedAt").getAsLong(), json.getAsJsonObject("request"));
+            trace.durationMillis = json.get("durationMs").getAsLong();
+            trace.status = json.get("status").getAsInt();
+            trace.error = json.has("error") ? json.get("error").getAsString() : null;
+            for (JsonElement event : json.getAsJsonArray("events")) {
+                trace.lineOffsets.add(event.getAsJsonArray().get(0).getAsLong());
+                trace.lines.add(event.getAsJsonArray().get(1).getAsString());
+            }
+            return trace;
+        }
+    }
+}
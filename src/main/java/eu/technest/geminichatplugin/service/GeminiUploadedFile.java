@@ -0,0 +1,23 @@
+package eu.technest.geminichatplugin.service;
+
+/**
+ * A file uploaded through the Files API, keyed by the SHA-256 of its content and the uploading API key.
+ * Public fields and a no-arg constructor are required by the XML serializer, which persists the upload cache.
+ */
+public class GeminiUploadedFile {
+    public String cacheKey = ""; // Content SHA-256 @ API key id
+    public String name = ""; // Resource name, e.g. files/abc-123
+    public String uri = "";
+    public String mimeType = "";
+    public String displayName = "";
+    public long sizeBytes = 0L;
+    public long uploadedAt = 0L;
+    public long expiresAt = 0L; // The API deletes uploaded files after about 48 hours
+
+    public GeminiUploadedFile() {
+    }
+
+    public boolean isExpired(long now, long marginMillis) {
+        return expiresAt - marginMillis <= now;
+    }
+}
@@ -0,0 +1,81 @@
+package eu.technest.geminichatplugin.service;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.PersistentStateComponent;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.components.State;
+import com.intellij.openapi.components.Storage;
+import org.jetbrains.annotations.NotNull;
+
+import java.time.LocalDate;
+
+/**
+ * Today's token usage of all projects, kept across IDE restarts and reset at midnight. Fed by
+ * {@link Recorder}, which is registered as an application listener of {@link GeminiRequestListener#TOPIC}.
+ */
+@Service
+@State(
+        name = "eu.technest.geminichatplugin.service.GeminiUsageStatistics",
+        storages = @Storage("GeminiChatPluginUsage.xml")
+)
+public final class GeminiUsageStatistics implements PersistentStateComponent<GeminiUsageStatistics.UsageState> {
+
+    public static class UsageState {
+        public String day = ""; // ISO date the counters belong to
+        public long requests = 0;
+        public long promptTokens = 0;
+        public long outputTokens = 0;
+    }
+
+    private UsageState state = new UsageState(); // Guarded by this
+
+    public static final class Recorder implements GeminiRequestListener {
+        @Override
+        public void requestCompleted(long requestId, int promptTokens, int outputTokens, long durationMillis) {
+            getInstance().record(Math.max(0, promptTokens), Math.max(0, outputTokens));
+        }
+    }
+
+    public static GeminiUsageStatistics getInstance() {
+        return ApplicationManager.getApplication().getService(GeminiUsageStatistics.class);
+    }
+
+    @Override
+    public UsageState getState() {
+        return getToday();
+    }
+
+    @Override
+    public synchronized void loadState(@NotNull UsageState state) {
+        this.state = state;
+        rollOver();
+    }
+
+    public synchronized void record(int promptTokens, int outputTokens) {
+        rollOver();
+        state.requests++;
+        state.promptTokens += promptTokens;
+        state.outputTokens += outputTokens;
+    }
+
+    /**
+     * A copy of today's counters.
+     */
+    public synchronized UsageState getToday() {
+        rollOver();
+        UsageState copy = new UsageState();
+        copy.day = state.day;
+        copy.requests = state.requests;
+        copy.promptTokens = state.promptTokens;
+        copy.outputTokens = state.outputTokens;
+        return copy;
+    }
+
+    private void rollOver() {
+        String today = LocalDate.now().toString();
+        if (!today.equals(state.day)) {
+            state = new UsageState();
+            state.day = today;
+        }
+    }
+}
@@ -0,0 +1,130 @@
+package eu.technest.geminichatplugin.service;
+
+import com.intellij.openapi.diagnostic.Logger;
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * One request that may be sent twice: if the first byte has not arrived after the hedge delay, a duplicate goes
+ * out on a separate connection pool, the first response to arrive wins and the other call is cancelled.
+ * Time to first byte of the winning call is recorded in the {@link RequestLatencyTracker}.
+ */
+final class HedgedCall {
+    private static final Logger LOG = Logger.getInstance(HedgedCall.class);
+
+    private final Request request;
+    private final RequestLatencyTracker latencyTracker;
+    private final String latencyKey;
+    private final CompletableFuture<Response> winner = new CompletableFuture<>();
+    private final List<Call> calls = new ArrayList<>(); // Guarded by this
+    private int pendingCalls = 0; // Guarded by this
+    private Call hedgeCall; // Guarded by this
+
+    HedgedCall(Request request, RequestLatencyTracker latencyTracker, String latencyKey) {
+        this.request = request;
+        this.latencyTracker = latencyTracker;
+        this.latencyKey = latencyKey;
+    }
+
+    /**
+     * Blocks until the first response (headers) arrives; the caller owns and closes it.
+     * @param hedgeClient client with its own connection pool, or null to never hedge
+     * @param hedgeDelayMs wait before hedging, negative to never hedge
+     */
+    Response execute(@NotNull OkHttpClient primaryClient, @Nullable OkHttpClient hedgeClient, long hedgeDelayMs) throws IOException {
+        enqueue(primaryClient.newCall(request), false);
+        try {
+            if (hedgeClient != null && hedgeDelayMs >= 0) {
+                try {
+                    return winner.get(hedgeDelayMs, TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    LOG.info("No first byte after " + hedgeDelayMs + " ms (p95 of " + latencyKey + "), sending a hedged request");
+                    enqueue(hedgeClient.newCall(request), true);
+                }
+            }
+            return winner.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            if (!winner.cancel(false) && !winner.isCompletedExceptionally()) {
+                winner.getNow(null).close(); // Arrived just now, nobody will read it
+            }
+            cancelAllBut(null);
+            throw new InterruptedIOException("Interrupted while waiting for the response");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException) {
+                throw (IOException) e.getCause();
+            }
+            throw new IOException(e.getCause());
+        }
+    }
+
+    private void enqueue(Call call, boolean hedge) {
+        synchronized (this) {
+            if (winner.isDone()) {
+                return; // Answered while the hedge was being prepared
+            }
+            calls.add(call);
+            pendingCalls++;
+            if (hedge) {
+                hedgeCall = call;
+            }
+        }
+        long startedAt = System.nanoTime();
+        call.enqueue(new Callback() {
+            @Override
+            public void onResponse(@NotNull Call call, @NotNull Response response) {
+                if (!winner.complete(response)) {
+                    response.close(); // The other call was faster
+                    return;
+                }
+                latencyTracker.recordFirstByte(latencyKey, (System.nanoTime() - startedAt) / 1_000_000);
+                boolean hedged;
+                synchronized (HedgedCall.this) {
+                    hedged = hedgeCall != null;
+                }
+                if (hedged) {
+                    latencyTracker.hedged(hedge);
+                }
+                cancelAllBut(call);
+            }
+
+            @Override
+            public void onFailure(@NotNull Call call, @NotNull IOException e) {
+                boolean lastPending;
+                synchronized (HedgedCall.this) {
+                    lastPending = --pendingCalls == 0;
+                }
+                // One failed call is fine while another can still answer
+                if (lastPending) {
+                    winner.completeExceptionally(e);
+                }
+            }
+        });
+    }
+
+    private void cancelAllBut(@Nullable Call keep) {
+        List<Call> toCancel;
+        synchronized (this) {
+            toCancel = new ArrayList<>(calls);
+        }
+        for (Call call : toCancel) {
+            if (call != keep) {
+                call.cancel();
+            }
+        }
+    }
+}
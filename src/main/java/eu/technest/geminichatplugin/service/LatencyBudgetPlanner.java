@@ -0,0 +1,137 @@
+package eu.technest.geminichatplugin.service;
+
+import com.google.gson.JsonObject;
+import eu.technest.geminichatplugin.settings.GeminiModelInfo;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Fits chat requests into a latency budget. From the measured wait for the first text and output rate of each
+ * model it predicts how many output tokens fit into the budget, caps {@code maxOutputTokens} accordingly and,
+ * if the selected model cannot produce a useful answer in time, switches to the measured model that can say the
+ * most. Until a model is measured, conservative defaults stand in for it. Models whose thinking cannot be limited
+ * are never capped: their thinking could use up the whole allowance and leave no answer.
+ */
+public final class LatencyBudgetPlanner {
+    private static final long DEFAULT_FIRST_TEXT_MS = 1_500;
+    private static final double DEFAULT_MILLIS_PER_OUTPUT_TOKEN = 10; // ~100 tokens/s
+    private static final int MIN_ANSWER_TOKENS = 256; // Never capped below, and below this a faster model is preferred
+    private static final int PRO_MIN_THINKING_BUDGET = 128; // Pro models cannot switch thinking off
+    private static final int NO_THINKING = -1;
+    private static final int UNCONTROLLED_THINKING = -2;
+
+    private final RequestLatencyTracker latencyTracker;
+    private final GeminiModelCatalogService modelCatalog;
+
+    public static final class Plan {
+        public final String modelId;
+        public final int maxOutputTokens; // Thinking plus answer, -1 if not capped
+        public final long predictedMillis; // -1 if not capped
+        public final long budgetMillis;
+        private final int thinkingBudget;
+        private final int answerTokens; // Affordable answer tokens before the floor
+
+        Plan(String modelId, int maxOutputTokens, int thinkingBudget, int answerTokens, long predictedMillis, long budgetMillis) {
+            this.modelId = modelId;
+            this.maxOutputTokens = maxOutputTokens;
+            this.thinkingBudget = thinkingBudget;
+            this.answerTokens = answerTokens;
+            this.predictedMillis = predictedMillis;
+            this.budgetMillis = budgetMillis;
+        }
+
+        public boolean isCapped() {
+            return maxOutputTokens >= 0;
+        }
+
+        /**
+         * The generationConfig of the request, or null to send none. Thinking tokens count against
+         * maxOutputTokens, so thinking is switched off where the model allows it and kept to the minimum otherwise.
+         */
+        @Nullable
+        public JsonObject toGenerationConfig() {
+            if (!isCapped()) {
+                return null;
+            }
+            JsonObject config = new JsonObject();
+            config.addProperty("maxOutputTokens", maxOutputTokens);
+            if (thinkingBudget >= 0) {
+                JsonObject thinkingConfig = new JsonObject();
+                thinkingConfig.addProperty("thinkingBudget", thinkingBudget);
+                config.add("thinkingConfig", thinkingConfig);
+            }
+            return config;
+        }
+
+        public boolean isMet(long elapsedMillis) {
+            return elapsedMillis <= budgetMillis;
+        }
+    }
+
+    public LatencyBudgetPlanner(@NotNull RequestLatencyTracker latencyTracker, @NotNull GeminiModelCatalogService modelCatalog) {
+        this.latencyTracker = latencyTracker;
+        this.modelCatalog = modelCatalog;
+    }
+
+    @NotNull
+    public Plan plan(long budgetMillis, @NotNull String selectedModelId, int payloadChars) {
+        Plan selected = planFor(selectedModelId, budgetMillis, payloadChars);
+        if (!selected.isCapped() || selected.answerTokens >= MIN_ANSWER_TOKENS) {
+            return selected;
+        }
+        // Only measured models compete, a guess must not replace the user's choice. The history was trimmed to the
+        // selected model's input limit, so only models that take at least as much can answer it
+        int inputTokenLimit = modelCatalog.getInputTokenLimit(selectedModelId);
+        List<Plan> candidates = new ArrayList<>();
+        for (String modelId : modelCatalog.getChatModelIds()) {
+            if (!modelId.equals(selectedModelId) && latencyTracker.getMillisPerOutputToken(modelId) > 0
+                    && modelCatalog.getInputTokenLimit(modelId) >= inputTokenLimit) {
+                candidates.add(planFor(modelId, budgetMillis, payloadChars));
+            }
+        }
+        Plan best = selected;
+        for (Plan candidate : candidates) {
+            if (candidate.isCapped() && candidate.answerTokens > best.answerTokens) {
+                best = candidate;
+            }
+        }
+        return best;
+    }
+
+    private Plan planFor(String modelId, long budgetMillis, int payloadChars) {
+        int thinkingBudget = thinkingBudget(modelId);
+        if (thinkingBudget == UNCONTROLLED_THINKING) {
+            return new Plan(modelId, -1, NO_THINKING, -1, -1, budgetMillis);
+        }
+        long firstText = latencyTracker.getFirstTextMillis(modelId, payloadChars);
+        if (firstText < 0) {
+            firstText = DEFAULT_FIRST_TEXT_MS;
+        }
+        double perToken = latencyTracker.getMillisPerOutputToken(modelId);
+        if (perToken <= 0) {
+            perToken = DEFAULT_MILLIS_PER_OUTPUT_TOKEN;
+        }
+        int thinkingTokens = Math.max(0, thinkingBudget);
+        int answerTokens = (int) Math.max(0, Math.min(Integer.MAX_VALUE, (long) ((budgetMillis - firstText) / perToken) - thinkingTokens));
+        int maxOutputTokens = Math.min(modelCatalog.getOutputTokenLimit(modelId), thinkingTokens + Math.max(MIN_ANSWER_TOKENS, answerTokens));
+        return new Plan(modelId, maxOutputTokens, thinkingBudget, answerTokens, firstText + Math.round(maxOutputTokens * perToken), budgetMillis);
+    }
+
+    /**
+     * The thinking budget to request: 0 to switch thinking off, the minimum for pro models, {@link #NO_THINKING}
+     * for models that do not think, or {@link #UNCONTROLLED_THINKING}.
+     */
+    private int thinkingBudget(String modelId) {
+        if (modelId.contains("2.5-flash")) {
+            return 0;
+        }
+        if (modelId.contains("2.5-pro")) {
+            return PRO_MIN_THINKING_BUDGET;
+        }
+        GeminiModelInfo model = modelCatalog.getModel(modelId);
+        return model != null && model.thinking ? UNCONTROLLED_THINKING : NO_THINKING;
+    }
+}
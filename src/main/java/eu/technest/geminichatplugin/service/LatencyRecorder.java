@@ -0,0 +1,51 @@
+package eu.technest.geminichatplugin.service;
+
+import java.util.Arrays;
+
+/**
+ * Keeps the most recent latency samples in a ring buffer and answers percentile queries over them.
+ * Thread-safe; recording is O(1), percentile queries sort a copy of the window.
+ */
+public final class LatencyRecorder {
+    private final long[] samples;
+    private int next = 0;
+    private int size = 0;
+    private long totalCount = 0;
+
+    public LatencyRecorder(int windowSize) {
+        this.samples = new long[windowSize];
+    }
+
+    public synchronized void recordMillis(long millis) {
+        samples[next] = millis;
+        next = (next + 1) % samples.length;
+        size = Math.min(size + 1, samples.length);
+        totalCount++;
+    }
+
+    /**
+     * @param percentile between 0 and 100, e.g. 95 for p95
+     * @return the percentile over the current window, or -1 if nothing was recorded yet
+     */
+    public synchronized long getPercentile(double percentile) {
+        if (size == 0) {
+            return -1;
+        }
+        long[] sorted = Arrays.copyOf(samples, size);
+        Arrays.sort(sorted);
+        int index = (int) Math.ceil(percentile / 100.0 * size) - 1;
+        return sorted[Math.max(0, Math.min(size - 1, index))];
+    }
+
+    public synchronized int getWindowCount() {
+        return size;
+    }
+
+    public synchronized long getTotalCount() {
+        return totalCount;
+    }
+
+    public String describe() {
+        return String.format("p50 %d ms, p95 %d ms over %d samples", getPercentile(50), getPercentile(95), getWindowCount());
+    }
+}
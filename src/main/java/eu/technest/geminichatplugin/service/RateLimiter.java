@@ -0,0 +1,37 @@
+package eu.technest.geminichatplugin.service;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Evenly spaces requests so that no more than {@code permitsPerMinute} start within a minute.
+ * Thread-safe; callers block in {@link #acquire()} until their slot comes up.
+ */
+public final class RateLimiter {
+    private final long intervalNanos;
+    private long nextFreeSlotNanos = System.nanoTime();
+
+    public RateLimiter(int permitsPerMinute) {
+        this.intervalNanos = TimeUnit.MINUTES.toNanos(1) / Math.max(1, permitsPerMinute);
+    }
+
+    public void acquire() throws InterruptedException {
+        long waitNanos = reserve();
+        if (waitNanos > 0) {
+            TimeUnit.NANOSECONDS.sleep(waitNanos);
+        }
+    }
+
+    /**
+     * Pushes all future slots back, e.g. after the server answered with HTTP 429.
+     */
+    public synchronized void backOff(long delayMillis) {
+        nextFreeSlotNanos = Math.max(nextFreeSlotNanos, System.nanoTime()) + TimeUnit.MILLISECONDS.toNanos(delayMillis);
+    }
+
+    private synchronized long reserve() {
+        long now = System.nanoTime();
+        long slot = Math.max(now, nextFreeSlotNanos);
+        nextFreeSlotNanos = slot + intervalNanos;
+        return slot - now;
+    }
+}
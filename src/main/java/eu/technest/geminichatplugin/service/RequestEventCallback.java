@@ -0,0 +1,79 @@
+package eu.technest.geminichatplugin.service;
+
+import com.google.gson.JsonObject;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Passes a request's callbacks through and publishes its lifecycle to a {@link GeminiRequestListener}.
+ * Completion is published before the wrapped callback runs, which may already send the next request.
+ */
+final class RequestEventCallback implements GeminiApiService.GeminiApiResponseCallback {
+    private static final AtomicLong NEXT_REQUEST_ID = new AtomicLong();
+
+    private final GeminiApiService.GeminiApiResponseCallback delegate;
+    private final GeminiRequestListener listener;
+    private final long requestId = NEXT_REQUEST_ID.incrementAndGet();
+    private final long startedAt = System.nanoTime();
+    private boolean firstToken = true;
+    private boolean finished = false;
+    private int promptTokens = -1;
+    private int outputTokens = -1;
+
+    RequestEventCallback(GeminiApiService.GeminiApiResponseCallback delegate, GeminiRequestListener listener, String modelId) {
+        this.delegate = delegate;
+        this.listener = listener;
+        listener.requestStarted(requestId, modelId);
+    }
+
+    @Override
+    public void onPartialResponse(String textDelta) {
+        if (firstToken) {
+            firstToken = false;
+            listener.firstToken(requestId, elapsedMillis());
+        }
+        listener.textReceived(requestId, TokenEstimator.estimate(textDelta));
+        delegate.onPartialResponse(textDelta);
+    }
+
+    @Override
+    public void onUsage(int promptTokens, int outputTokens) {
+        this.promptTokens = promptTokens;
+        this.outputTokens = outputTokens;
+        delegate.onUsage(promptTokens, outputTokens);
+    }
+
+    @Override
+    public void onHttpError(int statusCode) {
+        delegate.onHttpError(statusCode);
+    }
+
+    @Override
+    public void onNetworkError(IOException error) {
+        delegate.onNetworkError(error);
+    }
+
+    @Override
+    public void onSuccess(String geminiResponse, JsonObject modelContent) {
+        if (!finished) {
+            finished = true;
+            listener.requestCompleted(requestId, promptTokens,
+                    outputTokens >= 0 ? outputTokens : TokenEstimator.estimate(geminiResponse), elapsedMillis());
+        }
+        delegate.onSuccess(geminiResponse, modelContent);
+    }
+
+    @Override
+    public void onFailure(String errorMessage, String detailedError) {
+        if (!finished) {
+            finished = true;
+            listener.requestFailed(requestId, errorMessage);
+        }
+        delegate.onFailure(errorMessage, detailedError);
+    }
+
+    private long elapsedMillis() {
+        return (System.nanoTime() - startedAt) / 1_000_000;
+    }
+}
@@ -0,0 +1,116 @@
+package eu.technest.geminichatplugin.service;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rolling time-to-first-byte histograms per model and prompt size, from which read timeouts and the hedging
+ * delay are derived. Until a key has enough samples the fixed defaults apply and no request is hedged.
+ * Thread-safe.
+ */
+public final class RequestLatencyTracker {
+    static final long DEFAULT_READ_TIMEOUT_MS = 90_000;
+    private static final int WINDOW_SIZE = 200;
+    private static final int MIN_SAMPLES = 20;
+    private static final long MIN_READ_TIMEOUT_MS = 15_000;
+    private static final int READ_TIMEOUT_P99_FACTOR = 4; // Headroom over the slowest normal answers
+    private static final long MIN_HEDGE_DELAY_MS = 1_000;
+    private static final int SMALL_PROMPT_CHARS = 8_000;
+    private static final int MEDIUM_PROMPT_CHARS = 64_000;
+
+    private static final double OUTPUT_RATE_SMOOTHING = 0.2; // Weight of the newest sample
+    private static final int MIN_OUTPUT_TOKENS_SAMPLE = 20; // Shorter answers say little about the output rate
+
+    private final Map<String, LatencyRecorder> firstByteLatency = new ConcurrentHashMap<>();
+    private final Map<String, LatencyRecorder> firstTextLatency = new ConcurrentHashMap<>(); // Streamed answers
+    private final Map<String, Double> millisPerOutputToken = new ConcurrentHashMap<>(); // Smoothed, per model
+    private final AtomicLong hedgedRequests = new AtomicLong();
+    private final AtomicLong hedgeWins = new AtomicLong();
+
+    /**
+     * Histogram key of a request: larger prompts take longer to the first byte, so they are tracked apart, and so
+     * are streamed requests, whose headers arrive before the answer is generated, from blocking ones.
+     */
+    public static String key(String modelId, int payloadChars, boolean streaming) {
+        String size = payloadChars < SMALL_PROMPT_CHARS ? "small" : payloadChars < MEDIUM_PROMPT_CHARS ? "medium" : "large";
+        return modelId + '/' + size + (streaming ? "/stream" : "/blocking");
+    }
+
+    void recordFirstByte(String key, long millis) {
+        firstByteLatency.computeIfAbsent(key, k -> new LatencyRecorder(WINDOW_SIZE)).recordMillis(millis);
+    }
+
+    /**
+     * Read timeout for a request until its response headers arrive: a multiple of the observed p99, so a stalled
+     * connection fails long before the fixed default, but never below {@link #MIN_READ_TIMEOUT_MS}.
+     */
+    long getReadTimeoutMillis(String key) {
+        LatencyRecorder recorder = firstByteLatency.get(key);
+        if (recorder == null || recorder.getWindowCount() < MIN_SAMPLES) {
+            return DEFAULT_READ_TIMEOUT_MS;
+        }
+        long adaptive = recorder.getPercentile(99) * READ_TIMEOUT_P99_FACTOR;
+        return Math.max(MIN_READ_TIMEOUT_MS, Math.min(DEFAULT_READ_TIMEOUT_MS, adaptive));
+    }
+
+    /**
+     * How long to wait for the first byte before sending a duplicate request: the observed p95.
+     * @return -1 if there are too few samples to tell a slow request from a normal one
+     */
+    long getHedgeDelayMillis(String key) {
+        LatencyRecorder recorder = firstByteLatency.get(key);
+        if (recorder == null || recorder.getWindowCount() < MIN_SAMPLES) {
+            return -1;
+        }
+        return Math.max(MIN_HEDGE_DELAY_MS, recorder.getPercentile(95));
+    }
+
+    /**
+     * Records a completed streamed answer: the wait for its first text and the rate at which the rest arrived.
+     */
+    void recordGeneration(String modelId, int payloadChars, long firstTextMillis, int outputTokens, long generationMillis) {
+        firstTextLatency.computeIfAbsent(key(modelId, payloadChars, true), k -> new LatencyRecorder(WINDOW_SIZE)).recordMillis(firstTextMillis);
+        if (outputTokens >= MIN_OUTPUT_TOKENS_SAMPLE) {
+            double sample = (double) generationMillis / outputTokens;
+            millisPerOutputToken.merge(modelId, sample,
+                    (previous, latest) -> OUTPUT_RATE_SMOOTHING * latest + (1 - OUTPUT_RATE_SMOOTHING) * previous);
+        }
+    }
+
+    /**
+     * Median wait for the first text of a streamed answer, or -1 if the model and prompt size were not measured.
+     */
+    public long getFirstTextMillis(String modelId, int payloadChars) {
+        LatencyRecorder recorder = firstTextLatency.get(key(modelId, payloadChars, true));
+        return recorder == null ? -1 : recorder.getPercentile(50);
+    }
+
+    /**
+     * Smoothed time per output token once the first text arrived, or -1 if the model was not measured.
+     */
+    public double getMillisPerOutputToken(String modelId) {
+        return millisPerOutputToken.getOrDefault(modelId, -1.0);
+    }
+
+    void hedged(boolean hedgeWon) {
+        hedgedRequests.incrementAndGet();
+        if (hedgeWon) {
+            hedgeWins.incrementAndGet();
+        }
+    }
+
+    public long getHedgedRequests() {
+        return hedgedRequests.get();
+    }
+
+    public String describe() {
+        StringBuilder text = new StringBuilder();
+        firstByteLatency.forEach((key, recorder) -> text.append(text.length() == 0 ? "" : "; ")
+                .append(key).append(": ").append(recorder.describe()));
+        if (text.length() == 0) {
+            return "No requests measured yet";
+        }
+        return text + String.format("; %d hedged, %d won by the hedge", hedgedRequests.get(), hedgeWins.get());
+    }
+}
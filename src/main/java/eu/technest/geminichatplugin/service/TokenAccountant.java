@@ -0,0 +1,123 @@
+package eu.technest.geminichatplugin.service;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.containers.CollectionFactory;
+
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Token accounting for one conversation. History entries are estimated once and cached by identity
+ * (entries are never mutated after they are added to a history), weakly, so entries spilled, trimmed or cleared
+ * from the conversation do not stay reachable through the cache. Exact counts from the countTokens endpoint are
+ * only requested when the estimate comes close to the model's input limit.
+ */
+public final class TokenAccountant {
+    private static final Logger LOG = Logger.getInstance(TokenAccountant.class);
+
+    private static final double EXACT_COUNT_THRESHOLD = 0.8; // Fraction of the input limit
+    private static final long MIN_EXACT_COUNT_INTERVAL_MS = 2_000;
+
+    private final Map<JsonObject, Integer> entryEstimates = CollectionFactory.createConcurrentWeakIdentityMap();
+    private final Object exactCountLock = new Object();
+    private int lastExactCountKey;
+    private int lastExactCount = -1;
+    private long lastExactCountAt;
+
+    public static final class TokenCount {
+        public final int tokens;
+        public final int limit;
+        public final boolean exact;
+        public final long retryAfterMillis; // When to count again for an exact count held back by the rate limit, 0 if none
+
+        TokenCount(int tokens, int limit, boolean exact) {
+            this(tokens, limit, exact, 0);
+        }
+
+        TokenCount(int tokens, int limit, boolean exact, long retryAfterMillis) {
+            this.tokens = tokens;
+            this.limit = limit;
+            this.exact = exact;
+            this.retryAfterMillis = retryAfterMillis;
+        }
+
+        public boolean isOverLimit() {
+            return tokens > limit;
+        }
+    }
+
+    public int estimateEntry(JsonObject entry) {
+        Integer cached = entryEstimates.get(entry);
+        if (cached != null) {
+            return cached;
+        }
+        int estimate = TokenEstimator.estimate(entry);
+        entryEstimates.put(entry, estimate);
+        return estimate;
+    }
+
+    public int estimate(List<JsonObject> history, String input) {
+        int tokens = TokenEstimator.estimate(input);
+        for (JsonObject entry : history) {
+            tokens += estimateEntry(entry);
+        }
+        return tokens;
+    }
+
+    /**
+     * Estimates the request size locally and replaces the estimate by an exact count when it is within
+     * 80% of the model's input limit. Blocking, call from a background thread. If the exact count is held back
+     * because the last one is too recent, the result says when to call again.
+     */
+    public TokenCount count(String apiKey, String modelId, List<JsonObject> history, String input) {
+        int limit = GeminiModelCatalogService.getInstance().getInputTokenLimit(modelId);
+        int estimate = estimate(history, input);
+        if (estimate < limit * EXACT_COUNT_THRESHOLD || apiKey == null || apiKey.trim().isEmpty()) {
+            return new TokenCount(estimate, limit, false);
+        }
+
+        int key = 31 * (31 * System.identityHashCode(history.isEmpty() ? null : history.get(history.size() - 1)) + history.size()) + input.hashCode();
+        synchronized (exactCountLock) {
+            long now = System.currentTimeMillis();
+            if (key == lastExactCountKey && lastExactCount >= 0) {
+                return new TokenCount(lastExactCount, limit, true);
+            }
+            if (now - lastExactCountAt < MIN_EXACT_COUNT_INTERVAL_MS) {
+                // Still typing, keep the estimate for now and count once the interval has passed
+                return new TokenCount(estimate, limit, false, lastExactCountAt + MIN_EXACT_COUNT_INTERVAL_MS - now);
+            }
+            lastExactCountAt = now;
+        }
+
+        JsonArray contents = new JsonArray();
+        history.forEach(contents::add);
+        JsonObject userPart = new JsonObject();
+        userPart.addProperty("text", input);
+        JsonArray userParts = new JsonArray();
+        userParts.add(userPart);
+        JsonObject userContent = new JsonObject();
+        userContent.addProperty("role", "user");
+        userContent.add("parts", userParts);
+        contents.add(userContent);
+
+        int exact = GeminiApiService.getInstance().countTokens(apiKey, modelId, contents);
+        if (exact < 0) {
+            return new TokenCount(estimate, limit, false);
+        }
+        LOG.debug("Token estimate " + estimate + " vs exact count " + exact + " for " + modelId);
+        synchronized (exactCountLock) {
+            lastExactCountKey = key;
+            lastExactCount = exact;
+        }
+        return new TokenCount(exact, limit, true);
+    }
+
+    public void clear() {
+        entryEstimates.clear();
+        synchronized (exactCountLock) {
+            lastExactCount = -1;
+        }
+    }
+}
@@ -0,0 +1,82 @@
+package eu.technest.geminichatplugin.service;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+
+/**
+ * Fast local approximation of Gemini's tokenizer. Short words count as one token, longer words and
+ * identifiers as roughly one token per four characters, punctuation and line breaks as one token each,
+ * and CJK ideographs as one token per character. Good enough for budgeting; exact counts come from
+ * the countTokens endpoint.
+ */
+public final class TokenEstimator {
+    private static final int TOKENS_PER_TURN = 4; // Role and turn delimiters
+    private static final int TOKENS_PER_NON_TEXT_PART = 258; // Files and inline data, as counted for images
+
+    private TokenEstimator() {
+    }
+
+    public static int estimate(CharSequence text) {
+        if (text == null) {
+            return 0;
+        }
+        int tokens = 0;
+        int wordLength = 0;
+        boolean inSpaceRun = false;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetterOrDigit(c) && !isIdeograph(c)) {
+                wordLength++;
+                inSpaceRun = false;
+                continue;
+            }
+            tokens += wordTokens(wordLength);
+            wordLength = 0;
+            if (c == ' ' || c == '\t') {
+                // A single space is merged into the next word; indentation runs cost about one token
+                if (inSpaceRun) continue;
+                inSpaceRun = i + 1 < text.length() && (text.charAt(i + 1) == ' ' || text.charAt(i + 1) == '\t');
+                if (inSpaceRun) tokens++;
+            } else {
+                inSpaceRun = false;
+                tokens++; // Punctuation, line breaks and ideographs
+            }
+        }
+        return tokens + wordTokens(wordLength);
+    }
+
+    /**
+     * Estimates a {@code contents} entry ({@code role} + {@code parts}).
+     */
+    public static int estimate(JsonObject content) {
+        int tokens = TOKENS_PER_TURN;
+        JsonArray parts = content.getAsJsonArray("parts");
+        if (parts == null) {
+            return tokens;
+        }
+        for (JsonElement partElement : parts) {
+            JsonObject part = partElement.getAsJsonObject();
+            if (part.has("text")) {
+                tokens += estimate(part.get("text").getAsString());
+            } else if (part.has("functionCall") || part.has("functionResponse")) {
+                tokens += estimate(part.toString()); // Tool results can be whole files
+            } else {
+                tokens += TOKENS_PER_NON_TEXT_PART;
+            }
+        }
+        return tokens;
+    }
+
+    private static int wordTokens(int length) {
+        if (length == 0) return 0;
+        return length <= 6 ? 1 : (length + 3) / 4;
+    }
+
+    private static boolean isIdeograph(char c) {
+        return Character.isIdeographic(c)
+                || Character.UnicodeBlock.of(c) == Character.UnicodeBlock.HIRAGANA
+                || Character.UnicodeBlock.of(c) == Character.UnicodeBlock.KATAKANA
+                || Character.UnicodeBlock.of(c) == Character.UnicodeBlock.HANGUL_SYLLABLES;
+    }
+}
@@ -0,0 +1,30 @@
+package eu.technest.geminichatplugin.settings;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Metadata of a single Gemini model as returned by the models endpoint.
+ * Public fields and the no-arg constructor are required by the XML serializer of {@link GeminiSettingsState}.
+ */
+public class GeminiModelInfo {
+    public String id = ""; // Model id without the "models/" prefix, e.g. "gemini-1.5-flash-latest"
+    public String displayName = "";
+    public String description = "";
+    public int inputTokenLimit = 0;
+    public int outputTokenLimit = 0;
+    public boolean thinking = false; // Thinks before answering; the thinking tokens count as output
+    public List<String> supportedGenerationMethods = new ArrayList<>();
+
+    public GeminiModelInfo() {
+    }
+
+    public boolean supports(String generationMethod) {
+        return supportedGenerationMethods != null && supportedGenerationMethods.contains(generationMethod);
+    }
+
+    @Override
+    public String toString() {
+        return id + " (in: " + inputTokenLimit + ", out: " + outputTokenLimit + ")";
+    }
+}
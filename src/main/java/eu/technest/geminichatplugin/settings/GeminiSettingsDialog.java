@@ -10,11 +10,19 @@ import com.intellij.openapi.ui.ComboBox;
 import com.intellij.openapi.ui.DialogWrapper;
 import com.intellij.openapi.ui.Messages;
 import com.intellij.ui.AnimatedIcon;
+import com.intellij.ui.components.JBCheckBox;
 import com.intellij.ui.components.JBLabel;
 import com.intellij.ui.components.JBTextField;
 import com.intellij.util.ui.FormBuilder;
 import com.intellij.util.ui.JBUI;
+import com.intellij.util.ui.UIUtil;
+import eu.technest.geminichatplugin.completion.GeminiInlineCompletionManager;
 import eu.technest.geminichatplugin.service.GeminiApiService; // YOUR BASE PACKAGE
+import eu.technest.geminichatplugin.service.GeminiEndpointSelector;
+import eu.technest.geminichatplugin.service.GeminiModelCatalogService;
+import eu.technest.geminichatplugin.service.ChatMemoryGovernor;
+import eu.technest.geminichatplugin.service.LatencyRecorder;
+import eu.technest.geminichatplugin.toolwindow.ChatStartupProbe;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
@@ -38,19 +46,39 @@ public class GeminiSettingsDialog extends DialogWrapper {
     private final ComboBox<String> modelComboBox = new ComboBox<>();
     private final JButton refreshModelsButton = new JButton("Refresh Models");
     private final JBLabel loadingModelsLabel = new JBLabel("Fetching models...", new AnimatedIcon.Default(), SwingConstants.LEFT);
+    private final JBLabel modelLimitsLabel = new JBLabel();
+    private final JSpinner batchConcurrencySpinner = new JSpinner(new SpinnerNumberModel(4, 1, 32, 1));
+    private final JSpinner batchRequestsPerMinuteSpinner = new JSpinner(new SpinnerNumberModel(15, 1, 1000, 1));
+    private final JBCheckBox inlineCompletionCheckBox = new JBCheckBox("Enable inline code completion (Tab to accept)");
+    private final JBLabel completionLatencyLabel = new JBLabel();
+    private final JBTextField apiEndpointsField = new JBTextField();
+    private final JBLabel apiEndpointsLabel = new JBLabel();
+    private final JBCheckBox hedgeRequestsCheckBox = new JBCheckBox("Send a duplicate request when the first byte is slower than usual (p95)");
+    private final JBLabel requestLatencyLabel = new JBLabel();
+    private final JBCheckBox traceRecordingCheckBox = new JBCheckBox("Record streamed requests (redacted) and answers to the IDE log directory for replay");
+    private final JBCheckBox toolsCheckBox = new JBCheckBox("Let the chat read and search project files (function calling)");
+    private final JSpinner latencyBudgetSpinner = new JSpinner(new SpinnerNumberModel(0, 0, 120, 1));
+    private final JSpinner chatMemoryBudgetSpinner = new JSpinner(new SpinnerNumberModel(64, 8, 4096, 8));
+    private final JBLabel chatMemoryLabel = new JBLabel();
+    private final JBLabel chatStartupLabel = new JBLabel();
 
     private final GeminiSettingsService settingsService = GeminiSettingsService.getInstance();
-    private final GeminiApiService apiService;
+    private final GeminiModelCatalogService catalogService = GeminiModelCatalogService.getInstance();
 
     private boolean isLoadingModels = false; // Explicit flag for loading state
 
     public GeminiSettingsDialog(@Nullable Project project) {
         super(project, true);
         this.project = project;
-        this.apiService = new GeminiApiService();
         setTitle("Gemini AI Settings");
         init();
         setupListeners();
+        // Background revalidation results arrive here while the dialog is open
+        catalogService.addListener(models -> {
+            if (!isLoadingModels) {
+                populateModelComboBoxInternal(catalogService.getChatModelIds(), (String) modelComboBox.getSelectedItem());
+            }
+        }, getDisposable());
         initializeUIStateAndFetchIfNeeded();
     }
 
@@ -62,6 +90,7 @@ public class GeminiSettingsDialog extends DialogWrapper {
             }
         });
         refreshModelsButton.addActionListener(e -> fetchModels(true, apiKeyField.getText().trim()));
+        modelComboBox.addActionListener(e -> updateModelLimitsLabel());
     }
 
     private void handleApiKeyChange() {
@@ -76,7 +105,7 @@ public class GeminiSettingsDialog extends DialogWrapper {
         } else {
             // API key entered. If no models loaded yet and not currently loading, try to fetch.
             if (modelComboBox.getItemCount() <= 1 && // <=1 because it might just have the default placeholder
-                    (settingsService.getAvailableModelIds() == null || settingsService.getAvailableModelIds().isEmpty()) &&
+                    catalogService.getChatModelIds().isEmpty() &&
                     !isLoadingModels) {
                 LOG.info("API key entered, and no models cached/displayed. Triggering fetch.");
                 fetchModels(false, currentApiKey);
@@ -84,6 +113,16 @@ public class GeminiSettingsDialog extends DialogWrapper {
         }
     }
 
+    private void updateModelLimitsLabel() {
+        GeminiModelInfo model = catalogService.getModel((String) modelComboBox.getSelectedItem());
+        if (model == null) {
+            modelLimitsLabel.setText(" ");
+            return;
+        }
+        modelLimitsLabel.setText(String.format("Input: %,d tokens, Output: %,d tokens", model.inputTokenLimit, model.outputTokenLimit));
+        modelLimitsLabel.setToolTipText(model.description.isEmpty() ? null : model.description);
+    }
+
     private String getDefaultModelId() {
         String selected = settingsService.getSelectedModelId();
         return (selected == null || selected.trim().isEmpty()) ? DEFAULT_MODEL_ID : selected;
@@ -93,9 +132,34 @@ public class GeminiSettingsDialog extends DialogWrapper {
         LOG.debug("initializeUIStateAndFetchIfNeeded called.");
         String apiKey = settingsService.getGeminiApiKey();
         apiKeyField.setText(apiKey);
+        batchConcurrencySpinner.setValue(settingsService.getBatchConcurrency());
+        batchRequestsPerMinuteSpinner.setValue(settingsService.getBatchRequestsPerMinute());
+        inlineCompletionCheckBox.setSelected(settingsService.isInlineCompletionEnabled());
+        LatencyRecorder completionLatency = GeminiInlineCompletionManager.getInstance().getLatencyRecorder();
+        completionLatencyLabel.setText(completionLatency.getWindowCount() == 0 ? " "
+                : "Keystroke to suggestion: " + completionLatency.describe());
+        completionLatencyLabel.setForeground(UIUtil.getContextHelpForeground());
+        apiEndpointsField.setText(String.join(", ", settingsService.getApiEndpoints()));
+        apiEndpointsField.getEmptyText().setText(GeminiEndpointSelector.DEFAULT_BASE_URL);
+        apiEndpointsField.setToolTipText("Comma-separated base URLs serving the Gemini API paths (v1beta/...); requests go to the fastest healthy one");
+        apiEndpointsLabel.setText(GeminiEndpointSelector.getInstance().describe());
+        apiEndpointsLabel.setForeground(UIUtil.getContextHelpForeground());
+        hedgeRequestsCheckBox.setSelected(settingsService.isHedgeRequestsEnabled());
+        requestLatencyLabel.setText("First byte: " + GeminiApiService.getInstance().getLatencyTracker().describe());
+        requestLatencyLabel.setForeground(UIUtil.getContextHelpForeground());
+        traceRecordingCheckBox.setSelected(settingsService.isTraceRecordingEnabled());
+        toolsCheckBox.setSelected(settingsService.isToolsEnabled());
+        latencyBudgetSpinner.setValue((int) (settingsService.getLatencyBudgetMillis() / 1000));
+        chatMemoryBudgetSpinner.setValue(settingsService.getChatMemoryBudgetMb());
+        chatMemoryLabel.setText(ChatMemoryGovernor.getInstance().describe());
+        chatMemoryLabel.setForeground(UIUtil.getContextHelpForeground());
+        LatencyRecorder chatStartup = ChatStartupProbe.getInstance().getLatencyRecorder();
+        chatStartupLabel.setText(chatStartup.getWindowCount() == 0 ? " "
+                : "Chat tab open to interactive: " + chatStartup.describe());
+        chatStartupLabel.setForeground(UIUtil.getContextHelpForeground());
         loadingModelsLabel.setVisible(false); // Ensure hidden initially
 
-        List<String> cachedModels = settingsService.getAvailableModelIds();
+        List<String> cachedModels = catalogService.getChatModelIds(); // Served instantly from the persisted catalog
         String selectedModelInSettings = getDefaultModelId(); // Use getter for robust default
 
         LOG.debug("Initial state - APIKey: '" + apiKey + "', CachedModels: " +
@@ -110,14 +174,16 @@ public class GeminiSettingsDialog extends DialogWrapper {
         }
         // updateRefreshAndModelControlsEnabledState will be called inside populateModelComboBoxInternal's invokeLater
 
-        // Decide if initial fetch is needed
+        // Decide if initial fetch is needed. A non-empty cache is always shown as-is; if it is stale it is
+        // revalidated in the background and the combo box is updated by the catalog listener.
         if (!apiKey.isEmpty()) {
-            boolean fetchNeeded = (cachedModels == null || cachedModels.isEmpty() || !cachedModels.contains(selectedModelInSettings));
+            boolean fetchNeeded = (cachedModels == null || cachedModels.isEmpty());
             if (fetchNeeded && !isLoadingModels) {
-                LOG.info("API key present, cache insufficient. Triggering initial silent model fetch.");
+                LOG.info("API key present, no cached models. Triggering initial silent model fetch.");
                 fetchModels(false, apiKey);
             } else if (!fetchNeeded) {
-                LOG.info("API key present, cache sufficient. No initial fetch needed.");
+                LOG.info("API key present, serving cached models. Stale: " + catalogService.isStale());
+                catalogService.revalidateIfStale(apiKey);
                 // Ensure UI is enabled if not fetching
                 ApplicationManager.getApplication().invokeLater(this::updateRefreshAndModelControlsEnabledState);
             }
@@ -185,11 +251,12 @@ public class GeminiSettingsDialog extends DialogWrapper {
             @Override
             public void run(@NotNull ProgressIndicator indicator) {
                 indicator.setIndeterminate(true);
-                apiService.listModels(apiKey, new GeminiApiService.ListModelsCallback() {
+                catalogService.refreshNow(apiKey, new GeminiApiService.ModelCatalogCallback() {
                     @Override
-                    public void onSuccess(List<String> fetchedModelIds) {
+                    public void onSuccess(List<GeminiModelInfo> fetchedModels) {
+                        // The catalog service has already persisted the models
+                        List<String> fetchedModelIds = catalogService.getChatModelIds();
                         LOG.info("Successfully fetched " + fetchedModelIds.size() + " models: " + fetchedModelIds);
-                        settingsService.setAvailableModelIds(fetchedModelIds);
 
                         ApplicationManager.getApplication().invokeLater(() -> { // Ensure all following UI updates on EDT
                             String modelToSelect = settingsService.getSelectedModelId(); // User's preferred model
@@ -217,7 +284,7 @@ public class GeminiSettingsDialog extends DialogWrapper {
                         LOG.warn("Failed to fetch models: " + errorMessage);
                         ApplicationManager.getApplication().invokeLater(() -> { // Ensure all following UI updates on EDT
                             // On failure, populate with CACHED models if available, else just the default.
-                            List<String> currentCache = settingsService.getAvailableModelIds();
+                            List<String> currentCache = catalogService.getChatModelIds();
                             String modelToSelect = settingsService.getSelectedModelId();
 
                             if (currentCache == null || currentCache.isEmpty()) {
@@ -295,11 +362,27 @@ public class GeminiSettingsDialog extends DialogWrapper {
         JPanel modelPanel = new JPanel(new BorderLayout(JBUI.scale(5), 0));
         modelPanel.add(modelComboBox, BorderLayout.CENTER);
         modelPanel.add(loadingModelsLabel, BorderLayout.EAST);
+        modelLimitsLabel.setForeground(UIUtil.getContextHelpForeground());
         loadingModelsLabel.setBorder(JBUI.Borders.emptyLeft(JBUI.scale(3)));
 
         return FormBuilder.createFormBuilder()
                 .addLabeledComponent(new JBLabel("Gemini API Key:"), apiKeyPanel, 1, false)
                 .addLabeledComponent(new JBLabel("Chat Model:"), modelPanel, 1, false)
+                .addComponentToRightColumn(modelLimitsLabel, 0)
+                .addLabeledComponent(new JBLabel("Batch parallel requests:"), batchConcurrencySpinner, 1, false)
+                .addLabeledComponent(new JBLabel("Batch requests per minute:"), batchRequestsPerMinuteSpinner, 1, false)
+                .addComponent(inlineCompletionCheckBox, 1)
+                .addComponentToRightColumn(completionLatencyLabel, 0)
+                .addLabeledComponent(new JBLabel("API endpoints:"), apiEndpointsField, 1, false)
+                .addComponentToRightColumn(apiEndpointsLabel, 0)
+                .addComponent(hedgeRequestsCheckBox, 1)
+                .addComponentToRightColumn(requestLatencyLabel, 0)
+                .addComponent(traceRecordingCheckBox, 1)
+                .addComponent(toolsCheckBox, 1)
+                .addLabeledComponent(new JBLabel("Answer latency budget (s, 0 = none):"), latencyBudgetSpinner, 1, false)
+                .addLabeledComponent(new JBLabel("Chat memory budget (MB):"), chatMemoryBudgetSpinner, 1, false)
+                .addComponentToRightColumn(chatMemoryLabel, 0)
+                .addComponentToRightColumn(chatStartupLabel, 0)
                 .addComponentFillVertically(new JPanel(), 0)
                 .getPanel();
     }
@@ -314,6 +397,22 @@ public class GeminiSettingsDialog extends DialogWrapper {
         } else {
             settingsService.setSelectedModelId(DEFAULT_MODEL_ID);
         }
+        settingsService.setBatchConcurrency((Integer) batchConcurrencySpinner.getValue());
+        settingsService.setBatchRequestsPerMinute((Integer) batchRequestsPerMinuteSpinner.getValue());
+        settingsService.setInlineCompletionEnabled(inlineCompletionCheckBox.isSelected());
+        List<String> endpoints = new ArrayList<>();
+        for (String endpoint : apiEndpointsField.getText().split(",")) {
+            if (!endpoint.trim().isEmpty()) {
+                endpoints.add(endpoint.trim());
+            }
+        }
+        settingsService.setApiEndpoints(endpoints);
+        settingsService.setHedgeRequestsEnabled(hedgeRequestsCheckBox.isSelected());
+        settingsService.setTraceRecordingEnabled(traceRecordingCheckBox.isSelected());
+        settingsService.setToolsEnabled(toolsCheckBox.isSelected());
+        settingsService.setLatencyBudgetSeconds((Integer) latencyBudgetSpinner.getValue());
+        settingsService.setChatMemoryBudgetMb((Integer) chatMemoryBudgetSpinner.getValue());
+        ChatMemoryGovernor.getInstance().footprintChanged(); // Enforce a lowered budget right away
         super.doOKAction();
     }
 }
\ No newline at end of file
@@ -9,6 +9,7 @@ import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 
 @State(
@@ -36,6 +37,9 @@ public class GeminiSettingsService implements PersistentStateComponent<GeminiSet
         if (myState.availableModelIds == null) {
             myState.availableModelIds = new ArrayList<>();
         }
+        if (myState.modelCatalog == null) {
+            myState.modelCatalog = new ArrayList<>();
+        }
         // Ensure a default model is set if selectedModelId is missing or empty after loading
         if (myState.selectedModelId == null || myState.selectedModelId.trim().isEmpty()) {
             myState.selectedModelId = DEFAULT_MODEL_ID;
@@ -75,4 +79,107 @@ public class GeminiSettingsService implements PersistentStateComponent<GeminiSet
     public void setAvailableModelIds(List<String> modelIds) {
         myState.availableModelIds = new ArrayList<>(modelIds); // Store a copy
     }
+
+    public List<GeminiModelInfo> getModelCatalog() {
+        if (myState.modelCatalog == null) {
+            myState.modelCatalog = new ArrayList<>();
+        }
+        return new ArrayList<>(myState.modelCatalog); // Return a copy
+    }
+
+    public long getModelCatalogFetchedAt() {
+        return myState.modelCatalogFetchedAt;
+    }
+
+    /**
+     * Stores the full model catalog and keeps the legacy {@code availableModelIds} list in sync
+     * with the models that support generateContent.
+     */
+    public void setModelCatalog(List<GeminiModelInfo> models, long fetchedAt) {
+        myState.modelCatalog = new ArrayList<>(models); // Store a copy
+        myState.modelCatalogFetchedAt = fetchedAt;
+        List<String> chatModelIds = new ArrayList<>();
+        for (GeminiModelInfo model : models) {
+            if (model.supports("generateContent")) {
+                chatModelIds.add(model.id);
+            }
+        }
+        Collections.sort(chatModelIds);
+        setAvailableModelIds(chatModelIds);
+    }
+
+    public int getBatchConcurrency() {
+        return Math.max(1, myState.batchConcurrency);
+    }
+
+    public void setBatchConcurrency(int concurrency) {
+        myState.batchConcurrency = Math.max(1, concurrency);
+    }
+
+    public int getBatchRequestsPerMinute() {
+        return Math.max(1, myState.batchRequestsPerMinute);
+    }
+
+    public void setBatchRequestsPerMinute(int requestsPerMinute) {
+        myState.batchRequestsPerMinute = Math.max(1, requestsPerMinute);
+    }
+
+    public boolean isInlineCompletionEnabled() {
+        return myState.inlineCompletionEnabled;
+    }
+
+    public void setInlineCompletionEnabled(boolean enabled) {
+        myState.inlineCompletionEnabled = enabled;
+    }
+
+    public List<String> getApiEndpoints() {
+        return myState.apiEndpoints == null ? Collections.emptyList() : new ArrayList<>(myState.apiEndpoints);
+    }
+
+    public void setApiEndpoints(List<String> endpoints) {
+        myState.apiEndpoints = new ArrayList<>(endpoints);
+    }
+
+    public boolean isHedgeRequestsEnabled() {
+        return myState.hedgeRequestsEnabled;
+    }
+
+    public void setHedgeRequestsEnabled(boolean enabled) {
+        myState.hedgeRequestsEnabled = enabled;
+    }
+
+    public boolean isTraceRecordingEnabled() {
+        return myState.traceRecordingEnabled;
+    }
+
+    public void setTraceRecordingEnabled(boolean enabled) {
+        myState.traceRecordingEnabled = enabled;
+    }
+
+    public boolean isToolsEnabled() {
+        return myState.toolsEnabled;
+    }
+
+    public void setToolsEnabled(boolean enabled) {
+        myState.toolsEnabled = enabled;
+    }
+
+    /**
+     * @return the latency budget of chat answers in milliseconds, 0 if there is none
+     */
+    public long getLatencyBudgetMillis() {
+        return Math.max(0, myState.latencyBudgetSeconds) * 1000L;
+    }
+
+    public void setLatencyBudgetSeconds(int seconds) {
+        myState.latencyBudgetSeconds = Math.max(0, seconds);
+    }
+
+    public int getChatMemoryBudgetMb() {
+        return Math.max(1, myState.chatMemoryBudgetMb);
+    }
+
+    public void setChatMemoryBudgetMb(int budgetMb) {
+        myState.chatMemoryBudgetMb = Math.max(1, budgetMb);
+    }
 }
@@ -7,4 +7,15 @@ public class GeminiSettingsState {
     public String geminiApiKey = "";
     public String selectedModelId = GeminiSettingsService.DEFAULT_MODEL_ID;
     public List<String> availableModelIds = new ArrayList<>(); // To cache fetched models
+    public List<GeminiModelInfo> modelCatalog = new ArrayList<>(); // Full model metadata, all pages
+    public long modelCatalogFetchedAt = 0L; // Epoch millis of the last successful catalog fetch
+    public int batchConcurrency = 4; // Parallel requests of a batch job
+    public int batchRequestsPerMinute = 15; // Matches the free tier limit of the flash models
+    public boolean inlineCompletionEnabled = false; // Opt-in: sends editor context to the API while typing
+    public List<String> apiEndpoints = new ArrayList<>(); // API base URLs to route between; empty for the public endpoint
+    public boolean hedgeRequestsEnabled = false; // Duplicate chat requests whose first byte is slower than the observed p95; each hedge is billed
+    public boolean traceRecordingEnabled = false; // Opt-in: logs redacted requests and streamed answers for replay
+    public boolean toolsEnabled = false; // Lets the chat model call local tools (read file, search, grep)
+    public int latencyBudgetSeconds = 0; // Chat answers are sized and routed to arrive within this; 0 for no budget
+    public int chatMemoryBudgetMb = 64; // Chat HTML and history kept in memory by all tabs together
 }
@@ -0,0 +1,149 @@
+package eu.technest.geminichatplugin.statusbar;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.wm.StatusBar;
+import com.intellij.openapi.wm.StatusBarWidget;
+import com.intellij.util.Alarm;
+import eu.technest.geminichatplugin.service.GeminiRequestListener;
+import eu.technest.geminichatplugin.service.GeminiUsageStatistics;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.Component;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Status bar text with the Gemini requests in flight in all projects, the output rate of the latest stream and
+ * today's token usage. Request events arrive on request threads at every streamed fragment, so repaints are
+ * coalesced to at most one per {@link #UPDATE_INTERVAL_MS}.
+ */
+final class GeminiStatusBarWidget implements StatusBarWidget, StatusBarWidget.TextPresentation, GeminiRequestListener {
+    static final String ID = "GeminiRequestStatus";
+    private static final int UPDATE_INTERVAL_MS = 500;
+
+    private static final class Stream {
+        final long startedAt = System.nanoTime();
+        volatile long firstTokenAt = 0;
+        volatile int tokens = 0; // Written by the request thread only
+
+        double tokensPerSecond() {
+            long elapsedNanos = System.nanoTime() - firstTokenAt;
+            return firstTokenAt == 0 || elapsedNanos <= 0 ? 0 : tokens * 1e9 / elapsedNanos;
+        }
+    }
+
+    private final Map<Long, Stream> inFlight = new ConcurrentHashMap<>();
+    private final Alarm updateAlarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD, this);
+    private final AtomicBoolean updateScheduled = new AtomicBoolean();
+    private StatusBar statusBar;
+
+    @Override
+    public @NotNull String ID() {
+        return ID;
+    }
+
+    @Override
+    public @Nullable WidgetPresentation getPresentation() {
+        return this;
+    }
+
+    @Override
+    public void install(@NotNull StatusBar statusBar) {
+        this.statusBar = statusBar;
+        ApplicationManager.getApplication().getMessageBus().connect(this).subscribe(GeminiRequestListener.TOPIC, this);
+    }
+
+    @Override
+    public void dispose() {
+        // The message bus connection and the alarm are children of this widget
+    }
+
+    @Override
+    public @NotNull String getText() {
+        long todayTokens = totalTokens(GeminiUsageStatistics.getInstance().getToday());
+        Stream latest = latestStream();
+        if (latest == null) {
+            return "Gemini: " + formatTokens(todayTokens) + " today";
+        }
+        return String.format("Gemini: %d running, %.0f tok/s, %s today", inFlight.size(), latest.tokensPerSecond(), formatTokens(todayTokens));
+    }
+
+    @Override
+    public @Nullable String getTooltipText() {
+        GeminiUsageStatistics.UsageState today = GeminiUsageStatistics.getInstance().getToday();
+        return String.format("Gemini requests in flight: %d. Today: %,d requests, %,d prompt and %,d output tokens.",
+                inFlight.size(), today.requests, today.promptTokens, today.outputTokens);
+    }
+
+    @Override
+    public float getAlignment() {
+        return Component.LEFT_ALIGNMENT;
+    }
+
+    @Override
+    public void requestStarted(long requestId, @NotNull String modelId) {
+        inFlight.put(requestId, new Stream());
+        scheduleUpdate();
+    }
+
+    @Override
+    public void firstToken(long requestId, long millisSinceStart) {
+        Stream stream = inFlight.get(requestId);
+        if (stream != null) {
+            stream.firstTokenAt = System.nanoTime();
+        }
+    }
+
+    @Override
+    public void textReceived(long requestId, int estimatedTokens) {
+        Stream stream = inFlight.get(requestId);
+        if (stream != null) {
+            stream.tokens += estimatedTokens;
+            scheduleUpdate();
+        }
+    }
+
+    @Override
+    public void requestCompleted(long requestId, int promptTokens, int outputTokens, long durationMillis) {
+        inFlight.remove(requestId);
+        scheduleUpdate();
+    }
+
+    @Override
+    public void requestFailed(long requestId, @NotNull String errorMessage) {
+        inFlight.remove(requestId);
+        scheduleUpdate();
+    }
+
+    private void scheduleUpdate() {
+        if (updateScheduled.compareAndSet(false, true) && !updateAlarm.isDisposed()) {
+            updateAlarm.addRequest(() -> {
+                updateScheduled.set(false);
+                if (statusBar != null) {
+                    statusBar.updateWidget(ID);
+                }
+            }, UPDATE_INTERVAL_MS);
+        }
+    }
+
+    @Nullable
+    private Stream latestStream() {
+        Stream latest = null;
+        for (Stream stream : inFlight.values()) {
+            if (latest == null || stream.startedAt > latest.startedAt) {
+                latest = stream;
+            }
+        }
+        return latest;
+    }
+
+    private static long totalTokens(GeminiUsageStatistics.UsageState usage) {
+        return usage.promptTokens + usage.outputTokens;
+    }
+
+    private static String formatTokens(long tokens) {
+        return tokens < 10_000 ? String.format("%,d tokens", tokens) : String.format("%.1fk tokens", tokens / 1000.0);
+    }
+}
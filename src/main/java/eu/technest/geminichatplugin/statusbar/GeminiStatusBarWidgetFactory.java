@@ -0,0 +1,26 @@
+package eu.technest.geminichatplugin.statusbar;
+
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.util.NlsContexts;
+import com.intellij.openapi.wm.StatusBarWidget;
+import com.intellij.openapi.wm.StatusBarWidgetFactory;
+import org.jetbrains.annotations.NonNls;
+import org.jetbrains.annotations.NotNull;
+
+public class GeminiStatusBarWidgetFactory implements StatusBarWidgetFactory {
+
+    @Override
+    public @NonNls @NotNull String getId() {
+        return GeminiStatusBarWidget.ID;
+    }
+
+    @Override
+    public @NlsContexts.ConfigurableName @NotNull String getDisplayName() {
+        return "Gemini Requests";
+    }
+
+    @Override
+    public @NotNull StatusBarWidget createWidget(@NotNull Project project) {
+        return new GeminiStatusBarWidget();
+    }
+}
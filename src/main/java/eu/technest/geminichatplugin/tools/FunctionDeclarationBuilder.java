@@ -0,0 +1,39 @@
+package eu.technest.geminichatplugin.tools;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+
+/**
+ * Builds the OpenAPI-style functionDeclaration objects of the Gemini API.
+ */
+final class FunctionDeclarationBuilder {
+    private final JsonObject declaration = new JsonObject();
+    private final JsonObject properties = new JsonObject();
+    private final JsonArray required = new JsonArray();
+
+    FunctionDeclarationBuilder(String name, String description) {
+        declaration.addProperty("name", name);
+        declaration.addProperty("description", description);
+    }
+
+    FunctionDeclarationBuilder parameter(String name, String type, String description, boolean isRequired) {
+        JsonObject property = new JsonObject();
+        property.addProperty("type", type);
+        property.addProperty("description", description);
+        properties.add(name, property);
+        if (isRequired) {
+            required.add(name);
+        }
+        return this;
+    }
+
+    JsonObject build() {
+        JsonObject parameters = new JsonObject();
+        parameters.addProperty("type", "OBJECT");
+        parameters.add("properties", properties);
+        parameters.add("required", required);
+        JsonObject result = declaration.deepCopy();
+        result.add("parameters", parameters);
+        return result;
+    }
+}
@@ -0,0 +1,21 @@
+package eu.technest.geminichatplugin.tools;
+
+import com.google.gson.JsonObject;
+import com.intellij.openapi.project.Project;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * A local function Gemini may call while answering a chat message.
+ * Tools run on a pooled thread and should stop early once the thread is interrupted (their timeout expired).
+ */
+public interface GeminiTool {
+    @NotNull String getName();
+
+    /** The functionDeclaration sent to the API: name, description and parameter schema. */
+    @NotNull JsonObject getDeclaration();
+
+    long getTimeoutMillis();
+
+    /** Runs the tool; the returned object is sent back as the functionResponse's response. */
+    @NotNull JsonObject execute(@NotNull Project project, @NotNull JsonObject args) throws Exception;
+}
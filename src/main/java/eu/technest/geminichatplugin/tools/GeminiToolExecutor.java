@@ -0,0 +1,143 @@
+package eu.technest.geminichatplugin.tools;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.project.Project;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The local tools Gemini can call from the chat. All functionCall parts of one model answer are executed
+ * concurrently on a bounded executor, each with its own timeout, and their results are returned as a single
+ * content with one functionResponse part per call, so a tool round costs one follow-up request.
+ */
+@Service(Service.Level.PROJECT)
+public final class GeminiToolExecutor implements Disposable {
+    private static final Logger LOG = Logger.getInstance(GeminiToolExecutor.class);
+    private static final int MAX_PARALLEL_TOOLS = 4;
+
+    private final Project project;
+    private final Map<String, GeminiTool> tools = new LinkedHashMap<>();
+    private final ExecutorService executor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Gemini Tools", MAX_PARALLEL_TOOLS);
+    private final JsonArray toolsPayload = new JsonArray();
+
+    public GeminiToolExecutor(Project project) {
+        this.project = project;
+        for (GeminiTool tool : List.of(new ReadFileTool(), new SearchProjectTool(), new GrepTool())) {
+            tools.put(tool.getName(), tool);
+        }
+        JsonArray declarations = new JsonArray();
+        tools.values().forEach(tool -> declarations.add(tool.getDeclaration()));
+        JsonObject functionDeclarations = new JsonObject();
+        functionDeclarations.add("functionDeclarations", declarations);
+        toolsPayload.add(functionDeclarations);
+    }
+
+    public static GeminiToolExecutor getInstance(@NotNull Project project) {
+        return project.getService(GeminiToolExecutor.class);
+    }
+
+    @Override
+    public void dispose() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * The "tools" field of a generateContent payload. Copy before modifying.
+     */
+    public JsonArray getToolsPayload() {
+        return toolsPayload;
+    }
+
+    /**
+     * Short description of the calls for the chat, e.g. {@code read_file(path=src/Foo.java)}.
+     */
+    public static String describe(@NotNull List<JsonObject> functionCallParts) {
+        List<String> calls = new ArrayList<>();
+        for (JsonObject part : functionCallParts) {
+            JsonObject call = part.getAsJsonObject("functionCall");
+            JsonObject args = call.has("args") ? call.getAsJsonObject("args") : new JsonObject();
+            List<String> argList = new ArrayList<>();
+            args.entrySet().forEach(arg -> argList.add(arg.getKey() + "=" + (arg.getValue().isJsonPrimitive() ? arg.getValue().getAsString() : arg.getValue().toString())));
+            calls.add(call.get("name").getAsString() + "(" + String.join(", ", argList) + ")");
+        }
+        return String.join(", ", calls);
+    }
+
+    /**
+     * Runs the requested tools in parallel and waits for all of them, at most their timeouts.
+     * Blocking, call from a background thread.
+     * @return a content with one functionResponse part per call, in the order of the calls
+     */
+    public JsonObject execute(@NotNull List<JsonObject> functionCallParts) {
+        long startedAt = System.currentTimeMillis();
+        List<Future<JsonObject>> futures = new ArrayList<>();
+        for (JsonObject part : functionCallParts) {
+            JsonObject call = part.getAsJsonObject("functionCall");
+            GeminiTool tool = tools.get(call.get("name").getAsString());
+            JsonObject args = call.has("args") ? call.getAsJsonObject("args") : new JsonObject();
+            futures.add(tool == null ? null : executor.submit(() -> tool.execute(project, args)));
+        }
+
+        JsonArray parts = new JsonArray();
+        for (int i = 0; i < functionCallParts.size(); i++) {
+            JsonObject call = functionCallParts.get(i).getAsJsonObject("functionCall");
+            String name = call.get("name").getAsString();
+            JsonObject response;
+            Future<JsonObject> future = futures.get(i);
+            if (future == null) {
+                response = error("Unknown function " + name);
+            } else {
+                // Timeouts count from submission, so waiting for one tool does not extend the others
+                long remaining = startedAt + tools.get(name).getTimeoutMillis() - System.currentTimeMillis();
+                try {
+                    response = future.get(Math.max(0, remaining), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException e) {
+                    future.cancel(true); // Tools stop on interruption
+                    response = error("Timed out after " + tools.get(name).getTimeoutMillis() / 1000 + " s");
+                } catch (ExecutionException e) {
+                    LOG.warn("Tool " + name + " failed", e.getCause());
+                    response = error(String.valueOf(e.getCause().getMessage()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    future.cancel(true);
+                    response = error("Cancelled");
+                }
+            }
+            JsonObject functionResponse = new JsonObject();
+            if (call.has("id")) {
+                functionResponse.add("id", call.get("id"));
+            }
+            functionResponse.addProperty("name", name);
+            functionResponse.add("response", response);
+            JsonObject responsePart = new JsonObject();
+            responsePart.add("functionResponse", functionResponse);
+            parts.add(responsePart);
+        }
+        LOG.info("Ran " + functionCallParts.size() + " tool calls in " + (System.currentTimeMillis() - startedAt) + " ms");
+
+        JsonObject content = new JsonObject();
+        content.addProperty("role", "user");
+        content.add("parts", parts);
+        return content;
+    }
+
+    private static JsonObject error(String message) {
+        JsonObject error = new JsonObject();
+        error.addProperty("error", message);
+        return error;
+    }
+}
@@ -0,0 +1,142 @@
+package eu.technest.geminichatplugin.tools;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+/**
+ * Searches the text of the project's content files in the VFS for a regular expression.
+ */
+final class GrepTool implements GeminiTool {
+    private static final int MAX_MATCHES = 100;
+    private static final int MAX_LINE_CHARS = 200;
+
+    @Override
+    public @NotNull String getName() {
+        return "grep";
+    }
+
+    @Override
+    public @NotNull JsonObject getDeclaration() {
+        return new FunctionDeclarationBuilder(getName(), "Searches the text files of the user's project for a Java regular expression. Returns matching lines as path:line: text.")
+                .parameter("pattern", "STRING", "Java regular expression, matched against single lines", true)
+                .parameter("fileNameSuffix", "STRING", "Only search files whose name ends with this, e.g. .java", false)
+                .build();
+    }
+
+    @Override
+    public long getTimeoutMillis() {
+        return 15_000;
+    }
+
+    @Override
+    public @NotNull JsonObject execute(@NotNull Project project, @NotNull JsonObject args) {
+        JsonObject result = new JsonObject();
+        Pattern pattern;
+        try {
+            pattern = Pattern.compile(args.has("pattern") ? args.get("pattern").getAsString() : "");
+        } catch (PatternSyntaxException e) {
+            result.addProperty("error", "Invalid pattern: " + e.getDescription());
+            return result;
+        }
+        String suffix = args.has("fileNameSuffix") ? args.get("fileNameSuffix").getAsString() : "";
+        JsonArray matches = new JsonArray();
+        // Collect under a non-blocking read action, restarted when a write comes in, then read each file under its own
+        List<VirtualFile> files = ReadAction.nonBlocking(() -> {
+            List<VirtualFile> searchable = new ArrayList<>();
+            ProjectFileIndex.getInstance(project).iterateContent(file -> {
+                ProgressManager.checkCanceled();
+                if (ProjectFiles.isSearchable(file) && file.getName().endsWith(suffix)) {
+                    searchable.add(file);
+                }
+                return !Thread.currentThread().isInterrupted(); // Interrupted on timeout
+            });
+            return searchable;
+        }).executeSynchronously();
+        boolean interrupted = Thread.currentThread().isInterrupted(); // The file list may be cut short
+        try {
+            for (VirtualFile file : files) {
+                if (matches.size() >= MAX_MATCHES || Thread.currentThread().isInterrupted()) {
+                    break;
+                }
+                grepFile(project, file, pattern, matches);
+            }
+        } catch (CancellationException e) {
+            interrupted = true; // A pathological pattern ran into the timeout
+        }
+        result.add("matches", matches);
+        result.addProperty("complete", !interrupted && matches.size() < MAX_MATCHES);
+        return result;
+    }
+
+    private static void grepFile(Project project, VirtualFile file, Pattern pattern, JsonArray matches) {
+        String text;
+        try {
+            text = ReadAction.compute(() -> file.isValid() ? ProjectFiles.loadText(file) : null);
+        } catch (IOException e) {
+            return;
+        }
+        if (text == null) {
+            return;
+        }
+        Matcher matcher = pattern.matcher("");
+        int lineNumber = 0;
+        for (String line : StringUtil.splitByLines(text, false)) {
+            lineNumber++;
+            if (matcher.reset(new InterruptibleCharSequence(line)).find()) {
+                matches.add(ProjectFiles.displayPath(project, file) + ":" + lineNumber + ": " + StringUtil.shortenTextWithEllipsis(line.trim(), MAX_LINE_CHARS, 0));
+                if (matches.size() >= MAX_MATCHES) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Lets the timeout stop a regex that backtracks catastrophically, which never checks for interruption itself.
+     */
+    private static final class InterruptibleCharSequence implements CharSequence {
+        private final CharSequence text;
+
+        InterruptibleCharSequence(CharSequence text) {
+            this.text = text;
+        }
+
+        @Override
+        public char charAt(int index) {
+            if (Thread.currentThread().isInterrupted()) {
+                throw new CancellationException();
+            }
+            return text.charAt(index);
+        }
+
+        @Override
+        public int length() {
+            return text.length();
+        }
+
+        @Override
+        public CharSequence subSequence(int start, int end) {
+            return new InterruptibleCharSequence(text.subSequence(start, end));
+        }
+
+        @Override
+        public @NotNull String toString() {
+            return text.toString();
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package eu.technest.geminichatplugin.tools;
+
+import com.intellij.openapi.editor.Document;
+import com.intellij.openapi.fileEditor.FileDocumentManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.project.ProjectUtil;
+import com.intellij.openapi.vfs.VfsUtilCore;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+
+/**
+ * Path and content helpers shared by the tools. Must be called inside a read action.
+ */
+final class ProjectFiles {
+    static final long MAX_FILE_BYTES = 200 * 1024;
+
+    private ProjectFiles() {
+    }
+
+    @Nullable
+    static VirtualFile findFile(@NotNull Project project, @NotNull String path) {
+        VirtualFile projectDir = ProjectUtil.guessProjectDir(project);
+        if (projectDir == null) {
+            return null;
+        }
+        String relativePath = path.startsWith(projectDir.getPath()) ? path.substring(projectDir.getPath().length()) : path;
+        return projectDir.findFileByRelativePath(relativePath.replace('\\', '/'));
+    }
+
+    static String displayPath(@NotNull Project project, @NotNull VirtualFile file) {
+        VirtualFile projectDir = ProjectUtil.guessProjectDir(project);
+        String relativePath = projectDir != null ? VfsUtilCore.getRelativePath(file, projectDir) : null;
+        return relativePath != null ? relativePath : file.getPath();
+    }
+
+    /**
+     * The text of a file, including unsaved changes of an open document.
+     */
+    static String loadText(@NotNull VirtualFile file) throws IOException {
+        Document document = FileDocumentManager.getInstance().getCachedDocument(file);
+        return document != null ? document.getText() : VfsUtilCore.loadText(file);
+    }
+
+    static boolean isSearchable(@NotNull VirtualFile file) {
+        return !file.isDirectory() && !file.getFileType().isBinary() && file.getLength() <= MAX_FILE_BYTES;
+    }
+}
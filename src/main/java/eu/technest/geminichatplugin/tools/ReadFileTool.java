@@ -0,0 +1,52 @@
+package eu.technest.geminichatplugin.tools;
+
+import com.google.gson.JsonObject;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import com.intellij.openapi.vfs.VirtualFile;
+import org.jetbrains.annotations.NotNull;
+
+/**
+ * Returns the text of one project file.
+ */
+final class ReadFileTool implements GeminiTool {
+    private static final int MAX_CHARS = 50_000;
+
+    @Override
+    public @NotNull String getName() {
+        return "read_file";
+    }
+
+    @Override
+    public @NotNull JsonObject getDeclaration() {
+        return new FunctionDeclarationBuilder(getName(), "Reads a text file of the user's project.")
+                .parameter("path", "STRING", "Path relative to the project root, e.g. src/main/java/Foo.java", true)
+                .build();
+    }
+
+    @Override
+    public long getTimeoutMillis() {
+        return 5_000;
+    }
+
+    @Override
+    public @NotNull JsonObject execute(@NotNull Project project, @NotNull JsonObject args) throws Exception {
+        String path = args.has("path") ? args.get("path").getAsString() : "";
+        return ReadAction.compute(() -> {
+            JsonObject result = new JsonObject();
+            VirtualFile file = ProjectFiles.findFile(project, path);
+            // Only content files: a relative path with .. must not reach outside the project
+            if (file == null || !ProjectFileIndex.getInstance(project).isInContent(file) || !ProjectFiles.isSearchable(file)) {
+                result.addProperty("error", "No readable text file at " + path);
+                return result;
+            }
+            String text = ProjectFiles.loadText(file);
+            boolean truncated = text.length() > MAX_CHARS;
+            result.addProperty("path", ProjectFiles.displayPath(project, file));
+            result.addProperty("content", truncated ? text.substring(0, MAX_CHARS) : text);
+            result.addProperty("truncated", truncated);
+            return result;
+        });
+    }
+}
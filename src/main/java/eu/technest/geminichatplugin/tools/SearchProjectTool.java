@@ -0,0 +1,57 @@
+package eu.technest.geminichatplugin.tools;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.roots.ProjectFileIndex;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Locale;
+
+/**
+ * Finds project files whose name contains a query.
+ */
+final class SearchProjectTool implements GeminiTool {
+    private static final int MAX_RESULTS = 50;
+
+    @Override
+    public @NotNull String getName() {
+        return "search_project";
+    }
+
+    @Override
+    public @NotNull JsonObject getDeclaration() {
+        return new FunctionDeclarationBuilder(getName(), "Finds files of the user's project by name. Returns project relative paths.")
+                .parameter("query", "STRING", "Part of the file name, case-insensitive, e.g. Service.java", true)
+                .build();
+    }
+
+    @Override
+    public long getTimeoutMillis() {
+        return 10_000;
+    }
+
+    @Override
+    public @NotNull JsonObject execute(@NotNull Project project, @NotNull JsonObject args) {
+        String query = args.has("query") ? args.get("query").getAsString().toLowerCase(Locale.ROOT) : "";
+        // Non-blocking, restarted when a write comes in, so a long scan does not hold up typing
+        JsonArray paths = ReadAction.nonBlocking(() -> {
+            JsonArray found = new JsonArray();
+            ProjectFileIndex.getInstance(project).iterateContent(file -> {
+                ProgressManager.checkCanceled();
+                if (!file.isDirectory() && file.getName().toLowerCase(Locale.ROOT).contains(query)) {
+                    found.add(ProjectFiles.displayPath(project, file));
+                }
+                return found.size() < MAX_RESULTS && !Thread.currentThread().isInterrupted(); // Interrupted on timeout
+            });
+            return found;
+        }).executeSynchronously();
+        boolean interrupted = Thread.currentThread().isInterrupted();
+        JsonObject result = new JsonObject();
+        result.add("files", paths);
+        result.addProperty("complete", !interrupted && paths.size() < MAX_RESULTS);
+        return result;
+    }
+}
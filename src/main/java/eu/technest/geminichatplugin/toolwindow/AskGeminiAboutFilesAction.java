@@ -0,0 +1,107 @@
+package eu.technest.geminichatplugin.toolwindow;
+
+import com.intellij.openapi.actionSystem.ActionUpdateThread;
+import com.intellij.openapi.actionSystem.AnAction;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.actionSystem.CommonDataKeys;
+import com.intellij.openapi.application.ReadAction;
+import com.intellij.openapi.progress.ProgressIndicator;
+import com.intellij.openapi.progress.ProgressManager;
+import com.intellij.openapi.progress.Task;
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowManager;
+import eu.technest.geminichatplugin.service.GeminiBatchJobService;
+import eu.technest.geminichatplugin.settings.GeminiSettingsService;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Project view action that runs one prompt over every selected file (directories are expanded in the background)
+ * as a batch job and shows the results tool window.
+ */
+public class AskGeminiAboutFilesAction extends AnAction implements DumbAware {
+
+    private static final String DEFAULT_TEMPLATE = "Review " + GeminiBatchJobService.FILE_PATH_PLACEHOLDER
+            + " and list possible bugs.";
+
+    private String lastTemplate = DEFAULT_TEMPLATE;
+
+    @Override
+    public void actionPerformed(@NotNull AnActionEvent e) {
+        Project project = e.getProject();
+        VirtualFile[] selection = e.getData(CommonDataKeys.VIRTUAL_FILE_ARRAY);
+        if (project == null || selection == null || selection.length == 0) {
+            return;
+        }
+        String apiKey = GeminiSettingsService.getInstance().getGeminiApiKey();
+        if (apiKey == null || apiKey.trim().isEmpty()) {
+            Messages.showErrorDialog(project, "Gemini API Key is not set. Please configure it in Settings.", "API Key Missing");
+            return;
+        }
+
+        GeminiBatchJobService batchJobService = GeminiBatchJobService.getInstance(project);
+        ProgressManager.getInstance().run(new Task.Backgroundable(project, "Collecting Files for Gemini", true) {
+            private List<VirtualFile> files = Collections.emptyList();
+
+            @Override
+            public void run(@NotNull ProgressIndicator indicator) {
+                indicator.setIndeterminate(true);
+                // Non-blocking, so a large selection does not hold up writes while it is walked
+                files = ReadAction.nonBlocking(() -> batchJobService.collectFiles(selection, indicator))
+                        .wrapProgress(indicator)
+                        .executeSynchronously();
+            }
+
+            @Override
+            public void onSuccess() {
+                askAndStart(project, batchJobService, files);
+            }
+        });
+    }
+
+    private void askAndStart(Project project, GeminiBatchJobService batchJobService, List<VirtualFile> files) {
+        if (project.isDisposed()) {
+            return;
+        }
+        if (files.isEmpty()) {
+            Messages.showInfoMessage(project, "The selection contains no text files.", "Ask Gemini About Files");
+            return;
+        }
+
+        String template = Messages.showMultilineInputDialog(project,
+                "Prompt to run for each of " + files.size() + " files. Placeholders: "
+                        + GeminiBatchJobService.FILE_NAME_PLACEHOLDER + ", " + GeminiBatchJobService.FILE_PATH_PLACEHOLDER + ", "
+                        + GeminiBatchJobService.CONTENT_PLACEHOLDER + " (the content is appended if omitted).",
+                "Ask Gemini About Files", lastTemplate, null, null);
+        if (template == null || template.trim().isEmpty()) {
+            return;
+        }
+        lastTemplate = template;
+
+        if (batchJobService.startJob(template, files) == null) {
+            Messages.showErrorDialog(project, "Gemini API Key is not set. Please configure it in Settings.", "API Key Missing");
+            return;
+        }
+        ToolWindow toolWindow = ToolWindowManager.getInstance(project).getToolWindow(GeminiBatchResultsToolWindowFactory.TOOL_WINDOW_ID);
+        if (toolWindow != null) {
+            toolWindow.activate(null);
+        }
+    }
+
+    @Override
+    public void update(@NotNull AnActionEvent e) {
+        VirtualFile[] selection = e.getData(CommonDataKeys.VIRTUAL_FILE_ARRAY);
+        e.getPresentation().setEnabledAndVisible(e.getProject() != null && selection != null && selection.length > 0);
+    }
+
+    @Override
+    public @NotNull ActionUpdateThread getActionUpdateThread() {
+        return ActionUpdateThread.BGT;
+    }
+}
@@ -0,0 +1,17 @@
+package eu.technest.geminichatplugin.toolwindow;
+
+import eu.technest.geminichatplugin.css.Css;
+
+import javax.swing.text.html.HTMLEditorKit;
+import javax.swing.text.html.StyleSheet;
+
+/**
+ * HTML kit of the chat views. New documents link the shared style sheet of the current theme, so after a
+ * theme change a view only needs a fresh document from {@link #createDefaultDocument()}.
+ */
+final class ChatHtmlEditorKit extends HTMLEditorKit {
+    @Override
+    public StyleSheet getStyleSheet() {
+        return Css.getInstance().getChatStyleSheet();
+    }
+}
@@ -0,0 +1,63 @@
+package eu.technest.geminichatplugin.toolwindow;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.vladsch.flexmark.ast.FencedCodeBlock;
+import com.vladsch.flexmark.html.HtmlRenderer;
+import com.vladsch.flexmark.html.renderer.NodeRenderer;
+import com.vladsch.flexmark.html.renderer.NodeRenderingHandler;
+import com.vladsch.flexmark.parser.Parser;
+import com.vladsch.flexmark.util.data.MutableDataSet;
+
+import java.util.Collections;
+import java.util.Set;
+
+/**
+ * Markdown to HTML rendering shared by all chat tabs and the batch results view.
+ * The flexmark parser and renderer are immutable once built and safe to use from any thread.
+ * Closed fenced code blocks with a known language are colored by {@link CodeBlockHighlighter}.
+ */
+@Service
+public final class ChatMarkdownRenderer {
+    private final Parser markdownParser;
+    private final HtmlRenderer htmlRenderer;
+
+    public ChatMarkdownRenderer() {
+        MutableDataSet options = new MutableDataSet();
+        markdownParser = Parser.builder(options).build();
+        htmlRenderer = HtmlRenderer.builder(options)
+                .nodeRendererFactory(dataHolder -> new HighlightedCodeBlockRenderer())
+                .build();
+    }
+
+    public static ChatMarkdownRenderer getInstance() {
+        return ApplicationManager.getApplication().getService(ChatMarkdownRenderer.class);
+    }
+
+    public String render(String markdown) {
+        return htmlRenderer.render(markdownParser.parse(markdown));
+    }
+
+    private static final class HighlightedCodeBlockRenderer implements NodeRenderer {
+        @Override
+        public Set<NodeRenderingHandler<?>> getNodeRenderingHandlers() {
+            return Collections.singleton(new NodeRenderingHandler<>(FencedCodeBlock.class, (node, context, html) -> {
+                if (node.getClosingMarker().isEmpty()) {
+                    // Still streaming in: highlighted once closed, so every partial version does not lex and cache
+                    context.delegateRender();
+                    return;
+                }
+                String info = node.getInfo().toString().trim();
+                String language = info.isEmpty() ? "" : info.split("\\s+")[0];
+                String highlighted = CodeBlockHighlighter.getInstance().render(language, node.getContentChars().toString());
+                if (highlighted == null) {
+                    context.delegateRender(); // Unknown language: flexmark's plain <pre><code>
+                    return;
+                }
+                html.line();
+                html.raw(highlighted);
+                html.line();
+            }));
+        }
+    }
+}
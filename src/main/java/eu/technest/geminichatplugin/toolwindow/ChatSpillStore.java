@@ -0,0 +1,112 @@
+package eu.technest.geminichatplugin.toolwindow;
+
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.intellij.openapi.diagnostic.Logger;
+import eu.technest.geminichatplugin.service.ChatMemoryGovernor;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * Files that hold the part of one chat tab moved out of memory: rendered HTML, oldest entries first, and
+ * history entries as JSON lines. History is only ever appended, so a reader of the lines written so far is not
+ * disturbed by a concurrent append; HTML is also cut off at the end when the newest spilled entries are reloaded.
+ */
+final class ChatSpillStore {
+    private static final Logger LOG = Logger.getInstance(ChatSpillStore.class);
+
+    private final Path htmlFile;
+    private final Path historyFile;
+
+    ChatSpillStore() {
+        String id = UUID.randomUUID().toString();
+        Path directory = ChatMemoryGovernor.getSpillDirectory();
+        this.htmlFile = directory.resolve(id + ".html");
+        this.historyFile = directory.resolve(id + ".history.jsonl");
+    }
+
+    void appendHtml(String html) throws IOException {
+        Files.createDirectories(htmlFile.getParent());
+        Files.writeString(htmlFile, html, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND);
+    }
+
+    /**
+     * Reads the HTML from the byte {@code offset} of an entry to the end.
+     */
+    String readHtml(long offset) throws IOException {
+        if (!Files.exists(htmlFile)) {
+            return "";
+        }
+        try (FileChannel channel = FileChannel.open(htmlFile, StandardOpenOption.READ)) {
+            channel.position(offset);
+            return new String(Channels.newInputStream(channel).readAllBytes(), StandardCharsets.UTF_8);
+        }
+    }
+
+    /**
+     * Drops the HTML from the byte {@code size} on, once it was read back.
+     */
+    void truncateHtml(long size) throws IOException {
+        if (!Files.exists(htmlFile)) {
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(htmlFile, StandardOpenOption.WRITE)) {
+            channel.truncate(size);
+        }
+    }
+
+    void appendHistory(List<JsonObject> entries) throws IOException {
+        Files.createDirectories(historyFile.getParent());
+        try (BufferedWriter writer = Files.newBufferedWriter(historyFile, StandardCharsets.UTF_8, StandardOpenOption.CREATE, StandardOpenOption.APPEND)) {
+            for (JsonObject entry : entries) {
+                writer.write(entry.toString()); // Compact JSON, one line
+                writer.write('\n'); // Not newLine(): callers count the bytes of each line
+            }
+        }
+    }
+
+    /**
+     * Reads {@code count} history entries written by {@link #appendHistory}, starting at the byte {@code offset}
+     * of an entry.
+     */
+    List<JsonObject> readHistory(long offset, int count) throws IOException {
+        List<JsonObject> entries = new ArrayList<>(count);
+        if (count == 0) {
+            return entries;
+        }
+        try (FileChannel channel = FileChannel.open(historyFile, StandardOpenOption.READ)) {
+            channel.position(offset);
+            BufferedReader reader = new BufferedReader(new InputStreamReader(Channels.newInputStream(channel), StandardCharsets.UTF_8));
+            String line;
+            while (entries.size() < count && (line = reader.readLine()) != null) {
+                entries.add(JsonParser.parseString(line).getAsJsonObject());
+            }
+        }
+        return entries;
+    }
+
+    void deleteAll() {
+        delete(htmlFile);
+        delete(historyFile);
+    }
+
+    private static void delete(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException e) {
+            LOG.warn("Could not delete chat spill file " + file, e);
+        }
+    }
+}
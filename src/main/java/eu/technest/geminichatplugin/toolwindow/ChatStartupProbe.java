@@ -0,0 +1,57 @@
+package eu.technest.geminichatplugin.toolwindow;
+
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.diagnostic.Logger;
+import eu.technest.geminichatplugin.service.LatencyRecorder;
+
+/**
+ * Measures how long a chat tab takes from being opened to accepting input, with the time spent per startup
+ * phase, and keeps the totals for the settings dialog.
+ */
+@Service
+public final class ChatStartupProbe {
+    private static final Logger LOG = Logger.getInstance(ChatStartupProbe.class);
+
+    private final LatencyRecorder openToInteractive = new LatencyRecorder(64);
+
+    public static ChatStartupProbe getInstance() {
+        return ApplicationManager.getApplication().getService(ChatStartupProbe.class);
+    }
+
+    public LatencyRecorder getLatencyRecorder() {
+        return openToInteractive;
+    }
+
+    /**
+     * Starts timing one tab; call when the tab is requested.
+     */
+    Measurement start() {
+        return new Measurement();
+    }
+
+    /**
+     * The phases of one tab's startup. Phases are marked from the EDT and background threads in turn, never concurrently.
+     */
+    final class Measurement {
+        private final long startedAt = System.nanoTime();
+        private final StringBuilder phases = new StringBuilder();
+        private long lastMarkAt = startedAt;
+
+        synchronized void mark(String phase) {
+            long now = System.nanoTime();
+            phases.append(phases.length() == 0 ? "" : ", ").append(phase).append(' ').append((now - lastMarkAt) / 1_000_000).append(" ms");
+            lastMarkAt = now;
+        }
+
+        /**
+         * The tab accepts input. Records and logs the open-to-interactive latency.
+         */
+        synchronized void interactive() {
+            mark("interactive");
+            long totalMillis = (System.nanoTime() - startedAt) / 1_000_000;
+            openToInteractive.recordMillis(totalMillis);
+            LOG.info("Chat tab interactive " + totalMillis + " ms after opening (" + phases + ")");
+        }
+    }
+}
@@ -0,0 +1,171 @@
+package eu.technest.geminichatplugin.toolwindow;
+
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.application.ModalityState;
+import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.util.Alarm;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+/**
+ * Collects chat panel UI changes from any thread and applies them on the EDT at most once per frame.
+ * Appended entries and model updates keep their order, consecutive updates of the streaming answer are
+ * merged into the latest one, and the loading flag is applied once with its last value. The streaming answer
+ * is rendered when its frame is prepared, on a pooled thread, so it is rendered once per frame rather than
+ * once per streamed fragment.
+ */
+final class ChatUiUpdateScheduler {
+    private static final Logger LOG = Logger.getInstance(ChatUiUpdateScheduler.class);
+
+    static final int FRAME_MS = 33; // ~30 frames per second is plenty for text
+
+    enum UpdateType { APPEND_ENTRY, STREAMING_ENTRY, REPLACE_FRAGMENT, RUN }
+
+    static final class Update {
+        final UpdateType type;
+        final String html;
+        final String fragment; // REPLACE_FRAGMENT: the HTML that html replaces
+        final boolean streamFinished;
+        final Runnable task;
+        private final Supplier<String> render; // STREAMING_ENTRY until the frame is prepared
+
+        private Update(UpdateType type, String html, String fragment, boolean streamFinished, Runnable task, Supplier<String> render) {
+            this.type = type;
+            this.html = html;
+            this.fragment = fragment;
+            this.streamFinished = streamFinished;
+            this.task = task;
+            this.render = render;
+        }
+
+        private Update rendered() {
+            return render == null ? this : new Update(type, render.get(), fragment, streamFinished, task, null);
+        }
+    }
+
+    interface Target {
+        /**
+         * Applies one frame on the EDT. {@code loading} is null if the loading flag did not change.
+         */
+        void applyFrame(@NotNull List<Update> updates, @Nullable Boolean loading);
+    }
+
+    private final Target target;
+    private final Alarm frameAlarm;
+    private final Object lock = new Object();
+    private final AtomicLong queuedUpdates = new AtomicLong();
+    private final AtomicLong appliedFrames = new AtomicLong();
+
+    private List<Update> pendingUpdates = new ArrayList<>();
+    private Boolean pendingLoading;
+    private boolean frameScheduled;
+    private long lastFrameAt;
+
+    ChatUiUpdateScheduler(@NotNull Target target, @NotNull Disposable parentDisposable) {
+        this.target = target;
+        this.frameAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, parentDisposable);
+    }
+
+    void setLoading(boolean loading) {
+        synchronized (lock) {
+            pendingLoading = loading;
+        }
+        queued();
+    }
+
+    void appendEntry(@NotNull String html) {
+        enqueue(new Update(UpdateType.APPEND_ENTRY, html, null, false, null, null));
+    }
+
+    /**
+     * Replaces the entry of the answer that is currently streaming. {@code finished} closes it, so the next
+     * streaming update starts a new entry. {@code render} is called once per frame, off the EDT, and should return
+     * the HTML of the latest text.
+     */
+    void updateStreamingEntry(@NotNull Supplier<String> render, boolean finished) {
+        Update update = new Update(UpdateType.STREAMING_ENTRY, null, null, finished, null, render);
+        synchronized (lock) {
+            int last = pendingUpdates.size() - 1;
+            if (last >= 0 && pendingUpdates.get(last).type == UpdateType.STREAMING_ENTRY && !pendingUpdates.get(last).streamFinished) {
+                pendingUpdates.set(last, update); // Only the latest text matters
+            } else {
+                pendingUpdates.add(update);
+            }
+        }
+        queued();
+    }
+
+    /**
+     * Replaces an already shown piece of HTML, e.g. a code block once it has been highlighted.
+     */
+    void replaceFragment(@NotNull String fragment, @NotNull String html) {
+        enqueue(new Update(UpdateType.REPLACE_FRAGMENT, html, fragment, false, null, null));
+    }
+
+    /**
+     * Runs a state change (e.g. updating the conversation history) in the next frame, in order with the entries.
+     */
+    void runInFrame(@NotNull Runnable task) {
+        enqueue(new Update(UpdateType.RUN, null, null, false, task, null));
+    }
+
+    long getQueuedUpdates() {
+        return queuedUpdates.get();
+    }
+
+    long getAppliedFrames() {
+        return appliedFrames.get();
+    }
+
+    private void enqueue(Update update) {
+        synchronized (lock) {
+            pendingUpdates.add(update);
+        }
+        queued();
+    }
+
+    private void queued() {
+        queuedUpdates.incrementAndGet();
+        synchronized (lock) {
+            if (frameScheduled || frameAlarm.isDisposed()) {
+                return;
+            }
+            frameScheduled = true;
+            long delay = Math.max(0, lastFrameAt + FRAME_MS - System.currentTimeMillis());
+            frameAlarm.addRequest(this::flush, delay);
+        }
+    }
+
+    /**
+     * Prepares a frame on the alarm's pooled thread, which runs one request at a time, so frames keep their order.
+     */
+    private void flush() {
+        List<Update> updates;
+        Boolean loading;
+        synchronized (lock) {
+            updates = pendingUpdates;
+            loading = pendingLoading;
+            pendingUpdates = new ArrayList<>();
+            pendingLoading = null;
+            frameScheduled = false;
+            lastFrameAt = System.currentTimeMillis();
+        }
+        List<Update> frame = new ArrayList<>(updates.size());
+        for (Update update : updates) {
+            frame.add(update.rendered());
+        }
+        ApplicationManager.getApplication().invokeLater(() -> {
+            long frames = appliedFrames.incrementAndGet();
+            target.applyFrame(frame, loading);
+            if (LOG.isDebugEnabled() && frames % 100 == 0) {
+                LOG.debug("Chat UI updates: " + queuedUpdates.get() + " queued, " + frames + " frames applied");
+            }
+        }, ModalityState.any(), o -> frameAlarm.isDisposed());
+    }
+}
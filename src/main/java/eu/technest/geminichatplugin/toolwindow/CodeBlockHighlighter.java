@@ -0,0 +1,222 @@
+package eu.technest.geminichatplugin.toolwindow;
+
+import com.intellij.lang.Language;
+import com.intellij.lexer.Lexer;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.components.Service;
+import com.intellij.openapi.editor.colors.TextAttributesKey;
+import com.intellij.openapi.fileTypes.FileType;
+import com.intellij.openapi.fileTypes.FileTypeManager;
+import com.intellij.openapi.fileTypes.SyntaxHighlighter;
+import com.intellij.openapi.fileTypes.SyntaxHighlighterFactory;
+import com.intellij.openapi.fileTypes.UnknownFileType;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.psi.tree.IElementType;
+import eu.technest.geminichatplugin.css.Css;
+import okio.ByteString;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Turns fenced code blocks into HTML colored with the IDE's own lexers. Tokens get the classes of the editor
+ * colors they fall back to, which {@link Css} defines for the current color scheme, so the HTML does not depend
+ * on the scheme. Results are cached by a SHA-256 of language and code, so re-rendering a chat does not lex again.
+ * Blocks above {@link #LAZY_HIGHLIGHT_CHARS} are emitted plain with an id of their own and highlighted later through
+ * {@link #highlightLazyBlock} once the chat shows them.
+ * Thread-safe; meant to be called from the background threads that render markdown.
+ */
+@Service
+public final class CodeBlockHighlighter {
+    static final int LAZY_HIGHLIGHT_CHARS = 4000;
+    private static final int MAX_CACHED_BLOCKS = 256;
+    private static final int MAX_LAZY_BLOCKS = 128;
+    private static final String LAZY_ID_PREFIX = "gemini-code-";
+    // Unique per emitted block, then the content key: identical blocks are highlighted one by one
+    private static final Pattern LAZY_ID_PATTERN = Pattern.compile("id='(" + LAZY_ID_PREFIX + "[0-9]+-[0-9a-f]+)'");
+    private static final AtomicLong NEXT_LAZY_ID = new AtomicLong();
+    // Fence names that are neither a file extension nor a language id
+    private static final Map<String, String> LANGUAGE_ALIASES = Map.of(
+            "shell", "sh", "bash", "sh", "zsh", "sh", "console", "sh", "c++", "cpp", "golang", "go");
+
+    /** A lazily highlighted block: the plain HTML currently in the chat and its highlighted replacement. */
+    static final class HighlightedBlock {
+        final String plainHtml;
+        final String highlightedHtml;
+
+        HighlightedBlock(String plainHtml, String highlightedHtml) {
+            this.plainHtml = plainHtml;
+            this.highlightedHtml = highlightedHtml;
+        }
+    }
+
+    private static final class LazyBlock {
+        final String language;
+        final String code;
+
+        LazyBlock(String language, String code) {
+            this.language = language;
+            this.code = code;
+        }
+    }
+
+    private final Map<String, String> cache = new LinkedHashMap<String, String>(64, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, String> eldest) {
+            return size() > MAX_CACHED_BLOCKS;
+        }
+    };
+    // By content key; re-rendering a streaming answer refreshes its blocks instead of adding more
+    private final Map<String, LazyBlock> lazyBlocks = new LinkedHashMap<String, LazyBlock>(16, 0.75f, true) {
+        @Override
+        protected boolean removeEldestEntry(Map.Entry<String, LazyBlock> eldest) {
+            return size() > MAX_LAZY_BLOCKS;
+        }
+    };
+
+    public static CodeBlockHighlighter getInstance() {
+        return ApplicationManager.getApplication().getService(CodeBlockHighlighter.class);
+    }
+
+    /**
+     * Returns the {@code <pre>} HTML of a code block, or null if no lexer is known for {@code language}.
+     */
+    @Nullable
+    public String render(@NotNull String language, @NotNull String code) {
+        if (findFileType(language) == null) {
+            return null;
+        }
+        String key = cacheKey(language, code);
+        synchronized (cache) {
+            String cached = cache.get(key);
+            if (cached != null) {
+                return cached;
+            }
+        }
+        if (code.length() > LAZY_HIGHLIGHT_CHARS) {
+            String id = LAZY_ID_PREFIX + NEXT_LAZY_ID.incrementAndGet() + '-' + key;
+            synchronized (lazyBlocks) {
+                lazyBlocks.put(key, new LazyBlock(language, code));
+            }
+            return wrap(StringUtil.escapeXmlEntities(code), id);
+        }
+        return highlightAndCache(language, code, key);
+    }
+
+    /**
+     * Highlights a block that {@link #render} emitted plain. Returns null if the block is unknown or was evicted.
+     */
+    @Nullable
+    HighlightedBlock highlightLazyBlock(@NotNull String id) {
+        String key = id.substring(id.lastIndexOf('-') + 1);
+        LazyBlock block;
+        synchronized (lazyBlocks) {
+            block = lazyBlocks.get(key); // Kept for the other copies of the same block
+        }
+        if (block == null) {
+            return null;
+        }
+        String html;
+        synchronized (cache) {
+            html = cache.get(key);
+        }
+        if (html == null) {
+            html = highlightAndCache(block.language, block.code, key);
+        }
+        return new HighlightedBlock(wrap(StringUtil.escapeXmlEntities(block.code), id), html);
+    }
+
+    /**
+     * Ids of the plain blocks in a piece of rendered chat HTML that still wait for highlighting.
+     */
+    static List<String> findLazyBlockIds(@NotNull String html) {
+        List<String> ids = new ArrayList<>();
+        if (!html.contains(LAZY_ID_PREFIX)) {
+            return ids;
+        }
+        Matcher matcher = LAZY_ID_PATTERN.matcher(html);
+        while (matcher.find()) {
+            ids.add(matcher.group(1));
+        }
+        return ids;
+    }
+
+    private String highlightAndCache(String language, String code, String key) {
+        String html = wrap(highlight(language, code), null);
+        synchronized (cache) {
+            cache.put(key, html);
+        }
+        return html;
+    }
+
+    private static String cacheKey(String language, String code) {
+        return ByteString.encodeUtf8(language + '\u0000' + code).sha256().hex();
+    }
+
+    private static String highlight(String language, String code) {
+        FileType fileType = findFileType(language);
+        SyntaxHighlighter highlighter = fileType != null ? SyntaxHighlighterFactory.getSyntaxHighlighter(fileType, null, null) : null;
+        if (highlighter == null) {
+            return StringUtil.escapeXmlEntities(code);
+        }
+        // A new highlighter per call: lexers keep state and must not be shared between threads
+        Lexer lexer = highlighter.getHighlightingLexer();
+        lexer.start(code);
+        StringBuilder html = new StringBuilder(code.length() * 2);
+        IElementType tokenType;
+        while ((tokenType = lexer.getTokenType()) != null) {
+            String text = StringUtil.escapeXmlEntities(code.substring(lexer.getTokenStart(), lexer.getTokenEnd()));
+            String cssClass = tokenClass(highlighter.getTokenHighlights(tokenType));
+            if (cssClass == null) {
+                html.append(text);
+            } else {
+                html.append("<span class='").append(cssClass).append("'>").append(text).append("</span>");
+            }
+            lexer.advance();
+        }
+        return html.toString();
+    }
+
+    @Nullable
+    private static String tokenClass(TextAttributesKey[] keys) {
+        // Later keys are more specific and win, like in the editor
+        for (int i = keys.length - 1; i >= 0; i--) {
+            for (TextAttributesKey key = keys[i]; key != null; key = key.getFallbackAttributeKey()) {
+                if (Css.HIGHLIGHT_KEYS.contains(key)) {
+                    return Css.highlightClass(key);
+                }
+            }
+        }
+        return null;
+    }
+
+    private static String wrap(String codeHtml, @Nullable String id) {
+        return String.format("<pre%s class='%s'><code class='%s'>%s</code></pre>",
+                id != null ? " id='" + id + "'" : "", Css.CODE_BLOCK_CLASS, Css.CODE_BLOCK_CLASS, codeHtml);
+    }
+
+    @Nullable
+    private static FileType findFileType(String language) {
+        if (language.isEmpty()) {
+            return null;
+        }
+        String name = LANGUAGE_ALIASES.getOrDefault(language.toLowerCase(), language);
+        FileType fileType = FileTypeManager.getInstance().getFileTypeByExtension(name);
+        if (fileType != UnknownFileType.INSTANCE) {
+            return fileType;
+        }
+        for (Language registered : Language.getRegisteredLanguages()) {
+            if (registered.getID().equalsIgnoreCase(name) || registered.getDisplayName().equalsIgnoreCase(name)) {
+                return registered.getAssociatedFileType();
+            }
+        }
+        return null;
+    }
+}
@@ -0,0 +1,243 @@
+package eu.technest.geminichatplugin.toolwindow;
+
+import com.intellij.icons.AllIcons;
+import com.intellij.ide.ui.LafManagerListener;
+import com.intellij.openapi.Disposable;
+import com.intellij.openapi.application.ApplicationManager;
+import com.intellij.openapi.editor.colors.EditorColorsManager;
+import com.intellij.openapi.fileEditor.FileEditorManager;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.ui.ComboBox;
+import com.intellij.openapi.vfs.VirtualFile;
+import com.intellij.openapi.vfs.VirtualFileManager;
+import com.intellij.ui.ColoredListCellRenderer;
+import com.intellij.ui.JBSplitter;
+import com.intellij.ui.SimpleTextAttributes;
+import com.intellij.ui.components.JBLabel;
+import com.intellij.ui.components.JBList;
+import com.intellij.ui.components.JBScrollPane;
+import com.intellij.util.messages.MessageBusConnection;
+import com.intellij.util.ui.JBUI;
+import com.intellij.util.ui.UIUtil;
+import eu.technest.geminichatplugin.service.GeminiBatchJob;
+import eu.technest.geminichatplugin.service.GeminiBatchJobService;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import javax.swing.*;
+import java.awt.*;
+import java.awt.event.MouseAdapter;
+import java.awt.event.MouseEvent;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * Shows the results of batch jobs as they complete. Results stream in through
+ * {@link GeminiBatchJobService.BatchJobListener}; double-clicking a result opens its file.
+ */
+public class GeminiBatchResultsPanel extends JPanel implements Disposable {
+
+    private final Project project;
+    private final GeminiBatchJobService batchJobService;
+    private final ComboBox<GeminiBatchJob> jobComboBox = new ComboBox<>();
+    private final JBLabel summaryLabel = new JBLabel();
+    private final JButton resumeButton = new JButton("Resume");
+    private final JButton cancelButton = new JButton("Cancel");
+    private final JButton removeButton = new JButton("Remove");
+    private final DefaultListModel<GeminiBatchJob.Result> resultsModel = new DefaultListModel<>();
+    private final JBList<GeminiBatchJob.Result> resultsList = new JBList<>(resultsModel);
+    private final JEditorPane resultPane = new JEditorPane();
+    private int resultGeneration = 0; // Of the result shown, so a slow render does not replace a newer selection
+
+    public GeminiBatchResultsPanel(Project project) {
+        super(new BorderLayout());
+        this.project = project;
+        this.batchJobService = GeminiBatchJobService.getInstance(project);
+
+        // --- Job selector and summary ---
+        JPanel topPanel = new JPanel(new BorderLayout(JBUI.scale(5), 0));
+        topPanel.setBorder(JBUI.Borders.empty(3, 5));
+        jobComboBox.setRenderer(new ColoredListCellRenderer<GeminiBatchJob>() {
+            @Override
+            protected void customizeCellRenderer(@NotNull JList<? extends GeminiBatchJob> list, GeminiBatchJob job, int index, boolean selected, boolean hasFocus) {
+                if (job == null) {
+                    append("No batch jobs", SimpleTextAttributes.GRAYED_ATTRIBUTES);
+                    return;
+                }
+                append(new SimpleDateFormat("MM-dd HH:mm").format(new Date(job.createdAt)) + "  ");
+                String template = job.promptTemplate.replace('\n', ' ');
+                append(template.length() > 60 ? template.substring(0, 57) + "..." : template);
+                append("  " + job.status, SimpleTextAttributes.GRAYED_ATTRIBUTES);
+            }
+        });
+        jobComboBox.addActionListener(e -> showJob((GeminiBatchJob) jobComboBox.getSelectedItem()));
+        JPanel buttons = new JPanel(new FlowLayout(FlowLayout.RIGHT, JBUI.scale(3), 0));
+        buttons.add(resumeButton);
+        buttons.add(cancelButton);
+        buttons.add(removeButton);
+        resumeButton.addActionListener(e -> {
+            GeminiBatchJob job = (GeminiBatchJob) jobComboBox.getSelectedItem();
+            if (job != null) batchJobService.resumeJob(job);
+        });
+        cancelButton.addActionListener(e -> {
+            GeminiBatchJob job = (GeminiBatchJob) jobComboBox.getSelectedItem();
+            if (job != null) batchJobService.cancelJob(job);
+        });
+        removeButton.addActionListener(e -> {
+            GeminiBatchJob job = (GeminiBatchJob) jobComboBox.getSelectedItem();
+            if (job != null) batchJobService.removeJob(job);
+        });
+        summaryLabel.setForeground(UIUtil.getLabelDisabledForeground());
+        topPanel.add(jobComboBox, BorderLayout.CENTER);
+        topPanel.add(buttons, BorderLayout.EAST);
+        topPanel.add(summaryLabel, BorderLayout.SOUTH);
+        add(topPanel, BorderLayout.NORTH);
+
+        // --- Results list and detail view ---
+        resultsList.setCellRenderer(new ColoredListCellRenderer<GeminiBatchJob.Result>() {
+            @Override
+            protected void customizeCellRenderer(@NotNull JList<? extends GeminiBatchJob.Result> list, GeminiBatchJob.Result result, int index, boolean selected, boolean hasFocus) {
+                setIcon(result.success ? AllIcons.General.InspectionsOK : AllIcons.General.Error);
+                String url = result.fileUrl;
+                append(url.substring(url.lastIndexOf('/') + 1));
+                append(String.format("  %.1f s", result.latencyMillis / 1000.0), SimpleTextAttributes.GRAYED_ATTRIBUTES);
+            }
+        });
+        resultsList.addListSelectionListener(e -> {
+            if (!e.getValueIsAdjusting()) showResult(resultsList.getSelectedValue());
+        });
+        resultsList.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                if (e.getClickCount() == 2) openFile(resultsList.getSelectedValue());
+            }
+        });
+
+        resultPane.setEditable(false);
+        resultPane.setEditorKit(new ChatHtmlEditorKit());
+
+        JBSplitter splitter = new JBSplitter(false, 0.3f);
+        splitter.setFirstComponent(new JBScrollPane(resultsList));
+        splitter.setSecondComponent(new JBScrollPane(resultPane));
+        add(splitter, BorderLayout.CENTER);
+
+        batchJobService.addListener(this::onJobChanged, this);
+        MessageBusConnection connection = ApplicationManager.getApplication().getMessageBus().connect(this);
+        connection.subscribe(LafManagerListener.TOPIC, source -> restyleResult());
+        connection.subscribe(EditorColorsManager.TOPIC, scheme -> restyleResult());
+        reloadJobs(null);
+    }
+
+    private void restyleResult() {
+        resultPane.setDocument(resultPane.getEditorKit().createDefaultDocument()); // Links the new style sheet
+        showResult(resultsList.getSelectedValue());
+    }
+
+    @Override
+    public void dispose() {
+        // The job listener is removed by the platform when this panel is disposed
+    }
+
+    private void onJobChanged(@NotNull GeminiBatchJob job, @Nullable GeminiBatchJob.Result newResult) {
+        GeminiBatchJob selected = (GeminiBatchJob) jobComboBox.getSelectedItem();
+        if (newResult != null) {
+            // Fast path while a job is streaming results: append instead of rebuilding the list
+            if (selected == job) {
+                resultsModel.addElement(newResult);
+                updateSummary(job);
+            }
+            return;
+        }
+        // A new job is selected automatically, status changes and removals keep the current selection
+        boolean isNewJob = ((DefaultComboBoxModel<GeminiBatchJob>) jobComboBox.getModel()).getIndexOf(job) < 0;
+        reloadJobs(isNewJob ? job : selected);
+    }
+
+    private void reloadJobs(@Nullable GeminiBatchJob toSelect) {
+        List<GeminiBatchJob> jobs = batchJobService.getJobs();
+        jobComboBox.setModel(new DefaultComboBoxModel<>(jobs.toArray(new GeminiBatchJob[0])));
+        if (toSelect != null && jobs.contains(toSelect)) {
+            jobComboBox.setSelectedItem(toSelect);
+        } else if (!jobs.isEmpty()) {
+            jobComboBox.setSelectedIndex(0);
+        }
+        showJob((GeminiBatchJob) jobComboBox.getSelectedItem());
+    }
+
+    private void showJob(@Nullable GeminiBatchJob job) {
+        resultsModel.clear();
+        showResult(null);
+        if (job == null) {
+            summaryLabel.setText("Select files in the Project view and use 'Ask Gemini About Files'.");
+            resumeButton.setEnabled(false);
+            cancelButton.setEnabled(false);
+            removeButton.setEnabled(false);
+            return;
+        }
+        for (GeminiBatchJob.Result result : job.getResultsSnapshot()) {
+            resultsModel.addElement(result);
+        }
+        updateSummary(job);
+    }
+
+    private void updateSummary(GeminiBatchJob job) {
+        boolean paused = job.status == GeminiBatchJob.Status.PAUSED;
+        summaryLabel.setText(job.status + (paused ? " (" + job.pauseReason + ")" : "") + " - " + job.getSummary() + " - model " + job.modelId);
+        resumeButton.setEnabled(paused && job.runStartedAt == 0);
+        cancelButton.setEnabled(job.status == GeminiBatchJob.Status.RUNNING || paused);
+        removeButton.setEnabled(true);
+    }
+
+    /**
+     * Renders the result on a pooled thread and shows it, then shows it again once its large code blocks,
+     * emitted plain, are highlighted too.
+     */
+    private void showResult(@Nullable GeminiBatchJob.Result result) {
+        int generation = ++resultGeneration;
+        if (result == null) {
+            resultPane.setText("");
+            return;
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            String html = ChatMarkdownRenderer.getInstance().render(result.text);
+            setResultHtml(generation, html, false);
+            List<String> lazyIds = CodeBlockHighlighter.findLazyBlockIds(html);
+            if (lazyIds.isEmpty()) {
+                return;
+            }
+            for (String id : lazyIds) {
+                CodeBlockHighlighter.HighlightedBlock block = CodeBlockHighlighter.getInstance().highlightLazyBlock(id);
+                if (block != null) {
+                    html = html.replace(block.plainHtml, block.highlightedHtml);
+                }
+            }
+            setResultHtml(generation, html, true);
+        });
+    }
+
+    private void setResultHtml(int generation, String html, boolean keepScroll) {
+        ApplicationManager.getApplication().invokeLater(() -> {
+            if (generation != resultGeneration) {
+                return; // Another result was selected meanwhile
+            }
+            JViewport viewport = (JViewport) SwingUtilities.getAncestorOfClass(JViewport.class, resultPane);
+            Point position = viewport != null ? viewport.getViewPosition() : null;
+            resultPane.setText("<html><body>" + html + "</body></html>");
+            if (keepScroll && position != null) {
+                viewport.validate();
+                viewport.setViewPosition(position);
+            } else {
+                resultPane.setCaretPosition(0);
+            }
+        }, project.getDisposed());
+    }
+
+    private void openFile(@Nullable GeminiBatchJob.Result result) {
+        if (result == null) return;
+        VirtualFile file = VirtualFileManager.getInstance().findFileByUrl(result.fileUrl);
+        if (file != null && file.isValid()) {
+            FileEditorManager.getInstance(project).openFile(file, true);
+        }
+    }
+}
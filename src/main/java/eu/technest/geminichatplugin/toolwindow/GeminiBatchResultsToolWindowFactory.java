@@ -0,0 +1,22 @@
+package eu.technest.geminichatplugin.toolwindow;
+
+import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.Project;
+import com.intellij.openapi.wm.ToolWindow;
+import com.intellij.openapi.wm.ToolWindowFactory;
+import com.intellij.ui.content.Content;
+import com.intellij.ui.content.ContentFactory;
+import org.jetbrains.annotations.NotNull;
+
+public class GeminiBatchResultsToolWindowFactory implements ToolWindowFactory, DumbAware {
+
+    public static final String TOOL_WINDOW_ID = "Gemini Batch Results";
+
+    @Override
+    public void createToolWindowContent(@NotNull Project project, @NotNull ToolWindow toolWindow) {
+        GeminiBatchResultsPanel resultsPanel = new GeminiBatchResultsPanel(project);
+        Content content = ContentFactory.getInstance().createContent(resultsPanel, "", false);
+        content.setDisposer(resultsPanel);
+        toolWindow.getContentManager().addContent(content);
+    }
+}
@@ -1,75 +1,220 @@
 package eu.technest.geminichatplugin.toolwindow; // YOUR BASE PACKAGE
 
 import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
+import com.intellij.ide.ui.LafManagerListener;
 import com.intellij.openapi.actionSystem.ActionManager;
 import com.intellij.openapi.actionSystem.ActionPlaces;
 import com.intellij.openapi.actionSystem.ActionToolbar;
 import com.intellij.openapi.actionSystem.DefaultActionGroup;
+import com.intellij.openapi.Disposable;
+import com.intellij.icons.AllIcons;
 import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.diagnostic.Logger;
+import com.intellij.openapi.editor.colors.EditorColorsManager;
+import com.intellij.openapi.fileChooser.FileChooser;
+import com.intellij.openapi.fileChooser.FileChooserDescriptorFactory;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.ui.JBMenuItem;
 import com.intellij.openapi.ui.JBPopupMenu;
 import com.intellij.openapi.ui.Messages;
+import com.intellij.openapi.ui.VerticalFlowLayout;
+import com.intellij.openapi.ui.popup.JBPopupFactory;
+import com.intellij.openapi.util.text.StringUtil;
+import com.intellij.openapi.vfs.VirtualFile;
 import com.intellij.ui.AnimatedIcon;
+import com.intellij.ui.DocumentAdapter;
+import com.intellij.ui.JBColor;
 import com.intellij.ui.components.JBLabel;
 import com.intellij.ui.components.JBScrollPane;
 import com.intellij.ui.components.JBTextArea;
 import com.intellij.ui.components.JBTextField;
+import com.intellij.util.Alarm;
+import com.intellij.util.concurrency.AppExecutorUtil;
+import com.intellij.util.messages.MessageBusConnection;
 import com.intellij.util.ui.JBFont;
 import com.intellij.util.ui.JBUI;
 import com.intellij.util.ui.UIUtil;
-import com.vladsch.flexmark.html.HtmlRenderer;
-import com.vladsch.flexmark.parser.Parser;
-import com.vladsch.flexmark.util.data.MutableDataSet;
 
 import eu.technest.geminichatplugin.css.Css;
+import eu.technest.geminichatplugin.service.ChatMemoryGovernor;
+import eu.technest.geminichatplugin.service.FileContextTracker;
 import eu.technest.geminichatplugin.service.GeminiApiService; // YOUR BASE PACKAGE
+import eu.technest.geminichatplugin.service.GeminiFileUploadService;
+import eu.technest.geminichatplugin.service.GeminiModelCatalogService;
+import eu.technest.geminichatplugin.service.GeminiOutboxEntry;
+import eu.technest.geminichatplugin.service.GeminiOutboxService;
+import eu.technest.geminichatplugin.service.GeminiTraceRecorder;
+import eu.technest.geminichatplugin.service.GeminiUploadedFile;
+import eu.technest.geminichatplugin.service.LatencyBudgetPlanner;
+import eu.technest.geminichatplugin.service.TokenAccountant;
+import eu.technest.geminichatplugin.settings.GeminiModelInfo;
 import eu.technest.geminichatplugin.settings.GeminiSettingsService; // YOUR BASE PACKAGE
+import eu.technest.geminichatplugin.tools.GeminiToolExecutor;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 
 import javax.swing.*;
-import javax.swing.text.html.HTMLEditorKit;
-import javax.swing.text.html.StyleSheet;
+import javax.swing.event.DocumentEvent;
+import javax.swing.text.BadLocationException;
+import javax.swing.text.Element;
+import javax.swing.text.html.HTMLDocument;
 import java.awt.*;
 import java.awt.event.ActionEvent;
+import java.awt.event.HierarchyEvent;
 import java.awt.event.MouseAdapter;
 import java.awt.event.MouseEvent;
+import java.awt.geom.Rectangle2D;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
 
-import static eu.technest.geminichatplugin.css.Css.toHex;
-
-public class GeminiChatPanel extends JPanel {
+public class GeminiChatPanel extends JPanel implements Disposable, ChatMemoryGovernor.Spillable {
     private static final Logger LOG = Logger.getInstance(GeminiChatPanel.class);
 
     private final Project project;
     private final JBTextArea inputField;
     private final JButton sendButton;
+    private final JButton attachButton;
+    private final JBLabel attachmentsLabel = new JBLabel();
+    private final List<Path> pendingAttachments = new ArrayList<>(); // Uploaded through the Files API when the message is sent
     private final GeminiSettingsService settingsService = GeminiSettingsService.getInstance();
     private final GeminiApiService geminiApiService;
-    private final Css css;
+    private final GeminiModelCatalogService modelCatalogService = GeminiModelCatalogService.getInstance();
+    private final TokenAccountant tokenAccountant = new TokenAccountant();
+    private final FileContextTracker fileContextTracker = new FileContextTracker();
+    private final LatencyBudgetPlanner latencyBudgetPlanner;
+    private final Alarm tokenCounterAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, this);
+    private final Alarm prefetchAlarm = new Alarm(Alarm.ThreadToUse.POOLED_THREAD, this);
+    private volatile PreparedHistory preparedHistory; // Built while typing, used or dropped by the next send
+    private volatile long turnStartedAt; // Of the first request of the current turn, tool rounds included in its latency
+    private final JBLabel tokenCounterLabel = new JBLabel(" ");
+    private final JBLabel latencyBudgetLabel = new JBLabel();
+    private int budgetAnswers = 0; // EDT only
+    private int budgetAnswersMet = 0; // EDT only
 
     private final List<JsonObject> conversationHistory = new ArrayList<>();
 
     private final JEditorPane chatPane;
-    private final Parser markdownParser;
-    private final HtmlRenderer htmlRenderer;
-    private final StringBuilder chatHtmlContent = new StringBuilder("<html><body style='word-wrap: break-word;'>");
+    private final ChatMarkdownRenderer markdownRenderer = ChatMarkdownRenderer.getInstance();
+    private final CodeBlockHighlighter codeBlockHighlighter = CodeBlockHighlighter.getInstance();
+    private static final String CHAT_HTML_START = "<html><body>";
+    private static final String ENTRY_START = "<div class='" + Css.ENTRY_CLASS + "'>";
+    private static final int ENTRIES_KEPT_IN_MEMORY = 10;
+    private static final int RELOAD_PAGE_ENTRIES = 10; // Spilled entries brought back per scroll to the top
+    private static final int HISTORY_KEPT_IN_MEMORY = 4;
+    private static final int MAX_TOOL_ROUNDS = 5;
+    private static final int PREFETCH_DELAY_MS = 400; // Typing pause before the next request is prepared
+    private static final int MAX_REPLAY_CHOICES = 30; // Recorded traces offered for replay, newest first
+    private final StringBuilder chatHtmlContent = new StringBuilder(CHAT_HTML_START);
+    private final ChatUiUpdateScheduler uiScheduler = new ChatUiUpdateScheduler(this::applyUiFrame, this);
+    private int streamingEntryStart = -1; // Range of the answer that is currently streaming in chatHtmlContent
+    private int streamingEntryEnd = -1;
+    private final Set<String> lazyCodeBlockIds = new LinkedHashSet<>(); // Large code blocks that are shown plain until visible
+    private final Alarm lazyHighlightAlarm = new Alarm(Alarm.ThreadToUse.SWING_THREAD, this);
+
+    // Memory governor: old entries and history moved to disk. All spill file IO runs in order on spillExecutor.
+    private final ChatMemoryGovernor memoryGovernor = ChatMemoryGovernor.getInstance();
+    private final ChatSpillStore spillStore = new ChatSpillStore();
+    private final ExecutorService spillExecutor = AppExecutorUtil.createBoundedApplicationPoolExecutor("Gemini Chat Spill", 1);
+    private String spilledPlaceholder = ""; // Stands in for the spilled entries right after CHAT_HTML_START
+    private final List<Long> spilledEntryOffsets = new ArrayList<>(); // Byte offset of each spilled entry in the HTML spill file, oldest first
+    private long spilledHtmlBytes = 0;
+    private int spillGeneration = 0;
+    private boolean reloadingSpilledEntries = false;
+    private int reloadedRegionHeight = 0; // Reloaded entries at the top stay in memory while the view is above this, 0 if none
+    private boolean settingChatText = false; // setText scrolls to the top for a moment, which is no reload request
+    private List<SpilledTurn> spilledTurns = Collections.emptyList(); // Oldest first; replaced, never modified, so snapshots are cheap
+    private long spilledHistoryBytes = 0;
+    private long historyChars = 0;
+    private volatile long footprintBytes = 0;
 
     private final JPanel loadingIndicatorPanel;
     private final JBLabel currentModelLabel;
 
+    private boolean renderPending = false; // Content changed while this tab was hidden
+    private volatile boolean requestInFlight = false;
+    private final String panelId = UUID.randomUUID().toString(); // Identifies this tab in the outbox
+    private final GeminiOutboxService outboxService;
+    private Consumer<Boolean> busyListener = busy -> {};
+
+    /**
+     * A request history prepared while typing. Valid while the tab's history is the one it was built from.
+     */
+    private static final class PreparedHistory {
+        final List<JsonObject> source; // In-memory history it was built from, compared by identity
+        final List<SpilledTurn> spilledTurns;
+        final String modelId;
+        final List<JsonObject> requestHistory;
+        final String json; // requestHistory serialized, comma-separated without the enclosing brackets
+        final long chars; // Held only by this: the JSON and the spilled turns read back
+
+        PreparedHistory(List<JsonObject> source, List<SpilledTurn> spilledTurns, String modelId, List<JsonObject> requestHistory, String json) {
+            this.source = source;
+            this.spilledTurns = spilledTurns;
+            this.modelId = modelId;
+            this.requestHistory = requestHistory;
+            this.json = json;
+            long readBackChars = 0;
+            int readBack = requestHistory.size() - source.size();
+            for (int i = spilledTurns.size() - 1; i >= 0 && readBack > 0; i--) {
+                readBack -= spilledTurns.get(i).entries;
+                readBackChars += spilledTurns.get(i).chars;
+            }
+            this.chars = json.length() + readBackChars;
+        }
+
+        boolean matches(List<JsonObject> history, List<SpilledTurn> spilled, String model) {
+            if (spilled != spilledTurns || !model.equals(modelId) || history.size() != source.size()) {
+                return false;
+            }
+            for (int i = 0; i < history.size(); i++) {
+                if (history.get(i) != source.get(i)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * A history turn moved to disk: where its lines start in the spill file, how many entries it has and their
+     * estimated tokens, so requests can leave out the turns that do not fit without reading them back.
+     */
+    private static final class SpilledTurn {
+        final long offset;
+        final int entries;
+        final long chars;
+        final int tokens;
+
+        SpilledTurn(long offset, int entries, long chars, int tokens) {
+            this.offset = offset;
+            this.entries = entries;
+            this.chars = chars;
+            this.tokens = tokens;
+        }
+    }
+
     public GeminiChatPanel(Project project) {
         this.project = project;
-        this.geminiApiService = new GeminiApiService();
+        this.geminiApiService = GeminiApiService.getInstance(); // One HTTP client shared by all tabs
+        this.latencyBudgetPlanner = new LatencyBudgetPlanner(geminiApiService.getLatencyTracker(), modelCatalogService);
+        this.outboxService = GeminiOutboxService.getInstance(project);
         setLayout(new BorderLayout());
 
-        MutableDataSet options = new MutableDataSet();
-        markdownParser = Parser.builder(options).build();
-        htmlRenderer = HtmlRenderer.builder(options).build();
-
         // --- Toolbar for Settings and Model Display ---
         JPanel topToolbarPanel = new JPanel(new BorderLayout(JBUI.scale(10), 0));
         topToolbarPanel.setBorder(JBUI.Borders.empty(JBUI.scale(2), JBUI.scale(5), JBUI.scale(3), JBUI.scale(5))); // top, left, bottom, right padding
@@ -101,20 +246,16 @@ public class GeminiChatPanel extends JPanel {
         chatPane.setEditable(false);
         chatPane.setContentType("text/html");
 
-        HTMLEditorKit kit = new HTMLEditorKit();
-        chatPane.setEditorKit(kit);
-
-        StyleSheet styleSheet = kit.getStyleSheet();
-        this.css = new Css();
-        css.setChatPanelCss(styleSheet);
-
-
+        chatPane.setEditorKit(new ChatHtmlEditorKit()); // Links the shared style sheet of the current theme
         chatPane.setText(chatHtmlContent.toString() + "</body></html>");
 
         JBPopupMenu popupMenu = new JBPopupMenu();
         JBMenuItem clearChatItem = new JBMenuItem("Clear Chat");
         clearChatItem.addActionListener(e -> clearChat());
         popupMenu.add(clearChatItem);
+        JBMenuItem replayTraceItem = new JBMenuItem("Replay Recorded Response...");
+        replayTraceItem.addActionListener(e -> chooseTraceToReplay());
+        popupMenu.add(replayTraceItem);
         chatPane.addMouseListener(new MouseAdapter() {
             public void mousePressed(MouseEvent e) { maybeShowPopup(e); }
             public void mouseReleased(MouseEvent e) { maybeShowPopup(e); }
@@ -133,6 +274,8 @@ public class GeminiChatPanel extends JPanel {
         inputField.setLineWrap(true);
         inputField.setWrapStyleWord(true);
         sendButton = new JButton("Send");
+        attachButton = new JButton(AllIcons.General.Add);
+        attachButton.setToolTipText("Attach files (screenshots, logs, documents) to the next message");
         setUpInputPanel(inputSectionPanel);
 
         // --- JLayeredPane for Chat and Input ---
@@ -140,6 +283,19 @@ public class GeminiChatPanel extends JPanel {
         layeredPane.setLayout(new BorderLayout());
 
         JBScrollPane scrollPane = new JBScrollPane(chatPane);
+        scrollPane.getViewport().addChangeListener(e -> scheduleLazyHighlight());
+        scrollPane.getVerticalScrollBar().addAdjustmentListener(e -> {
+            if (settingChatText) {
+                return;
+            }
+            if (e.getValue() == 0) {
+                reloadSpilledEntriesAtTop();
+            } else if (reloadedRegionHeight > 0 && e.getValue() > reloadedRegionHeight) {
+                // Scrolled down past the reloaded entries, they may go back to disk
+                reloadedRegionHeight = 0;
+                updateFootprint();
+            }
+        });
         layeredPane.add(scrollPane, BorderLayout.CENTER, JLayeredPane.DEFAULT_LAYER);
         layeredPane.add(inputSectionPanel, BorderLayout.SOUTH, JLayeredPane.PALETTE_LAYER);
 
@@ -147,6 +303,14 @@ public class GeminiChatPanel extends JPanel {
 
         // --- Event Listeners ---
         sendButton.addActionListener(this::sendMessage);
+        attachButton.addActionListener(e -> chooseAttachments());
+        attachmentsLabel.addMouseListener(new MouseAdapter() {
+            @Override
+            public void mouseClicked(MouseEvent e) {
+                pendingAttachments.clear();
+                updateAttachmentsLabel();
+            }
+        });
         
         // For multi-line text area, use Ctrl+Enter to send message
         inputField.addKeyListener(new java.awt.event.KeyAdapter() {
@@ -157,6 +321,13 @@ public class GeminiChatPanel extends JPanel {
                 }
             }
         });
+        inputField.getDocument().addDocumentListener(new DocumentAdapter() {
+            @Override
+            protected void textChanged(@NotNull DocumentEvent e) {
+                scheduleTokenCount();
+                schedulePrefetch();
+            }
+        });
 
         // --- Initial Message and Model Label Update ---
         // Defer this until the panel is potentially visible or after a short delay
@@ -165,6 +336,283 @@ public class GeminiChatPanel extends JPanel {
             updateCurrentModelLabel();
             appendMessage(SenderType.SYSTEM, "Welcome! Using model: " + settingsService.getSelectedModelId() + "\nTip: Press Ctrl+Enter to send message", false);
         });
+
+        // Hidden tabs only update their model; render once the tab is shown again
+        addHierarchyListener(e -> {
+            if ((e.getChangeFlags() & HierarchyEvent.SHOWING_CHANGED) != 0 && isShowing() && renderPending) {
+                chatPanesetTextPreserveScroll(chatHtmlContent.toString());
+            }
+        });
+
+        // Model metadata is served from the cached catalog; refresh it in the background if it is stale
+        modelCatalogService.addListener(models -> updateCurrentModelLabel(), this);
+        modelCatalogService.revalidateIfStale(settingsService.getGeminiApiKey());
+
+        memoryGovernor.register(this, this);
+        outboxService.registerTarget(panelId, createReplayTarget(), this);
+
+        // A fresh document picks up the style sheet of the new theme or editor color scheme
+        MessageBusConnection connection = ApplicationManager.getApplication().getMessageBus().connect(this);
+        connection.subscribe(LafManagerListener.TOPIC, source -> restyleChat());
+        connection.subscribe(EditorColorsManager.TOPIC, scheme -> restyleChat());
+    }
+
+    private void restyleChat() {
+        chatPane.setDocument(chatPane.getEditorKit().createDefaultDocument());
+        chatPanesetTextPreserveScroll(chatHtmlContent.toString());
+    }
+
+    /**
+     * Notified on the EDT when a request of this tab starts or finishes, e.g. to mark the tab as busy.
+     */
+    public void setBusyListener(@NotNull Consumer<Boolean> busyListener) {
+        this.busyListener = busyListener;
+    }
+
+    @Override
+    public void dispose() {
+        // Listeners registered with this panel as parent disposable are removed by the platform
+        LOG.debug("Chat UI updates: " + uiScheduler.getQueuedUpdates() + " queued, " + uiScheduler.getAppliedFrames() + " frames applied");
+        spillExecutor.execute(spillStore::deleteAll);
+    }
+
+    @Override
+    public long getFootprintBytes() {
+        return footprintBytes;
+    }
+
+    private void updateFootprint() {
+        footprintBytes = computeFootprintBytes();
+        memoryGovernor.footprintChanged();
+    }
+
+    /**
+     * Moves the oldest rendered entries, then the oldest history turns to disk. The latest entries and turns
+     * and a streaming answer always stay in memory.
+     */
+    @Override
+    public long spill(long bytesToFree) {
+        long freed = dropPreparedHistory(); // Cheapest, the next typing pause prepares it again
+        if (freed < bytesToFree) {
+            freed += spillOldEntries(bytesToFree - freed);
+        }
+        if (freed < bytesToFree) {
+            freed += spillOldHistory(bytesToFree - freed);
+        }
+        footprintBytes = computeFootprintBytes();
+        return freed;
+    }
+
+    private long computeFootprintBytes() {
+        PreparedHistory prepared = preparedHistory;
+        // UTF-16 chars, the parsed document not counted
+        return 2L * (chatHtmlContent.length() + historyChars + (prepared != null ? prepared.chars : 0));
+    }
+
+    /**
+     * @return the bytes freed
+     */
+    private long dropPreparedHistory() {
+        PreparedHistory prepared = preparedHistory;
+        preparedHistory = null;
+        return prepared != null ? 2L * prepared.chars : 0;
+    }
+
+    private long spillOldEntries(long bytesToFree) {
+        if (reloadedRegionHeight > 0) {
+            return 0; // The oldest entries are being read; newer ones cannot go to disk before them
+        }
+        int regionStart = CHAT_HTML_START.length() + spilledPlaceholder.length();
+        int regionEnd = streamingEntryStart >= 0 ? streamingEntryStart : chatHtmlContent.length();
+        List<Integer> entryStarts = new ArrayList<>();
+        for (int i = chatHtmlContent.indexOf(ENTRY_START, regionStart); i >= 0 && i < regionEnd; i = chatHtmlContent.indexOf(ENTRY_START, i + 1)) {
+            entryStarts.add(i);
+        }
+        int spillableEntries = entryStarts.size() - ENTRIES_KEPT_IN_MEMORY;
+        if (spillableEntries <= 0) {
+            return 0;
+        }
+        int count = 0;
+        int cut = regionStart;
+        while (count < spillableEntries && 2L * (cut - regionStart) < bytesToFree) {
+            int entryStart = cut;
+            count++;
+            cut = entryStarts.get(count); // Start of the first entry that stays
+            spilledEntryOffsets.add(spilledHtmlBytes);
+            spilledHtmlBytes += chatHtmlContent.substring(entryStart, cut).getBytes(StandardCharsets.UTF_8).length;
+        }
+        String spilledHtml = chatHtmlContent.substring(regionStart, cut);
+        spillExecutor.execute(() -> {
+            try {
+                spillStore.appendHtml(spilledHtml);
+            } catch (IOException e) {
+                LOG.warn("Could not move old chat entries to disk, they are dropped", e);
+            }
+        });
+        spillGeneration++;
+        String placeholder = spilledPlaceholder(spilledEntryOffsets.size());
+        int oldLength = chatHtmlContent.length();
+        chatHtmlContent.replace(CHAT_HTML_START.length(), cut, placeholder);
+        spilledPlaceholder = placeholder;
+        shiftStreamingEntry(chatHtmlContent.length() - oldLength);
+        chatPanesetTextPreserveScroll(chatHtmlContent.toString());
+        return 2L * (oldLength - chatHtmlContent.length());
+    }
+
+    private static String spilledPlaceholder(int spilledEntries) {
+        if (spilledEntries == 0) {
+            return "";
+        }
+        return ENTRY_START.replace(">", " id='gemini-spilled'>") + "<span class='" + SenderType.SYSTEM.getCssClass() + "'>"
+                + SenderType.SYSTEM.getDisplayName() + ":</span> <p>" + spilledEntries
+                + " older messages were moved to disk to save memory. Scroll to the top to load them.</p></div>";
+    }
+
+    private long spillOldHistory(long bytesToFree) {
+        int spillableEntries = conversationHistory.size() - HISTORY_KEPT_IN_MEMORY;
+        // Whole turns, so the history keeps starting with a user prompt and tool calls stay with their responses
+        List<SpilledTurn> turns = new ArrayList<>(spilledTurns);
+        int end = 0;
+        long chars = 0;
+        long offset = spilledHistoryBytes;
+        while (end < spillableEntries && 2 * chars < bytesToFree) {
+            int next = nextTurnStart(conversationHistory, end);
+            if (next > spillableEntries) {
+                break;
+            }
+            int tokens = 0;
+            long turnChars = 0;
+            long bytes = 0;
+            for (int i = end; i < next; i++) {
+                JsonObject entry = conversationHistory.get(i);
+                String line = entry.toString();
+                turnChars += line.length();
+                bytes += line.getBytes(StandardCharsets.UTF_8).length + 1; // As ChatSpillStore writes it
+                tokens += tokenAccountant.estimateEntry(entry);
+            }
+            turns.add(new SpilledTurn(offset, next - end, turnChars, tokens));
+            chars += turnChars;
+            offset += bytes;
+            end = next;
+        }
+        List<JsonObject> spilled = new ArrayList<>(conversationHistory.subList(0, end));
+        if (spilled.isEmpty()) {
+            return 0;
+        }
+        conversationHistory.subList(0, spilled.size()).clear();
+        spilledTurns = Collections.unmodifiableList(turns);
+        spilledHistoryBytes = offset;
+        historyChars -= chars;
+        spillExecutor.execute(() -> {
+            try {
+                spillStore.appendHistory(spilled);
+            } catch (IOException e) {
+                LOG.warn("Could not move old chat history to disk, it is dropped", e);
+            }
+        });
+        return 2 * chars;
+    }
+
+    /**
+     * Brings the newest page of spilled entries back once the user scrolls to the very top of the chat. The view
+     * stays where it was, so scrolling up reveals the page and reaching the top again loads the next one. Reloaded
+     * entries are not spilled again until the user scrolls down past them.
+     */
+    private void reloadSpilledEntriesAtTop() {
+        if (spilledEntryOffsets.isEmpty() || reloadingSpilledEntries) {
+            return;
+        }
+        reloadingSpilledEntries = true;
+        int generation = spillGeneration;
+        int pageStart = Math.max(0, spilledEntryOffsets.size() - RELOAD_PAGE_ENTRIES);
+        long offset = spilledEntryOffsets.get(pageStart);
+        spillExecutor.execute(() -> {
+            String spilledHtml;
+            try {
+                spilledHtml = spillStore.readHtml(offset);
+            } catch (IOException e) {
+                LOG.warn("Could not load old chat entries from disk", e);
+                spilledHtml = "";
+            }
+            String html = spilledHtml;
+            uiScheduler.runInFrame(() -> {
+                reloadingSpilledEntries = false;
+                if (generation != spillGeneration) {
+                    return; // Spilled again meanwhile; the next scroll to the top retries
+                }
+                // The page is the end of the spill file: cut it off there, later spills append after what is left
+                spilledEntryOffsets.subList(pageStart, spilledEntryOffsets.size()).clear();
+                spilledHtmlBytes = offset;
+                spillExecutor.execute(() -> {
+                    try {
+                        spillStore.truncateHtml(offset);
+                    } catch (IOException e) {
+                        LOG.warn("Could not shorten the chat spill file", e);
+                    }
+                });
+                String placeholder = spilledPlaceholder(spilledEntryOffsets.size());
+                int oldLength = chatHtmlContent.length();
+                chatHtmlContent.replace(CHAT_HTML_START.length(), CHAT_HTML_START.length() + spilledPlaceholder.length(), placeholder + html);
+                shiftStreamingEntry(chatHtmlContent.length() - oldLength);
+                lazyCodeBlockIds.addAll(CodeBlockHighlighter.findLazyBlockIds(html));
+                spilledPlaceholder = placeholder;
+                spillGeneration++;
+                setTextKeepingView(chatHtmlContent.toString());
+                updateFootprint();
+            });
+        });
+    }
+
+    /**
+     * Sets the text after entries were inserted at the top, scrolled so the content in view stays in view.
+     */
+    private void setTextKeepingView(String html) {
+        JScrollPane scrollPane = (JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class, chatPane);
+        if (scrollPane == null) {
+            chatPanesetTextPreserveScroll(html);
+            return;
+        }
+        JScrollBar verticalScrollBar = scrollPane.getVerticalScrollBar();
+        int oldMaximum = verticalScrollBar.getMaximum();
+        chatPanesetTextPreserveScroll(html);
+        int inserted = Math.max(0, verticalScrollBar.getMaximum() - oldMaximum);
+        reloadedRegionHeight += inserted;
+        settingChatText = true;
+        try {
+            verticalScrollBar.setValue(verticalScrollBar.getValue() + inserted);
+        } finally {
+            settingChatText = false;
+        }
+    }
+
+    /**
+     * Reads the newest {@code count} spilled turns back. Runs behind any pending spill writes; call off the EDT.
+     */
+    private List<JsonObject> readSpilledTurns(List<SpilledTurn> turns, int count) {
+        if (count == 0) {
+            return new ArrayList<>();
+        }
+        List<SpilledTurn> read = turns.subList(turns.size() - count, turns.size());
+        int entries = 0;
+        for (SpilledTurn turn : read) {
+            entries += turn.entries;
+        }
+        int entryCount = entries;
+        try {
+            return spillExecutor.submit(() -> spillStore.readHistory(read.get(0).offset, entryCount)).get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            LOG.warn("Could not load old chat history from disk, sending without it", e.getCause());
+        }
+        return new ArrayList<>();
+    }
+
+    private void shiftStreamingEntry(int shift) {
+        if (streamingEntryStart >= 0) {
+            streamingEntryStart += shift;
+            streamingEntryEnd += shift;
+        }
     }
 
     private void setUpInputPanel(JPanel inputSectionPanel) {
@@ -175,14 +623,30 @@ public class GeminiChatPanel extends JPanel {
         
         sendButton.setPreferredSize(new Dimension(JBUI.scale(70), JBUI.scale(28)));
     
-        // Create a panel for the send button (align to top)
-        JPanel buttonPanel = new JPanel(new FlowLayout(FlowLayout.CENTER));
+        attachButton.setPreferredSize(new Dimension(JBUI.scale(70), JBUI.scale(24)));
+
+        // Create a panel for the send and attach buttons (align to top)
+        JPanel buttonPanel = new JPanel(new VerticalFlowLayout(VerticalFlowLayout.TOP, JBUI.scale(5), JBUI.scale(2), false, false));
         buttonPanel.add(sendButton);
+        buttonPanel.add(attachButton);
     
         JPanel actualInputPanel = new JPanel(new BorderLayout());
         actualInputPanel.add(scrollPane, BorderLayout.CENTER);
         actualInputPanel.add(buttonPanel, BorderLayout.EAST);
         actualInputPanel.setBorder(JBUI.Borders.emptyTop(JBUI.scale(5)));
+        tokenCounterLabel.setFont(JBFont.small());
+        tokenCounterLabel.setForeground(UIUtil.getLabelDisabledForeground());
+        latencyBudgetLabel.setFont(JBFont.small());
+        latencyBudgetLabel.setVisible(false); // Until an answer was sent with a budget
+        JPanel statusPanel = new JPanel(new BorderLayout());
+        statusPanel.add(tokenCounterLabel, BorderLayout.WEST);
+        statusPanel.add(latencyBudgetLabel, BorderLayout.EAST);
+        actualInputPanel.add(statusPanel, BorderLayout.SOUTH);
+        attachmentsLabel.setFont(JBFont.small());
+        attachmentsLabel.setIcon(AllIcons.FileTypes.Any_type);
+        attachmentsLabel.setToolTipText("Click to remove the attachments");
+        attachmentsLabel.setVisible(false);
+        actualInputPanel.add(attachmentsLabel, BorderLayout.NORTH);
 
         inputSectionPanel.add(loadingIndicatorPanel, BorderLayout.NORTH);
         inputSectionPanel.add(actualInputPanel, BorderLayout.CENTER);
@@ -218,90 +682,196 @@ public class GeminiChatPanel extends JPanel {
         }
 
         currentModelLabel.setText("Model: " + displayText);
-        currentModelLabel.setToolTipText("Current Model: " + modelId);
+        GeminiModelInfo modelInfo = modelCatalogService.getModel(modelId);
+        if (modelInfo != null) {
+            currentModelLabel.setToolTipText(String.format("Current Model: %s (input %,d / output %,d tokens)",
+                    modelId, modelInfo.inputTokenLimit, modelInfo.outputTokenLimit));
+        } else {
+            currentModelLabel.setToolTipText("Current Model: " + modelId);
+        }
         LOG.debug("Updated currentModelLabel. Display: '" + displayText + "', Full: '" + modelId + "'");
     }
 
     private void clearChat() {
-        ApplicationManager.getApplication().invokeLater(() -> {
+        uiScheduler.runInFrame(() -> {
             chatHtmlContent.setLength(0);
-            chatHtmlContent.append("<html><body style='word-wrap: break-word;'>");
-            appendMessage(SenderType.SYSTEM, "Chat cleared.", false);
+            chatHtmlContent.append(CHAT_HTML_START);
+            streamingEntryStart = -1;
+            lazyCodeBlockIds.clear();
             conversationHistory.clear();
-            chatPane.setText(chatHtmlContent.toString() + "</body></html>");
+            historyChars = 0;
+            spilledPlaceholder = "";
+            spilledEntryOffsets.clear();
+            spilledHtmlBytes = 0;
+            reloadedRegionHeight = 0;
+            spillGeneration++;
+            spilledTurns = Collections.emptyList();
+            spilledHistoryBytes = 0;
+            dropPreparedHistory();
+            spillExecutor.execute(spillStore::deleteAll);
+            tokenAccountant.clear();
+            fileContextTracker.clear();
+            scheduleTokenCount();
         });
+        appendMessage(SenderType.SYSTEM, "Chat cleared.", false);
     }
 
     private void setLoading(boolean isLoading) {
-        ApplicationManager.getApplication().invokeLater(() -> {
-            loadingIndicatorPanel.setVisible(isLoading);
-            setInteractionEnabled(!isLoading);
+        requestInFlight = isLoading;
+        uiScheduler.setLoading(isLoading);
+    }
+
+    /**
+     * Applies one coalesced frame of UI updates. Runs on the EDT; the HTML is re-rendered at most once per frame.
+     */
+    private void applyUiFrame(List<ChatUiUpdateScheduler.Update> updates, @Nullable Boolean loading) {
+        boolean contentChanged = false;
+        for (ChatUiUpdateScheduler.Update update : updates) {
+            switch (update.type) {
+                case RUN:
+                    update.task.run();
+                    break;
+                case APPEND_ENTRY:
+                    chatHtmlContent.append(update.html);
+                    lazyCodeBlockIds.addAll(CodeBlockHighlighter.findLazyBlockIds(update.html));
+                    contentChanged = true;
+                    break;
+                case STREAMING_ENTRY:
+                    if (streamingEntryStart < 0) {
+                        streamingEntryStart = chatHtmlContent.length();
+                        streamingEntryEnd = streamingEntryStart;
+                    }
+                    chatHtmlContent.replace(streamingEntryStart, streamingEntryEnd, update.html);
+                    streamingEntryEnd = streamingEntryStart + update.html.length();
+                    if (update.streamFinished) {
+                        streamingEntryStart = -1;
+                        lazyCodeBlockIds.addAll(CodeBlockHighlighter.findLazyBlockIds(update.html));
+                    }
+                    contentChanged = true;
+                    break;
+                case REPLACE_FRAGMENT:
+                    int fragmentStart = chatHtmlContent.indexOf(update.fragment);
+                    if (fragmentStart >= 0) {
+                        chatHtmlContent.replace(fragmentStart, fragmentStart + update.fragment.length(), update.html);
+                        if (fragmentStart < streamingEntryStart) {
+                            shiftStreamingEntry(update.html.length() - update.fragment.length());
+                        }
+                        contentChanged = true;
+                    }
+                    break;
+            }
+        }
+        if (loading != null) {
+            loadingIndicatorPanel.setVisible(loading);
+            busyListener.accept(loading);
+            setInteractionEnabled(!loading);
+        }
+        if (contentChanged) {
+            chatPanesetTextPreserveScroll(chatHtmlContent.toString());
+            scheduleLazyHighlight();
+            updateFootprint();
+        }
+    }
+
+    private void scheduleLazyHighlight() {
+        if (lazyCodeBlockIds.isEmpty() || lazyHighlightAlarm.isDisposed()) {
+            return;
+        }
+        lazyHighlightAlarm.cancelAllRequests();
+        lazyHighlightAlarm.addRequest(this::highlightVisibleCodeBlocks, 150);
+    }
+
+    /**
+     * Highlights the large code blocks that are currently scrolled into view. Lexing runs on a pooled thread,
+     * the highlighted block then replaces the plain one in the next UI frame.
+     */
+    private void highlightVisibleCodeBlocks() {
+        if (!isShowing() || !(chatPane.getDocument() instanceof HTMLDocument)) {
+            return;
+        }
+        HTMLDocument document = (HTMLDocument) chatPane.getDocument();
+        Rectangle visibleRect = chatPane.getVisibleRect();
+        List<String> visibleIds = new ArrayList<>();
+        for (Iterator<String> it = lazyCodeBlockIds.iterator(); it.hasNext(); ) {
+            String id = it.next();
+            Element element = document.getElement(id);
+            if (element == null) {
+                it.remove(); // No longer part of the chat
+                continue;
+            }
+            try {
+                Rectangle2D top = chatPane.modelToView2D(element.getStartOffset());
+                Rectangle2D bottom = chatPane.modelToView2D(Math.max(element.getStartOffset(), element.getEndOffset() - 1));
+                if (top != null && bottom != null && top.getY() <= visibleRect.getMaxY() && bottom.getMaxY() >= visibleRect.getY()) {
+                    visibleIds.add(id);
+                    it.remove();
+                }
+            } catch (BadLocationException e) {
+                it.remove();
+            }
+        }
+        if (visibleIds.isEmpty()) {
+            return;
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            for (String id : visibleIds) {
+                CodeBlockHighlighter.HighlightedBlock block = codeBlockHighlighter.highlightLazyBlock(id);
+                if (block != null) {
+                    uiScheduler.replaceFragment(block.plainHtml, block.highlightedHtml);
+                }
+            }
         });
     }
 
     private void appendMessage(SenderType senderType, String messageText, boolean isUserMessageForHistoryIgnored) {
         // isUserMessageForHistoryIgnored is not actively used now as history is managed in sendMessage
-        String htmlMessage = formatMessageToHtml(senderType, messageText);
-
-        String senderColorHex = getSenderColorHex(senderType);
-        String senderStyle = String.format("font-weight: bold; color: %s;", senderColorHex);
-
-        String formattedEntry = String.format(
-                "<div style='margin-bottom: %dpx;'>" +
-                        "  <span style='%s'>%s:</span>" +
-                        "  %s" +
-                        "</div>",
-                JBUI.scale(10),
-                senderStyle,
-                senderType.getDisplayName(),
-                htmlMessage
-        );
+        uiScheduler.appendEntry(formatEntry(senderType, formatMessageToHtml(senderType, messageText)));
+    }
 
-        ApplicationManager.getApplication().invokeLater(() -> {
-            int insertPosition = chatHtmlContent.lastIndexOf("</body>");
-            if (insertPosition != -1) {
-                chatHtmlContent.insert(insertPosition, formattedEntry);
-            } else {
-                chatHtmlContent.append(formattedEntry);
+    private String formatEntry(SenderType senderType, String htmlMessage) {
+        // Styling comes from the shared style sheet, see Css
+        return ENTRY_START + "<span class='" + senderType.getCssClass() + "'>"
+                + senderType.getDisplayName() + ":</span> " + htmlMessage + "</div>";
+    }
+
+    /**
+     * Renders the current text of a streaming answer, for {@link ChatUiUpdateScheduler#updateStreamingEntry}.
+     * Appends to {@code streamedText} must hold its lock.
+     */
+    private Supplier<String> answerHtml(StringBuilder streamedText) {
+        return () -> {
+            String markdown;
+            synchronized (streamedText) {
+                markdown = streamedText.toString();
             }
-            chatPanesetTextPreserveScroll(chatHtmlContent.toString()); // Use helper
-        });
+            return formatEntry(SenderType.GEMINI, formatMessageToHtml(SenderType.GEMINI, markdown));
+        };
+    }
+
+    private Supplier<String> answerHtml(String markdown) {
+        return () -> formatEntry(SenderType.GEMINI, formatMessageToHtml(SenderType.GEMINI, markdown));
     }
 
     private @NotNull String formatMessageToHtml(SenderType senderType, String messageText) {
         String htmlMessage;
         if (senderType == SenderType.GEMINI) {
-            com.vladsch.flexmark.util.ast.Node document = markdownParser.parse(messageText);
-            htmlMessage = htmlRenderer.render(document);
+            htmlMessage = markdownRenderer.render(messageText);
         } else {
-            htmlMessage = messageText.replace("&", "&").replace("<", "<").replace(">", ">");
+            htmlMessage = StringUtil.escapeXmlEntities(messageText);
             htmlMessage = "<p>" + htmlMessage.replace("\n", "<br>") + "</p>"; // Also replace newlines for non-markdown
         }
         return htmlMessage;
     }
 
-    private String getSenderColorHex(SenderType senderType) {
-        String senderColorHex;
-        switch (senderType) {
-            case USER:
-                senderColorHex = toHex(JBUI.CurrentTheme.Link.Foreground.ENABLED);
-                break;
-            case SYSTEM:
-            case ERROR:
-                senderColorHex = toHex(JBUI.CurrentTheme.Label.disabledForeground());
-                break;
-            case GEMINI:
-            default:
-                senderColorHex = toHex(UIUtil.getLabelForeground());
-                break;
-        }
-        return senderColorHex;
-    }
-
     /**
      * Sets text on chatPane and tries to preserve scroll position or scroll to bottom.
      */
     private void chatPanesetTextPreserveScroll(String html) {
+        if (!isShowing()) {
+            renderPending = true; // Skip the expensive HTML layout for hidden tabs
+            return;
+        }
+        renderPending = false;
         JScrollPane scrollPane = (JScrollPane) SwingUtilities.getAncestorOfClass(JScrollPane.class, chatPane);
         JScrollBar verticalScrollBar = null;
         int previousValue = 0;
@@ -316,22 +886,22 @@ public class GeminiChatPanel extends JPanel {
             }
         }
 
-        chatPane.setText(html); // This can reset scroll position
+        settingChatText = true;
+        try {
+            chatPane.setText(html); // This can reset scroll position
 
-        JScrollBar finalVerticalScrollBar = verticalScrollBar; // For use in lambda
-        int finalPreviousValue = previousValue;
-        boolean finalShouldScrollToBottom = shouldScrollToBottom;
-
-        // Restore scroll position after text update
-        SwingUtilities.invokeLater(() -> {
-            if (finalVerticalScrollBar != null) {
-                if (finalShouldScrollToBottom || chatPane.getDocument().getLength() < 500) { // Heuristic: scroll to bottom for short content too
-                    finalVerticalScrollBar.setValue(finalVerticalScrollBar.getMaximum());
+            // Restore scroll position in the same frame: validate lays out the new document synchronously
+            if (scrollPane != null) {
+                scrollPane.validate();
+                if (shouldScrollToBottom || chatPane.getDocument().getLength() < 500) { // Heuristic: scroll to bottom for short content too
+                    verticalScrollBar.setValue(verticalScrollBar.getMaximum());
                 } else {
-                    finalVerticalScrollBar.setValue(Math.min(finalPreviousValue, finalVerticalScrollBar.getMaximum()));
+                    verticalScrollBar.setValue(Math.min(previousValue, verticalScrollBar.getMaximum()));
                 }
             }
-        });
+        } finally {
+            settingChatText = false;
+        }
     }
 
 
@@ -353,8 +923,154 @@ public class GeminiChatPanel extends JPanel {
         appendMessage(SenderType.USER, userInput, true);
         inputField.setText("");
         setLoading(true);
-        ApplicationManager.getApplication().invokeLater(this::updateCurrentModelLabel); // Ensure label is up-to-date
+        updateCurrentModelLabel(); // Ensure label is up-to-date
+
+        List<Path> attachments = new ArrayList<>(pendingAttachments);
+        pendingAttachments.clear();
+        updateAttachmentsLabel();
+        if (!attachments.isEmpty()) {
+            appendMessage(SenderType.SYSTEM, "Attaching " + describeAttachments(attachments), false);
+        }
+
+        JsonObject currentUserContentForHistory = userContent(userInput);
+        List<JsonObject> historySnapshot = new ArrayList<>(conversationHistory); // Copied on the EDT, which owns the history
+        List<SpilledTurn> spilledHistory = spilledTurns;
+        prefetchAlarm.cancelAllRequests();
+        PreparedHistory prepared = preparedHistory;
+        dropPreparedHistory(); // Used now or stale, the answer changes the history
+        long sendStartedAt = System.nanoTime();
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            List<JsonObject> currentRequestHistory;
+            String historyJson = null;
+            if (prepared != null && prepared.matches(historySnapshot, spilledHistory, selectedModel)) {
+                currentRequestHistory = trimHistoryToBudget(new ArrayList<>(prepared.requestHistory), userInput, selectedModel);
+                if (currentRequestHistory.size() == prepared.requestHistory.size()) {
+                    historyJson = prepared.json; // Still fits with the final input
+                }
+            } else {
+                currentRequestHistory = prepareRequestHistory(spilledHistory, historySnapshot, userInput, selectedModel);
+            }
+            List<String> diffedAttachments = new ArrayList<>();
+            for (Path attachment : attachments) {
+                try {
+                    // Files this conversation already holds go out as a diff against the version sent last
+                    JsonObject diffPart = fileContextTracker.diffPart(attachment, currentRequestHistory);
+                    if (diffPart != null) {
+                        currentUserContentForHistory.getAsJsonArray("parts").add(diffPart);
+                        diffedAttachments.add(attachment.getFileName().toString());
+                        continue;
+                    }
+                    String text = fileContextTracker.readDiffableText(attachment);
+                    GeminiUploadedFile uploaded = GeminiFileUploadService.getInstance().upload(apiKey, attachment,
+                            text != null ? text.getBytes(StandardCharsets.UTF_8) : null);
+                    currentUserContentForHistory.getAsJsonArray("parts").add(GeminiFileUploadService.fileDataPart(uploaded));
+                    fileContextTracker.fullSent(attachment, text, uploaded);
+                } catch (IOException ex) {
+                    LOG.warn("Could not upload " + attachment, ex);
+                    setLoading(false);
+                    appendMessage(SenderType.ERROR, "Could not upload " + attachment.getFileName() + ": " + ex.getMessage(), false);
+                    return;
+                }
+            }
+            if (!diffedAttachments.isEmpty()) {
+                appendMessage(SenderType.SYSTEM, "Sent only the changes since the last attachment of " + String.join(", ", diffedAttachments), false);
+            }
+            List<JsonObject> contents = new ArrayList<>(currentRequestHistory);
+            contents.add(currentUserContentForHistory);
+            // The outbox keeps only the prompt text, so messages with attachments report the failure instead
+            Runnable onConnectivityFailure = !attachments.isEmpty() ? null : () -> {
+                // Nothing reached the API: keep the prompt in the outbox instead of losing it
+                outboxService.enqueue(panelId, selectedModel, userInput, currentRequestHistory);
+                appendMessage(SenderType.SYSTEM, "No connection to the Gemini API. The message was queued and is sent automatically once the connection is back.", false);
+            };
+            LOG.info("Request prepared in " + (System.nanoTime() - sendStartedAt) / 1_000_000 + " ms"
+                    + (historyJson != null ? " from the history prefetched while typing" : ""));
+            requestAnswer(apiKey, selectedModel, contents, List.of(currentUserContentForHistory), onConnectivityFailure, historyJson);
+        });
+    }
+
+    /**
+     * The history to send: expired files dropped, trimmed to the model's input limit, and the newest spilled turns
+     * that still fit read back from disk. Blocking, call off the EDT.
+     */
+    private List<JsonObject> prepareRequestHistory(List<SpilledTurn> spilledHistory, List<JsonObject> historySnapshot, String userInput, String modelId) {
+        GeminiFileUploadService uploadService = GeminiFileUploadService.getInstance();
+        List<JsonObject> history = trimHistoryToBudget(uploadService.dropExpiredFileParts(historySnapshot), userInput, modelId);
+        if (history.size() < historySnapshot.size()) {
+            return history; // Not even the history in memory fits
+        }
+        // Spilled turns are chosen by the estimates taken when they were spilled, so the others stay on disk
+        int room = getHistoryTokenBudget(modelId) - tokenAccountant.estimate(history, userInput);
+        int fitting = 0;
+        for (int i = spilledHistory.size() - 1; i >= 0 && spilledHistory.get(i).tokens <= room; i--) {
+            room -= spilledHistory.get(i).tokens;
+            fitting++;
+        }
+        List<JsonObject> fullHistory = uploadService.dropExpiredFileParts(readSpilledTurns(spilledHistory, fitting));
+        fullHistory.addAll(history);
+        return fullHistory;
+    }
+
+    /**
+     * Once typing pauses, prepares what the next send needs: the request history and its serialization, the tool
+     * declarations and a warm connection to the endpoint. Send then only appends the new turn.
+     */
+    private void schedulePrefetch() {
+        String input = inputField.getText().trim();
+        prefetchAlarm.cancelAllRequests();
+        if (input.isEmpty() || requestInFlight) {
+            if (dropPreparedHistory() > 0) {
+                updateFootprint();
+            }
+            return;
+        }
+        List<JsonObject> historySnapshot = new ArrayList<>(conversationHistory);
+        List<SpilledTurn> spilledHistory = spilledTurns;
+        String modelId = settingsService.getSelectedModelId();
+        prefetchAlarm.addRequest(() -> {
+            PreparedHistory prepared = preparedHistory;
+            if (prepared == null || !prepared.matches(historySnapshot, spilledHistory, modelId)) {
+                preparedHistory = null; // Stale, not kept while the new one is built
+                List<JsonObject> requestHistory = prepareRequestHistory(spilledHistory, historySnapshot, input, modelId);
+                if (requestInFlight) {
+                    return; // Sent meanwhile without it
+                }
+                preparedHistory = new PreparedHistory(historySnapshot, spilledHistory, modelId, requestHistory, serializeContents(requestHistory));
+                uiScheduler.runInFrame(this::updateFootprint);
+            }
+            if (settingsService.isToolsEnabled()) {
+                GeminiToolExecutor.getInstance(project).getToolsPayload();
+            }
+            geminiApiService.warmUpConnection();
+        }, PREFETCH_DELAY_MS);
+    }
+
+    private void chooseAttachments() {
+        FileChooser.chooseFiles(FileChooserDescriptorFactory.createMultipleFilesNoJarsDescriptor(), project, null, files -> {
+            for (VirtualFile file : files) {
+                Path path = file.getFileSystem().getNioPath(file);
+                if (path != null && !pendingAttachments.contains(path)) {
+                    pendingAttachments.add(path);
+                }
+            }
+            updateAttachmentsLabel();
+        });
+    }
+
+    private void updateAttachmentsLabel() {
+        attachmentsLabel.setText(describeAttachments(pendingAttachments));
+        attachmentsLabel.setVisible(!pendingAttachments.isEmpty());
+    }
+
+    private static String describeAttachments(List<Path> attachments) {
+        List<String> names = new ArrayList<>();
+        for (Path attachment : attachments) {
+            names.add(attachment.getFileName().toString());
+        }
+        return String.join(", ", names);
+    }
 
+    private static JsonObject userContent(String userInput) {
         JsonObject currentUserContentForHistory = new JsonObject();
         JsonObject userMessagePart = new JsonObject();
         userMessagePart.addProperty("text", userInput);
@@ -362,38 +1078,394 @@ public class GeminiChatPanel extends JPanel {
         userPartsArray.add(userMessagePart);
         currentUserContentForHistory.addProperty("role", "user");
         currentUserContentForHistory.add("parts", userPartsArray);
+        return currentUserContentForHistory;
+    }
 
-        ApplicationManager.getApplication().executeOnPooledThread(() -> {
-            List<JsonObject> currentRequestHistory = new ArrayList<>(conversationHistory);
-            geminiApiService.generateContent(apiKey, selectedModel, userInput, currentRequestHistory, new GeminiApiService.GeminiApiResponseCallback() {
-                @Override
-                public void onSuccess(String geminiResponse, JsonObject modelContent) {
-                    setLoading(false);
-                    appendMessage(SenderType.GEMINI, geminiResponse, false);
-                    ApplicationManager.getApplication().invokeLater(() -> {
-                        conversationHistory.add(currentUserContentForHistory);
-                        conversationHistory.add(modelContent);
-                    });
+    /**
+     * Sends {@code contents} with the local tools declared and streams the answer into this tab. Blocking, runs on
+     * a background thread. Function calls in the answer are executed and answered with a follow-up request, up to
+     * {@link #MAX_TOOL_ROUNDS} times; the final answer adds the whole turn to the history. Tools run between the
+     * requests, once the response that asked for them is closed.
+     * @param historyJson all of {@code contents} but the last, already serialized; null to serialize everything
+     */
+    private void requestAnswer(String apiKey, String modelId, List<JsonObject> contents, List<JsonObject> newTurnContents,
+                               @Nullable Runnable onConnectivityFailure, @Nullable String historyJson) {
+        turnStartedAt = System.nanoTime();
+        for (int toolRound = 0; ; toolRound++) {
+            JsonObject payload = new JsonObject();
+            JsonArray contentsArray = new JsonArray();
+            contents.forEach(contentsArray::add);
+            payload.add("contents", contentsArray);
+            if (settingsService.isToolsEnabled()) {
+                payload.add("tools", GeminiToolExecutor.getInstance(project).getToolsPayload()); // Created on the first request
+            }
+            // Serialized once; a prepared history prefix only needs the new turn and the other fields appended
+            String prefixJson = historyJson != null ? historyJson : serializeContents(contents.subList(0, contents.size() - 1));
+            LatencyBudgetPlanner.Plan budgetPlan = null;
+            long budgetMillis = settingsService.getLatencyBudgetMillis();
+            if (budgetMillis > 0) {
+                // Planned on the contents, the other fields are small
+                int contentsChars = prefixJson.length() + contents.get(contents.size() - 1).toString().length();
+                budgetPlan = latencyBudgetPlanner.plan(budgetMillis, modelId, contentsChars);
+                JsonObject generationConfig = budgetPlan.toGenerationConfig();
+                if (generationConfig != null) {
+                    payload.add("generationConfig", generationConfig);
+                }
+            }
+            String payloadJson = serializePayload(prefixJson, payload);
+            JsonObject[] callingContent = new JsonObject[1];
+            geminiApiService.streamGenerateContent(apiKey, budgetPlan != null ? budgetPlan.modelId : modelId, payload, payloadJson,
+                    newResponseCallback(newTurnContents, toolRound < MAX_TOOL_ROUNDS ? content -> callingContent[0] = content : null,
+                            toolRound == 0 ? onConnectivityFailure : null, budgetPlan));
+            JsonObject modelContent = callingContent[0];
+            if (modelContent == null) {
+                return; // Answered, or failed
+            }
+            List<JsonObject> functionCalls = GeminiApiService.getFunctionCalls(modelContent);
+            appendMessage(SenderType.SYSTEM, "Running tools: " + GeminiToolExecutor.describe(functionCalls), false);
+            JsonObject functionResponses = GeminiToolExecutor.getInstance(project).execute(functionCalls); // All calls in parallel, one follow-up
+            contents = new ArrayList<>(contents);
+            contents.add(modelContent);
+            contents.add(functionResponses);
+            newTurnContents = new ArrayList<>(newTurnContents);
+            newTurnContents.add(modelContent);
+            newTurnContents.add(functionResponses);
+            historyJson = null;
+        }
+    }
+
+    /**
+     * Serializes {@code payload} reusing {@code historyJson}, the serialized contents before the last one.
+     */
+    private static String serializePayload(String historyJson, JsonObject payload) {
+        JsonArray contents = payload.getAsJsonArray("contents");
+        StringBuilder json = new StringBuilder(historyJson.length() + 1024).append("{\"contents\":[").append(historyJson);
+        if (!historyJson.isEmpty()) {
+            json.append(',');
+        }
+        json.append(contents.get(contents.size() - 1)).append(']');
+        for (Map.Entry<String, JsonElement> field : payload.entrySet()) {
+            if (!"contents".equals(field.getKey())) {
+                json.append(",\"").append(field.getKey()).append("\":").append(field.getValue());
+            }
+        }
+        return json.append('}').toString();
+    }
+
+    private static String serializeContents(List<JsonObject> contents) {
+        StringBuilder json = new StringBuilder();
+        for (JsonObject content : contents) {
+            if (json.length() > 0) {
+                json.append(',');
+            }
+            json.append(content);
+        }
+        return json.toString();
+    }
+
+    /**
+     * Streams an answer into this tab and adds the turn to the history once it is complete.
+     * @param onFunctionCalls receives an answer that calls functions, which then does not complete the turn; null to
+     *                        end the turn without answering the calls
+     * @param onConnectivityFailure called instead of showing the error if the request did not reach the API; null to show it
+     * @param budgetPlan how the request was fitted into the latency budget, null without a budget
+     */
+    private GeminiApiService.GeminiApiResponseCallback newResponseCallback(List<JsonObject> newTurnContents,
+                                                                           @Nullable Consumer<JsonObject> onFunctionCalls,
+                                                                           @Nullable Runnable onConnectivityFailure,
+                                                                           @Nullable LatencyBudgetPlanner.Plan budgetPlan) {
+        return new GeminiApiService.GeminiApiResponseCallback() {
+            private final StringBuilder streamedText = new StringBuilder();
+
+            @Override
+            public void onPartialResponse(String textDelta) {
+                synchronized (streamedText) { // Read by the scheduler, which renders the latest text once per frame
+                    streamedText.append(textDelta);
+                }
+                uiScheduler.updateStreamingEntry(answerHtml(streamedText), false);
+            }
+
+            @Override
+            public void onSuccess(String geminiResponse, JsonObject modelContent) {
+                if (!geminiResponse.isEmpty()) {
+                    uiScheduler.updateStreamingEntry(answerHtml(geminiResponse), true);
+                }
+                List<JsonObject> functionCalls = GeminiApiService.getFunctionCalls(modelContent);
+                if (!functionCalls.isEmpty() && onFunctionCalls != null) {
+                    onFunctionCalls.accept(modelContent); // Answered by requestAnswer once this response is closed
+                    return;
+                }
+                JsonObject finalContent = modelContent;
+                if (!functionCalls.isEmpty()) {
+                    appendMessage(SenderType.SYSTEM, "Stopped after " + MAX_TOOL_ROUNDS + " rounds of tool calls.", false);
+                    finalContent = withoutFunctionCalls(modelContent); // The API rejects histories with unanswered calls
+                }
+                if (budgetPlan != null) {
+                    reportLatencyBudget(budgetPlan, (System.nanoTime() - turnStartedAt) / 1_000_000);
+                }
+                List<JsonObject> turnContents = new ArrayList<>(newTurnContents);
+                turnContents.add(finalContent);
+                long addedChars = 0;
+                for (JsonObject content : turnContents) {
+                    addedChars += content.toString().length();
                 }
+                long finalAddedChars = addedChars;
+                uiScheduler.runInFrame(() -> {
+                    conversationHistory.addAll(turnContents);
+                    historyChars += finalAddedChars;
+                    scheduleTokenCount();
+                });
+                setLoading(false);
+            }
 
-                @Override
-                public void onFailure(String errorMessage, String detailedError) {
+            @Override
+            public void onFailure(String errorMessage, String detailedError) {
+                if (streamedText.length() > 0) {
+                    // Keep what was received before the stream broke off
+                    uiScheduler.updateStreamingEntry(answerHtml(streamedText), true);
+                } else if (onConnectivityFailure != null && GeminiApiService.isConnectivityError(errorMessage)) {
                     setLoading(false);
-                    String fullErrorMessage = errorMessage;
-                    if (detailedError != null && !detailedError.isEmpty() && !detailedError.equals(errorMessage)) {
-                        fullErrorMessage += " Details: " + detailedError;
-                    }
-                    appendMessage(SenderType.ERROR, fullErrorMessage, false);
-                    System.err.println("Gemini API Error: " + errorMessage + (detailedError != null ? "\nDetails: " + detailedError : ""));
+                    onConnectivityFailure.run();
+                    return;
+                }
+                setLoading(false);
+                String fullErrorMessage = errorMessage;
+                if (detailedError != null && !detailedError.isEmpty() && !detailedError.equals(errorMessage)) {
+                    fullErrorMessage += " Details: " + detailedError;
+                }
+                appendMessage(SenderType.ERROR, fullErrorMessage, false);
+                System.err.println("Gemini API Error: " + errorMessage + (detailedError != null ? "\nDetails: " + detailedError : ""));
+            }
+        };
+    }
+
+    /**
+     * The model content without its function call parts, for a turn that ends before the calls were answered.
+     */
+    private static JsonObject withoutFunctionCalls(JsonObject modelContent) {
+        JsonArray parts = new JsonArray();
+        for (JsonElement part : modelContent.getAsJsonArray("parts")) {
+            if (!part.getAsJsonObject().has("functionCall")) {
+                parts.add(part);
+            }
+        }
+        if (parts.size() == 0) {
+            JsonObject part = new JsonObject();
+            part.addProperty("text", "[Stopped after " + MAX_TOOL_ROUNDS + " rounds of tool calls]");
+            parts.add(part);
+        }
+        JsonObject content = modelContent.deepCopy();
+        content.add("parts", parts);
+        return content;
+    }
+
+    private void chooseTraceToReplay() {
+        if (requestInFlight) {
+            Messages.showInfoMessage(project, "Wait for the current answer before replaying a recorded one.", "Replay Recorded Response");
+            return;
+        }
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            List<GeminiTraceRecorder.Trace> traces = GeminiTraceRecorder.getInstance().readRecent(MAX_REPLAY_CHOICES);
+            ApplicationManager.getApplication().invokeLater(() -> {
+                if (traces.isEmpty()) {
+                    Messages.showInfoMessage(project, "No responses recorded yet. Enable recording in the Gemini settings.", "Replay Recorded Response");
+                    return;
                 }
+                List<String> descriptions = new ArrayList<>();
+                traces.forEach(trace -> descriptions.add(trace.describe()));
+                JBPopupFactory.getInstance().createPopupChooserBuilder(descriptions)
+                        .setTitle("Replay Recorded Response")
+                        .setItemChosenCallback(description -> {
+                            int pace = Messages.showDialog(project, "Replay at which pace?", "Replay Recorded Response",
+                                    new String[]{"Original", "4x", "Instant", Messages.getCancelButton()}, 0, null);
+                            double[] speeds = {1, 4, 0};
+                            if (pace >= 0 && pace < speeds.length) {
+                                replayTrace(traces.get(descriptions.indexOf(description)), speeds[pace]);
+                            }
+                        })
+                        .createPopup()
+                        .showInCenterOf(chatPane);
             });
         });
     }
 
-    private void setInteractionEnabled(boolean enabled) {
-        ApplicationManager.getApplication().invokeLater(() -> {
-            inputField.setEnabled(enabled);
-            sendButton.setEnabled(enabled);
+    /**
+     * Renders a recorded answer as if it were streaming in now, without adding it to the history, and reports
+     * how long rendering took next to the recorded duration.
+     */
+    private void replayTrace(GeminiTraceRecorder.Trace trace, double speed) {
+        setLoading(true);
+        appendMessage(SenderType.SYSTEM, "Replaying " + trace.describe() + (speed == 1 ? "" : speed > 0 ? " at " + (int) speed + "x" : " without pauses"), false);
+        long startedAt = System.nanoTime();
+        ApplicationManager.getApplication().executeOnPooledThread(() -> geminiApiService.replayTrace(trace, speed, new GeminiApiService.GeminiApiResponseCallback() {
+            private final StringBuilder streamedText = new StringBuilder();
+
+            @Override
+            public void onPartialResponse(String textDelta) {
+                synchronized (streamedText) {
+                    streamedText.append(textDelta);
+                }
+                uiScheduler.updateStreamingEntry(answerHtml(streamedText), false);
+            }
+
+            @Override
+            public void onSuccess(String geminiResponse, JsonObject modelContent) {
+                if (!geminiResponse.isEmpty()) {
+                    uiScheduler.updateStreamingEntry(answerHtml(geminiResponse), true);
+                }
+                finished(null);
+            }
+
+            @Override
+            public void onFailure(String errorMessage, String detailedError) {
+                if (streamedText.length() > 0) {
+                    uiScheduler.updateStreamingEntry(answerHtml(streamedText), true);
+                }
+                finished(errorMessage);
+            }
+
+            private void finished(@Nullable String errorMessage) {
+                setLoading(false);
+                if (errorMessage != null) {
+                    appendMessage(SenderType.ERROR, errorMessage, false);
+                }
+                appendMessage(SenderType.SYSTEM, String.format("Replay done in %d ms (recorded: %d ms, %d chunks). Not added to the conversation.",
+                        (System.nanoTime() - startedAt) / 1_000_000, trace.getDurationMillis(), trace.getLines().size()), false);
+            }
+        }));
+    }
+
+    /**
+     * Shows whether an answer arrived within the latency budget, and how often this tab's answers did.
+     */
+    private void reportLatencyBudget(LatencyBudgetPlanner.Plan plan, long elapsedMillis) {
+        boolean met = plan.isMet(elapsedMillis);
+        uiScheduler.runInFrame(() -> {
+            budgetAnswers++;
+            if (met) {
+                budgetAnswersMet++;
+            }
+            latencyBudgetLabel.setText(String.format("%.1f s of %.1f s budget %s, %d of %d met", elapsedMillis / 1000.0,
+                    plan.budgetMillis / 1000.0, met ? "met" : "missed", budgetAnswersMet, budgetAnswers));
+            latencyBudgetLabel.setForeground(met ? UIUtil.getLabelDisabledForeground() : JBColor.RED);
+            latencyBudgetLabel.setToolTipText(plan.isCapped()
+                    ? String.format("%s, up to %,d output tokens, predicted %.1f s", plan.modelId, plan.maxOutputTokens, plan.predictedMillis / 1000.0)
+                    : plan.modelId + ", not capped: its thinking cannot be limited");
+            latencyBudgetLabel.setVisible(true);
         });
     }
+
+    /**
+     * Receives the answers of prompts this tab queued while offline (and of orphaned prompts from closed tabs).
+     */
+    private GeminiOutboxService.ReplayTarget createReplayTarget() {
+        return new GeminiOutboxService.ReplayTarget() {
+            @Override
+            public boolean isBusy() {
+                return requestInFlight;
+            }
+
+            @Override
+            public @NotNull GeminiApiService.GeminiApiResponseCallback replayStarting(@NotNull GeminiOutboxEntry entry) {
+                setLoading(true);
+                appendMessage(SenderType.SYSTEM, "Connection is back, sending the queued message: " + StringUtil.shortenTextWithEllipsis(entry.userInput, 80, 0), false);
+                JsonObject userContent = userContent(entry.userInput);
+                // The outbox handles connectivity failures; function calls are not expected, the replay declares no tools
+                return newResponseCallback(List.of(userContent), null, null, null);
+            }
+
+            @Override
+            public void replayPostponed(@NotNull GeminiOutboxEntry entry) {
+                setLoading(false);
+                appendMessage(SenderType.SYSTEM, "The connection dropped again, the message stays queued.", false);
+            }
+        };
+    }
+
+    /**
+     * Drops the oldest turns until the request fits the model's input token limit, keeping room for the answer.
+     * Uses the cached local token estimates of the history entries.
+     */
+    private List<JsonObject> trimHistoryToBudget(List<JsonObject> history, String userInput, String modelId) {
+        int budget = getHistoryTokenBudget(modelId);
+        int estimatedTokens = tokenAccountant.estimate(history, userInput);
+        int dropped = 0;
+        // Drop whole turns so the history keeps starting with a user prompt and tool calls stay with their responses
+        while (estimatedTokens > budget && !history.isEmpty()) {
+            for (int i = nextTurnStart(history, 0); i > 0; i--) {
+                estimatedTokens -= tokenAccountant.estimateEntry(history.remove(0));
+                dropped++;
+            }
+        }
+        if (dropped > 0) {
+            LOG.info("Trimmed " + dropped + " history entries to fit the " + modelCatalogService.getInputTokenLimit(modelId)
+                    + " token input limit of " + modelId);
+        }
+        return history;
+    }
+
+    /**
+     * Tokens the history and the new prompt may take: the model's input limit, less room kept for the answer.
+     */
+    private int getHistoryTokenBudget(String modelId) {
+        int inputLimit = modelCatalogService.getInputTokenLimit(modelId);
+        return inputLimit - Math.min(modelCatalogService.getOutputTokenLimit(modelId), inputLimit / 4);
+    }
+
+    /**
+     * The index of the first turn after the one at {@code from}, or the size of the history if it is the last.
+     * A turn starts with a user prompt; the model's function calls and the function responses belong to it.
+     */
+    private static int nextTurnStart(List<JsonObject> history, int from) {
+        int next = from + 1;
+        while (next < history.size() && !isTurnStart(history.get(next))) {
+            next++;
+        }
+        return next;
+    }
+
+    private static boolean isTurnStart(JsonObject content) {
+        if (!content.has("role") || !"user".equals(content.get("role").getAsString()) || !content.has("parts")) {
+            return false;
+        }
+        for (JsonElement part : content.getAsJsonArray("parts")) {
+            if (part.getAsJsonObject().has("functionResponse")) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Recomputes the live token counter off the EDT after a short typing pause. Input text and history
+     * are captured here on the EDT; estimation and the optional countTokens call run on a pooled thread.
+     */
+    private void scheduleTokenCount() {
+        String input = inputField.getText();
+        List<JsonObject> historySnapshot = new ArrayList<>(conversationHistory);
+        String apiKey = settingsService.getGeminiApiKey();
+        String modelId = settingsService.getSelectedModelId();
+        tokenCounterAlarm.cancelAllRequests();
+        tokenCounterAlarm.addRequest(new Runnable() {
+            @Override
+            public void run() {
+                TokenAccountant.TokenCount count = tokenAccountant.count(apiKey, modelId, historySnapshot, input);
+                uiScheduler.runInFrame(() -> {
+                    tokenCounterLabel.setText(String.format("%s%,d / %,d tokens", count.exact ? "" : "~", count.tokens, count.limit));
+                    tokenCounterLabel.setForeground(count.isOverLimit() ? JBColor.RED : UIUtil.getLabelDisabledForeground());
+                    tokenCounterLabel.setToolTipText(count.exact ? "Counted by the countTokens endpoint" : "Local estimate");
+                });
+                if (count.retryAfterMillis > 0 && !tokenCounterAlarm.isDisposed()) {
+                    tokenCounterAlarm.addRequest(this, count.retryAfterMillis); // Cancelled by the next change
+                }
+            }
+        }, 250);
+    }
+
+    private void setInteractionEnabled(boolean enabled) {
+        // Called on the EDT from applyUiFrame
+        inputField.setEnabled(enabled);
+        sendButton.setEnabled(enabled);
+        attachButton.setEnabled(enabled);
+    }
 }
\ No newline at end of file
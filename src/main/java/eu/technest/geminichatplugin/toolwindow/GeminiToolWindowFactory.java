@@ -1,21 +1,96 @@
 package eu.technest.geminichatplugin.toolwindow;
 
+import com.intellij.icons.AllIcons;
+import com.intellij.openapi.actionSystem.AnActionEvent;
+import com.intellij.openapi.application.ApplicationManager;
 import com.intellij.openapi.project.DumbAware;
+import com.intellij.openapi.project.DumbAwareAction;
 import com.intellij.openapi.project.Project;
 import com.intellij.openapi.wm.ToolWindow;
 import com.intellij.openapi.wm.ToolWindowFactory;
+import com.intellij.ui.AnimatedIcon;
+import com.intellij.ui.components.JBLabel;
 import com.intellij.ui.content.Content;
 import com.intellij.ui.content.ContentFactory;
+import com.intellij.ui.content.ContentManager;
+import com.intellij.ui.content.ContentManagerEvent;
+import com.intellij.ui.content.ContentManagerListener;
+import eu.technest.geminichatplugin.service.GeminiApiService;
+import eu.technest.geminichatplugin.service.GeminiOutboxService;
 import org.jetbrains.annotations.NotNull;
 
+import javax.swing.*;
+import java.awt.*;
+import java.util.Collections;
+
 public class GeminiToolWindowFactory implements ToolWindowFactory, DumbAware {
 
     @Override
     public void createToolWindowContent(@NotNull Project project, @NotNull ToolWindow toolWindow) {
-        GeminiChatPanel chatPanel = new GeminiChatPanel(project);
+        addChatTab(project, toolWindow);
+
+        toolWindow.setTitleActions(Collections.singletonList(new DumbAwareAction("New Chat", "Open a new chat tab", AllIcons.General.Add) {
+            @Override
+            public void actionPerformed(@NotNull AnActionEvent e) {
+                addChatTab(project, toolWindow);
+            }
+        }));
+
+        // Always keep one chat open
+        toolWindow.getContentManager().addContentManagerListener(new ContentManagerListener() {
+            @Override
+            public void contentRemoved(@NotNull ContentManagerEvent event) {
+                if (!project.isDisposed() && !toolWindow.isDisposed() && toolWindow.getContentManager().getContentCount() == 0) {
+                    addChatTab(project, toolWindow);
+                }
+            }
+        });
+    }
+
+    /**
+     * Adds a chat tab with its own history and in-flight request. Tabs share the HTTP client and markdown renderer.
+     * The tab shows a placeholder at once; the shared services (HTTP client, flexmark, highlighter) are created on a
+     * background thread, and only then is the chat panel built on the EDT and swapped in.
+     */
+    static void addChatTab(@NotNull Project project, @NotNull ToolWindow toolWindow) {
+        ChatStartupProbe.Measurement startup = ChatStartupProbe.getInstance().start();
+        ContentManager contentManager = toolWindow.getContentManager();
+        JPanel placeholder = new JPanel(new BorderLayout());
+        placeholder.add(new JBLabel("Starting Gemini chat...", new AnimatedIcon.Default(), SwingConstants.CENTER), BorderLayout.CENTER);
         ContentFactory contentFactory = ContentFactory.getInstance(); // Use new ContentFactory
-        Content content = contentFactory.createContent(chatPanel, "", false);
-        toolWindow.getContentManager().addContent(content);
+        Content content = contentFactory.createContent(placeholder, "Chat " + (contentManager.getContentCount() + 1), false);
+        content.setCloseable(true);
+        content.putUserData(ToolWindow.SHOW_CONTENT_ICON, Boolean.TRUE);
+        contentManager.addContent(content);
+        contentManager.setSelectedContent(content);
+        startup.mark("placeholder");
+
+        ApplicationManager.getApplication().executeOnPooledThread(() -> {
+            warmUpChatServices(project);
+            startup.mark("services");
+            ApplicationManager.getApplication().invokeLater(() -> {
+                if (contentManager.isDisposed() || contentManager.getIndexOfContent(content) < 0) {
+                    return; // Tab closed while starting
+                }
+                GeminiChatPanel chatPanel = new GeminiChatPanel(project);
+                content.setComponent(chatPanel);
+                content.setDisposer(chatPanel);
+                chatPanel.setBusyListener(busy -> content.setIcon(busy ? new AnimatedIcon.Default() : null));
+                startup.mark("panel");
+                // Interactive once the panel has been laid out and painted, i.e. on the next EDT turn
+                ApplicationManager.getApplication().invokeLater(startup::interactive, project.getDisposed());
+            }, project.getDisposed());
+        });
+    }
+
+    /**
+     * Creates the application services a chat panel needs and loads their classes, off the EDT.
+     */
+    private static void warmUpChatServices(@NotNull Project project) {
+        GeminiApiService.getInstance(); // OkHttp client
+        GeminiOutboxService.getInstance(project); // Loads the persisted outbox
+        ChatMarkdownRenderer.getInstance().render("*warm-up*"); // Classloads the flexmark parser and renderer
+        CodeBlockHighlighter.getInstance();
     }
 
 }
@@ -1,5 +1,9 @@
 package eu.technest.geminichatplugin.toolwindow;
 
+import eu.technest.geminichatplugin.css.Css;
+
+import java.util.Locale;
+
 public enum SenderType {
     USER("You"),
     GEMINI("Gemini"),
@@ -7,12 +11,18 @@ public enum SenderType {
     ERROR("Error"); // For general errors or API errors
 
     private final String displayName;
+    private final String cssClass;
 
     SenderType(String displayName) {
         this.displayName = displayName;
+        this.cssClass = Css.SENDER_CLASS_PREFIX + name().toLowerCase(Locale.ROOT);
     }
 
     public String getDisplayName() {
         return displayName;
     }
+
+    public String getCssClass() {
+        return cssClass;
+    }
 }
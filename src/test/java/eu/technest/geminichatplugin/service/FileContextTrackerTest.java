@@ -0,0 +1,74 @@
+package eu.technest.geminichatplugin.service;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class FileContextTrackerTest {
+
+    @Test
+    void changeInTheMiddleGetsThreeContextLinesOnEachSide() throws Exception {
+        String diff = FileContextTracker.unifiedDiff(lines(10), replace(lines(10), 5, "five"));
+
+        assertEquals("@@ -2,7 +2,7 @@\n"
+                + " 2\n 3\n 4\n-5\n+five\n 6\n 7\n 8\n", diff);
+    }
+
+    @Test
+    void contextIsClippedAtTheStartOfTheFile() throws Exception {
+        String diff = FileContextTracker.unifiedDiff(lines(5), replace(lines(5), 1, "one"));
+
+        assertEquals("@@ -1,4 +1,4 @@\n"
+                + "-1\n+one\n 2\n 3\n 4\n", diff);
+    }
+
+    @Test
+    void insertionCountsOnlyOnTheNewSide() throws Exception {
+        String diff = FileContextTracker.unifiedDiff(lines(10), lines(10).replace("\n6\n", "\nnew\n6\n"));
+
+        assertEquals("@@ -3,6 +3,7 @@\n"
+                + " 3\n 4\n 5\n+new\n 6\n 7\n 8\n", diff);
+    }
+
+    @Test
+    void changesWhoseContextTouchesShareOneHunk() throws Exception {
+        // Six unchanged lines between the changes: their context lines meet
+        String diff = FileContextTracker.unifiedDiff(lines(20), replace(replace(lines(20), 5, "five"), 12, "twelve"));
+
+        assertEquals("@@ -2,14 +2,14 @@\n"
+                + " 2\n 3\n 4\n-5\n+five\n 6\n 7\n 8\n 9\n 10\n 11\n-12\n+twelve\n 13\n 14\n 15\n", diff);
+    }
+
+    @Test
+    void changesFurtherApartGetSeparateHunks() throws Exception {
+        // Seven unchanged lines between the changes
+        String diff = FileContextTracker.unifiedDiff(lines(20), replace(replace(lines(20), 3, "three"), 11, "eleven"));
+
+        assertEquals("@@ -1,6 +1,6 @@\n"
+                + " 1\n 2\n-3\n+three\n 4\n 5\n 6\n"
+                + "@@ -8,7 +8,7 @@\n"
+                + " 8\n 9\n 10\n-11\n+eleven\n 12\n 13\n 14\n", diff);
+    }
+
+    @Test
+    void identicalTextsHaveNoHunks() throws Exception {
+        assertEquals("", FileContextTracker.unifiedDiff(lines(10), lines(10)));
+    }
+
+    /**
+     * Lines "1" to "count", without a trailing newline.
+     */
+    private static String lines(int count) {
+        StringBuilder text = new StringBuilder();
+        for (int i = 1; i <= count; i++) {
+            text.append(i).append(i < count ? "\n" : "");
+        }
+        return text.toString();
+    }
+
+    private static String replace(String text, int lineNumber, String replacement) {
+        String[] lines = text.split("\n", -1);
+        lines[lineNumber - 1] = replacement;
+        return String.join("\n", lines);
+    }
+}